@@ -0,0 +1,159 @@
+package eu.fbk.nwrtools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+import eu.fbk.nwrtools.util.CommandLine;
+
+/**
+ * Compares the CSV results of a JMH run against a baseline, failing on regressions.
+ * <p>
+ * Results are matched by benchmark name, mode and parameters. A benchmark regresses if its score
+ * is worse than the baseline score by more than the tolerance (relative) plus the error margins
+ * of both measurements. A benchmark missing from the baseline fails the comparison as well, so
+ * that new benchmarks (or an empty baseline) cannot pass unchecked; if {@code -u} is given, the
+ * results are stored as the new baseline instead.
+ * </p>
+ */
+public final class BenchmarkBaseline {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BenchmarkBaseline.class);
+
+    public static void main(final String... args) {
+        try {
+            final CommandLine cmd = CommandLine
+                    .parser()
+                    .withName("benchmark-baseline")
+                    .withHeader("Compares JMH results (CSV) against a stored baseline.")
+                    .withOption("r", "results", "the JMH results file", "FILE",
+                            CommandLine.Type.FILE_EXISTING, true, false, true)
+                    .withOption("b", "baseline", "the baseline file", "FILE",
+                            CommandLine.Type.FILE, true, false, true)
+                    .withOption("t", "tolerance", "the tolerated relative slowdown "
+                            + "(default 0.1)", "RATIO", CommandLine.Type.NON_NEGATIVE_FLOAT,
+                            true, false, false)
+                    .withOption("u", "update", "replace the baseline with the results")
+                    .withLogger(LoggerFactory.getLogger("eu.fbk.nwrtools")).parse(args);
+
+            final File resultsFile = cmd.getOptionValue("r", File.class);
+            final File baselineFile = cmd.getOptionValue("b", File.class);
+            final double tolerance = cmd.getOptionValue("t", Double.class, 0.1);
+
+            if (cmd.hasOption("u")) {
+                Files.createParentDirs(baselineFile);
+                Files.copy(resultsFile, baselineFile);
+                LOGGER.info("Baseline {} updated with results {}", baselineFile, resultsFile);
+                return;
+            }
+
+            if (!baselineFile.exists()) {
+                throw new IllegalArgumentException("Baseline " + baselineFile
+                        + " does not exist (use -u to create it)");
+            }
+
+            final Map<String, Score> results = read(resultsFile);
+            final Map<String, Score> baseline = read(baselineFile);
+            int regressions = 0;
+            int missing = 0;
+            for (final Map.Entry<String, Score> entry : results.entrySet()) {
+                final Score result = entry.getValue();
+                final Score base = baseline.get(entry.getKey());
+                if (base == null) {
+                    LOGGER.error("{}: {} - NO BASELINE", entry.getKey(), result);
+                    ++missing;
+                    continue;
+                }
+                final double margin = base.score * tolerance + base.error + result.error;
+                final boolean higherIsBetter = result.mode.equals("thrpt");
+                final double delta = higherIsBetter ? base.score - result.score : result.score
+                        - base.score;
+                final String change = String.format("%+.1f%%", 100.0
+                        * (result.score - base.score) / base.score);
+                if (delta > margin) {
+                    LOGGER.error("{}: {} vs baseline {} ({}) - REGRESSION", entry.getKey(),
+                            result, base, change);
+                    ++regressions;
+                } else {
+                    LOGGER.info("{}: {} vs baseline {} ({})", entry.getKey(), result, base,
+                            change);
+                }
+            }
+
+            if (missing > 0) {
+                LOGGER.error("{} benchmark(s) missing from baseline {} (use -u on the reference "
+                        + "machine to record them)", missing, baselineFile);
+            }
+            if (regressions > 0) {
+                LOGGER.error("{} benchmark(s) regressed over baseline {}", regressions,
+                        baselineFile);
+            }
+            if (missing > 0 || regressions > 0) {
+                System.exit(1);
+            }
+
+        } catch (final Throwable ex) {
+            CommandLine.fail(ex);
+        }
+    }
+
+    private static Map<String, Score> read(final File file) throws IOException {
+        final Map<String, Score> scores = Maps.newLinkedHashMap();
+        try (Reader reader = Files.newReader(file, Charsets.UTF_8)) {
+            final List<String[]> rows = new CSVReader(reader).readAll();
+            final String[] header = rows.get(0);
+            for (final String[] row : rows.subList(1, rows.size())) {
+                // Columns: Benchmark, Mode, Threads, Samples, Score, Error, Unit, Param: ...
+                final StringBuilder key = new StringBuilder(row[0]).append(' ').append(row[1]);
+                for (int i = 7; i < row.length; ++i) {
+                    if (row[i].isEmpty()) {
+                        continue; // parameter not used by this benchmark
+                    }
+                    key.append(' ').append(header[i].replace("Param: ", "")).append('=')
+                            .append(row[i]);
+                }
+                final double error = row[5].isEmpty() || row[5].equals("NaN") ? 0.0 : Double
+                        .parseDouble(row[5]);
+                scores.put(key.toString(), new Score(row[1], Double.parseDouble(row[4]), error,
+                        row[6]));
+            }
+        }
+        return scores;
+    }
+
+    private static final class Score {
+
+        final String mode;
+
+        final double score;
+
+        final double error;
+
+        final String unit;
+
+        Score(final String mode, final double score, final double error, final String unit) {
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.3f +/- %.3f %s", this.score, this.error, this.unit);
+        }
+
+    }
+
+}
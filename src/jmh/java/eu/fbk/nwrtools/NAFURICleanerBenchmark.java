@@ -0,0 +1,54 @@
+package eu.fbk.nwrtools;
+
+import java.net.URI;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NAFURICleanerBenchmark {
+
+    private static final int SIZE = 1024; // power of two, so that index wraps with a mask
+
+    private static final String[] SUFFIXES = new String[] { "", "#char=120,135",
+            "?q=a b&c=d|e", "/Caf\u00e9_{1}", "/%20already%20escaped", "/a\"quoted\"<tag>" };
+
+    private String[] uris;
+
+    private int index;
+
+    @Setup
+    public void setup() {
+        // Mix clean URIs with ones requiring escaping, as found in NAF files
+        final Random random = new Random(0);
+        this.uris = new String[SIZE];
+        for (int i = 0; i < SIZE; ++i) {
+            this.uris[i] = "http://www.newsreader-project.eu/data/cars/2004/10/11/"
+                    + Integer.toHexString(random.nextInt()) + ".xml"
+                    + SUFFIXES[random.nextInt(SUFFIXES.length)];
+        }
+        this.index = 0;
+    }
+
+    @Benchmark
+    public URI cleanURI() {
+        this.index = this.index + 1 & SIZE - 1;
+        return NAFURICleaner.cleanURI(this.uris[this.index]);
+    }
+
+}
@@ -0,0 +1,186 @@
+package eu.fbk.nwrtools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.impl.MapBindingSet;
+
+import eu.fbk.nwrtools.Query.Template;
+import eu.fbk.nwrtools.util.Histogram;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryTestDriverBenchmark {
+
+    private static final int SIZE = 1024; // power of two, so that index wraps with a mask
+
+    private static final List<String> VARIABLES = ImmutableList.of("e", "m", "l", "n");
+
+    private static final String QUERY = "SELECT ?p ?o WHERE { ${e} ?p ?o . ${e} ks:mention ${m} "
+            + "FILTER (?o != ${l}) } LIMIT ${n}";
+
+    private String[] tokens;
+
+    private BindingSet[] bindings;
+
+    private BindingSet[] tuples;
+
+    private Template template;
+
+    private int index;
+
+    @Setup
+    public void setup() throws IOException {
+
+        // Generate synthetic input tuples with a URI, a bnode, a language literal and a number
+        final Random random = new Random(0);
+        final String[][] rows = new String[SIZE][];
+        for (int i = 0; i < SIZE; ++i) {
+            final int id = random.nextInt(SIZE * 16);
+            rows[i] = new String[] { "<http://dbpedia.org/resource/Entity_" + id + ">",
+                    "_:m" + random.nextInt(SIZE), "\"label " + id + "\"@en",
+                    Integer.toString(random.nextInt(1000)) };
+        }
+
+        // Decode tokens and bindings in memory, and the same tuples through an input table
+        this.tokens = new String[SIZE];
+        this.bindings = new BindingSet[SIZE];
+        for (int i = 0; i < SIZE; ++i) {
+            final MapBindingSet binding = new MapBindingSet();
+            for (int j = 0; j < VARIABLES.size(); ++j) {
+                binding.addBinding(VARIABLES.get(j), QueryTestDriver.decode(rows[i][j]));
+            }
+            this.tokens[i] = rows[i][i % VARIABLES.size()];
+            this.bindings[i] = binding;
+        }
+        this.tuples = readTable(rows);
+        this.template = Template.forString(QUERY);
+        this.index = 0;
+    }
+
+    @Benchmark
+    public Value decode() {
+        return QueryTestDriver.decode(this.tokens[next()]);
+    }
+
+    @Benchmark
+    public String encode() {
+        return QueryTestDriver.encode(VARIABLES, this.bindings[next()]);
+    }
+
+    @Benchmark
+    public String instantiateBindings() {
+        return this.template.instantiate(this.bindings[next()]);
+    }
+
+    @Benchmark
+    public String instantiateTable() {
+        return this.template.instantiate(this.tuples[next()]);
+    }
+
+    private int next() {
+        this.index = this.index + 1 & SIZE - 1;
+        return this.index;
+    }
+
+    private static BindingSet[] readTable(final String[][] rows) throws IOException {
+        final File file = File.createTempFile("benchmark-", ".tsv");
+        try {
+            try (Writer writer = Files.newWriter(file, Charsets.UTF_8)) {
+                for (int j = 0; j < VARIABLES.size(); ++j) {
+                    writer.write((j > 0 ? "\t?" : "?") + VARIABLES.get(j));
+                }
+                for (final String[] row : rows) {
+                    writer.write("\n");
+                    for (int j = 0; j < row.length; ++j) {
+                        writer.write((j > 0 ? "\t" : "") + row[j]);
+                    }
+                }
+                writer.write("\n");
+            }
+            final InputTable table = InputTable.read(file, false);
+            final BindingSet[] tuples = new BindingSet[table.size()];
+            for (int i = 0; i < tuples.length; ++i) {
+                tuples[i] = table.get(i);
+            }
+            return tuples;
+        } finally {
+            file.delete();
+        }
+    }
+
+    // Three clients record completions on their own recorders while a monitor merges them
+    @State(Scope.Group)
+    public static class Recording {
+
+        private static final List<String> QUERIES = ImmutableList.of("q1", "q2", "q3", "q4");
+
+        Statistics statistics;
+
+        @Setup
+        public void setup() {
+            this.statistics = new Statistics(3, QUERIES);
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        Statistics.Recorder recorder;
+
+        long counter;
+
+        @Setup
+        public void setup(final Recording recording) {
+            this.recorder = recording.statistics.newRecorder();
+            this.counter = 0L;
+        }
+
+    }
+
+    @Benchmark
+    @Group("statistics")
+    @GroupThreads(3)
+    public void reportQueryCompletion(final Client client) {
+        final long n = ++client.counter;
+        final long time = n * 7919 & 0xFFFF; // spread values over many buckets
+        client.recorder.reportQueryCompletion(Recording.QUERIES.get((int) (n & 3)),
+                (n & 127) == 0, time, n & 1023, time >> 2, time, n * 31 & 0xFFFFF);
+        client.recorder.reportQueryMixCompletion(time << 2);
+    }
+
+    @Benchmark
+    @Group("statistics")
+    @GroupThreads(1)
+    public Histogram mergeStatistics(final Recording recording) {
+        return recording.statistics.getMixTime();
+    }
+
+}
@@ -0,0 +1,92 @@
+package eu.fbk.nwrtools;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.fbk.nwrtools.QueryTestGenerator.Dictionary;
+import eu.fbk.nwrtools.QueryTestGenerator.Tuple;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx1g") // the dictionary hash table alone takes 128 MB
+@State(Scope.Thread)
+public class QueryTestGeneratorBenchmark {
+
+    private static final int SIZE = 64 * 1024; // power of two, so that index wraps with a mask
+
+    private static final int[] MAPPINGS = new int[] { 0, 1 };
+
+    private String[] strings;
+
+    private Dictionary dictionary;
+
+    private List<Tuple> tuples;
+
+    private int[] codes;
+
+    private int index;
+
+    @Setup
+    public void setup() {
+
+        // Populate the dictionary with synthetic URIs, so that codeFor measures lookups
+        final Random random = new Random(0);
+        this.strings = new String[SIZE];
+        this.dictionary = new Dictionary();
+        for (int i = 0; i < SIZE; ++i) {
+            this.strings[i] = "http://dbpedia.org/resource/Entity_" + random.nextInt(SIZE * 16);
+            this.dictionary.codeFor(this.strings[i]);
+        }
+
+        // Build a sorted table of (entity, mention) pairs, with ~4 mentions per entity
+        this.tuples = Lists.newArrayListWithCapacity(SIZE);
+        for (int i = 0; i < SIZE; ++i) {
+            this.tuples.add(Tuple.create(1 + random.nextInt(SIZE / 4), 1 + i));
+        }
+        Collections.sort(this.tuples);
+        this.codes = new int[MAPPINGS.length];
+        this.index = 0;
+    }
+
+    @Benchmark
+    public int codeFor() {
+        return this.dictionary.codeFor(this.strings[next()]);
+    }
+
+    @Benchmark
+    public boolean pickUnconstrained() {
+        Arrays.fill(this.codes, 0);
+        return QueryTestGenerator.pick(this.tuples, MAPPINGS, this.codes);
+    }
+
+    @Benchmark
+    public boolean pickJoin() {
+        Arrays.fill(this.codes, 0);
+        this.codes[0] = 1 + (next() & SIZE / 4 - 1); // join on an already assigned entity
+        return QueryTestGenerator.pick(this.tuples, MAPPINGS, this.codes);
+    }
+
+    private int next() {
+        this.index = this.index + 1 & SIZE - 1;
+        return this.index;
+    }
+
+}
@@ -0,0 +1,112 @@
+package eu.fbk.nwrtools.processors;
+
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+
+import eu.fbk.rdfpro.util.Statements;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProcessorsBenchmark {
+
+    private static final int GROUPS = 256; // power of two, so that index wraps with a mask
+
+    private static final String NS = "http://www.newsreader-project.eu/data/";
+
+    @Param({ "4", "64" })
+    public int groupSize;
+
+    private URI[] keys;
+
+    private Statement[][] groups;
+
+    private CountProcessor countProcessor;
+
+    private GafDateFilterProcessor dateFilterProcessor;
+
+    private RDFHandler handler;
+
+    private int index;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+
+        // Generate groups of statements about the same event, half of them being gaf:denotedBy
+        // links to mentions in documents dated between 2003 and 2006
+        final ValueFactory vf = Statements.VALUE_FACTORY;
+        final URI denotedBy = vf.createURI("http://groundedannotationframework.org/gaf#denotedBy");
+        final URI label = vf.createURI("http://www.w3.org/2000/01/rdf-schema#label");
+        final Random random = new Random(0);
+        this.keys = new URI[GROUPS];
+        this.groups = new Statement[GROUPS][];
+        for (int i = 0; i < GROUPS; ++i) {
+            final URI event = vf.createURI(NS + "cars/event/ev" + i);
+            final Statement[] statements = new Statement[this.groupSize];
+            for (int j = 0; j < statements.length; ++j) {
+                if (j % 2 == 0) {
+                    final String mention = String.format("%scars/%d/%02d/%02d/doc%d.xml#char=%d",
+                            NS, 2003 + random.nextInt(4), 1 + random.nextInt(12),
+                            1 + random.nextInt(28), random.nextInt(1000), random.nextInt(5000));
+                    statements[j] = vf.createStatement(event, denotedBy, vf.createURI(mention));
+                } else {
+                    statements[j] = vf.createStatement(event, label,
+                            vf.createLiteral("event " + i + " label " + j));
+                }
+            }
+            this.keys[i] = event;
+            this.groups[i] = statements;
+        }
+
+        // Keep only 2004-2005 mentions; results are consumed by the blackhole
+        this.countProcessor = new CountProcessor(label, null);
+        this.dateFilterProcessor = new GafDateFilterProcessor(new GregorianCalendar(2004, 0, 1),
+                new GregorianCalendar(2005, 11, 31), denotedBy);
+        this.handler = new RDFHandlerBase() {
+
+            @Override
+            public void handleStatement(final Statement statement) {
+                blackhole.consume(statement);
+            }
+
+        };
+        this.index = 0;
+    }
+
+    @Benchmark
+    public void countReduce() throws RDFHandlerException {
+        this.index = this.index + 1 & GROUPS - 1;
+        this.countProcessor.reduce(this.keys[this.index], this.groups[this.index], this.handler);
+    }
+
+    @Benchmark
+    public void gafDateFilterReduce() throws RDFHandlerException {
+        this.index = this.index + 1 & GROUPS - 1;
+        this.dateFilterProcessor.reduce(this.keys[this.index], this.groups[this.index],
+                this.handler);
+    }
+
+}
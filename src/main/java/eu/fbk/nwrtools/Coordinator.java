@@ -0,0 +1,155 @@
+package eu.fbk.nwrtools;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.collect.Lists;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.fbk.rdfpro.util.IO;
+
+final class Coordinator implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Coordinator.class);
+
+    private final ServerSocket serverSocket;
+
+    private final List<Socket> sockets;
+
+    private final List<BufferedReader> readers;
+
+    private final List<Writer> writers;
+
+    Coordinator(final int port, final int numWorkers) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        this.sockets = Lists.newArrayList();
+        this.readers = Lists.newArrayList();
+        this.writers = Lists.newArrayList();
+        LOGGER.info("Waiting for {} worker(s) on port {}", numWorkers, port);
+        for (int i = 0; i < numWorkers; ++i) {
+            final Socket socket = this.serverSocket.accept();
+            this.sockets.add(socket);
+            this.readers.add(new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.UTF_8)));
+            this.writers.add(new OutputStreamWriter(socket.getOutputStream(),
+                    StandardCharsets.UTF_8));
+            send(i, "WELCOME " + i);
+            LOGGER.info("Worker {} connected from {}", i, socket.getRemoteSocketAddress());
+        }
+    }
+
+    public void broadcast(final String command) throws IOException {
+        for (int i = 0; i < this.writers.size(); ++i) {
+            send(i, command);
+        }
+    }
+
+    public void await(final String reply) throws IOException {
+        for (int i = 0; i < this.readers.size(); ++i) {
+            final String line = receive(i);
+            if (!reply.equals(line)) {
+                throw new IOException("Expected " + reply + " from worker " + i + ", got "
+                        + line);
+            }
+        }
+    }
+
+    public long measure(final long maxTime) throws IOException, InterruptedException {
+
+        // Start the measurement and wait for all the workers to complete their share, in
+        // separate threads as replies may arrive in any order
+        final long ts = System.currentTimeMillis();
+        broadcast("MEASURE");
+        final CountDownLatch latch = new CountDownLatch(this.readers.size());
+        final AtomicReference<Throwable> exceptionHolder = new AtomicReference<>();
+        for (int i = 0; i < this.readers.size(); ++i) {
+            final int worker = i;
+            final Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        final String line = receive(worker);
+                        if (!"DONE".equals(line)) {
+                            throw new IOException("Expected DONE from worker " + worker
+                                    + ", got " + line);
+                        }
+                    } catch (final Throwable ex) {
+                        exceptionHolder.compareAndSet(null, ex);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+
+            }, "coordinator-" + worker);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // Stop all the workers together once done or when the max time elapses, so that
+        // they measure the same time window, which is the one reported for the test
+        final long deadline = ts + maxTime;
+        long now = ts;
+        while (exceptionHolder.get() == null && now < deadline
+                && !latch.await(Math.min(1000L, deadline - now), TimeUnit.MILLISECONDS)) {
+            now = System.currentTimeMillis();
+        }
+        if (latch.getCount() > 0 && exceptionHolder.get() == null) {
+            LOGGER.info("Max time elapsed, stopping {} worker(s)", latch.getCount());
+        }
+        broadcast("STOP");
+        latch.await();
+        if (exceptionHolder.get() != null) {
+            throw new IOException("Measurement failed", exceptionHolder.get());
+        }
+        return System.currentTimeMillis() - ts;
+    }
+
+    public void collect(final Statistics stats) throws IOException {
+        for (int i = 0; i < this.readers.size(); ++i) {
+            final String line = receive(i);
+            if (!line.startsWith("STATS ")) {
+                throw new IOException("Expected STATS from worker " + i + ", got " + line);
+            }
+            LOGGER.debug("Worker {} measured {} ms", i, line.substring(6));
+            stats.read(this.readers.get(i));
+        }
+    }
+
+    @Override
+    public void close() {
+        for (final Socket socket : this.sockets) {
+            IO.closeQuietly(socket);
+        }
+        IO.closeQuietly(this.serverSocket);
+    }
+
+    private void send(final int worker, final String command) throws IOException {
+        final Writer writer = this.writers.get(worker);
+        writer.write(command);
+        writer.write("\n");
+        writer.flush();
+    }
+
+    private String receive(final int worker) throws IOException {
+        final String line = this.readers.get(worker).readLine();
+        if (line == null) {
+            throw new IOException("Worker " + worker + " disconnected");
+        }
+        return line;
+    }
+
+}
@@ -0,0 +1,79 @@
+package eu.fbk.nwrtools;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+
+/**
+ * An order-insensitive hash of a multiset of results (tuples, statements, booleans), computed
+ * as the sum of 64 bit hashes of the results so that streams need not be materialized;
+ * blank node identifiers are ignored, as they are not stable across runs.
+ */
+final class Fingerprint {
+
+    private static final HashFunction FUNCTION = Hashing.murmur3_128();
+
+    private static final long BNODE_HASH = FUNCTION.hashUnencodedChars("_:").asLong();
+
+    private long hash;
+
+    public void add(final Object result) {
+        final long hash;
+        if (result instanceof BindingSet) {
+            long sum = 0L; // binding order is irrelevant too
+            for (final Binding binding : (BindingSet) result) {
+                sum += mix(FUNCTION.hashUnencodedChars(binding.getName()).asLong() * 31
+                        + hash(binding.getValue()));
+            }
+            hash = sum;
+        } else if (result instanceof Statement) {
+            final Statement stmt = (Statement) result;
+            hash = mix(mix(mix(mix(hash(stmt.getSubject())) + hash(stmt.getPredicate()))
+                    + hash(stmt.getObject()))
+                    + hash(stmt.getContext()));
+        } else {
+            hash = FUNCTION.hashUnencodedChars(String.valueOf(result)).asLong();
+        }
+        this.hash += mix(hash);
+    }
+
+    @Override
+    public String toString() {
+        return Strings.padStart(Long.toHexString(this.hash), 16, '0');
+    }
+
+    private static long hash(@Nullable final Value value) {
+        if (value == null) {
+            return 0L;
+        } else if (value instanceof BNode) {
+            return BNODE_HASH;
+        } else if (value instanceof Literal) {
+            final Literal literal = (Literal) value;
+            final Object qualifier = literal.getLanguage() != null ? literal.getLanguage()
+                    : literal.getDatatype();
+            return FUNCTION.hashUnencodedChars(literal.getLabel()).asLong() * 31
+                    + (qualifier == null ? 0 : FUNCTION.hashUnencodedChars(
+                            qualifier.toString()).asLong());
+        } else {
+            return FUNCTION.hashUnencodedChars(value.stringValue()).asLong() + 1;
+        }
+    }
+
+    private static long mix(final long value) {
+        // finalization step of MurmurHash3, spreads bits before summing hashes
+        long h = value;
+        h = (h ^ h >>> 33) * 0xff51afd7ed558ccdL;
+        h = (h ^ h >>> 33) * 0xc4ceb9fe1a85ec53L;
+        return h ^ h >>> 33;
+    }
+
+}
@@ -0,0 +1,506 @@
+package eu.fbk.nwrtools;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import org.openrdf.model.Value;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.impl.BindingImpl;
+import org.openrdf.query.impl.MapBindingSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jersey.repackaged.com.google.common.collect.Sets;
+
+import eu.fbk.knowledgestore.data.Data;
+import eu.fbk.rdfpro.util.IO;
+import eu.fbk.rdfpro.util.Tracker;
+
+final class InputTable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InputTable.class);
+
+    private final List<String> variables;
+
+    private final Map<String, Integer> columns;
+
+    private final int size;
+
+    @Nullable
+    private final Value[] heapValues; // code -> interned value, code 0 = unbound (heap)
+
+    @Nullable
+    private final String[] heapStrings; // code -> value rendered for templates (heap, lazy)
+
+    @Nullable
+    private final int[][] heapCodes; // column-major codes (heap storage)
+
+    @Nullable
+    private final MappedFile mappedOffsets; // code -> end offset of value bytes (mapped)
+
+    @Nullable
+    private final MappedFile mappedValues; // UTF-8 tokens of values (mapped)
+
+    @Nullable
+    private final MappedFile mappedCodes; // row-major codes (memory-mapped storage)
+
+    private InputTable(final List<String> variables, final int size,
+            @Nullable final Value[] heapValues, @Nullable final int[][] heapCodes,
+            @Nullable final MappedFile mappedOffsets, @Nullable final MappedFile mappedValues,
+            @Nullable final MappedFile mappedCodes) {
+        final ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+        for (int i = 0; i < variables.size(); ++i) {
+            builder.put(variables.get(i), i);
+        }
+        this.variables = ImmutableList.copyOf(variables);
+        this.columns = builder.build();
+        this.size = size;
+        this.heapValues = heapValues;
+        this.heapStrings = heapValues == null ? null : new String[heapValues.length];
+        this.heapCodes = heapCodes;
+        this.mappedOffsets = mappedOffsets;
+        this.mappedValues = mappedValues;
+        this.mappedCodes = mappedCodes;
+    }
+
+    static InputTable read(final File file, final boolean mapped) throws IOException {
+
+        // Values are interned in heap (map + list) or in temporary files (table + streams)
+        final Map<String, Integer> heapDictionary = mapped ? null : Maps.newHashMap();
+        final List<Value> heapValues = mapped ? null : Lists.newArrayList((Value) null);
+        final MappedDictionary mappedDictionary = mapped ? new MappedDictionary() : null;
+        final File offsetsFile = mapped ? createTempFile(".offsets") : null;
+        final File valuesFile = mapped ? createTempFile(".values") : null;
+        final File codesFile = mapped ? createTempFile(".codes") : null;
+
+        DataOutputStream offsetsStream = null;
+        DataOutputStream valuesStream = null;
+        DataOutputStream codesStream = null;
+        try (BufferedReader reader = new BufferedReader(IO.utf8Reader(IO.buffer(IO.read(file
+                .getAbsolutePath()))))) {
+
+            // Read the header with the variable names
+            final List<String> variables = Lists.newArrayList();
+            for (final String token : reader.readLine().split("\t")) {
+                variables.add(token.substring(1));
+            }
+            final int numColumns = variables.size();
+
+            // Allocate either growable columns or temporary files for values and codes
+            int[][] columns = null;
+            if (mapped) {
+                offsetsStream = newDataStream(offsetsFile);
+                valuesStream = newDataStream(valuesFile);
+                codesStream = newDataStream(codesFile);
+                offsetsStream.writeLong(0L); // code 0 = unbound, no bytes
+            } else {
+                columns = new int[numColumns][1024];
+            }
+
+            // Parse tuples, interning values and mapping them to integer codes
+            final Tracker tracker = new Tracker(LOGGER, null, //
+                    "Parsed " + file + ": %d tuples (%d tuple/s avg)", //
+                    "Parsed %d tuples (%d tuple/s, %d tuple/s avg)");
+            tracker.start();
+            int numRows = 0;
+            int numValues = 1;
+            long numBytes = 0L;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] tokens = line.split("\t");
+                Preconditions.checkArgument(tokens.length == numColumns,
+                        "Wrong number of values (" + tokens.length + " found, " + numColumns
+                                + " expected) in line: " + line);
+                if (columns != null && numRows == columns[0].length) {
+                    for (int j = 0; j < numColumns; ++j) {
+                        columns[j] = Arrays.copyOf(columns[j], numRows * 2);
+                    }
+                }
+                for (int j = 0; j < numColumns; ++j) {
+                    final String token = tokens[j];
+                    final Integer heapCode = mapped ? null : heapDictionary.get(token);
+                    int code = mapped ? mappedDictionary.get(token) : heapCode == null ? -1
+                            : heapCode;
+                    if (code < 0) {
+                        final Value value;
+                        try {
+                            value = QueryTestDriver.decode(token);
+                        } catch (final Throwable ex) {
+                            throw new IllegalArgumentException("Could not parse value of "
+                                    + variables.get(j) + " in line: " + line, ex);
+                        }
+                        code = value == null ? 0 : numValues++;
+                        if (mapped) {
+                            if (value != null) {
+                                final byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+                                valuesStream.write(bytes);
+                                numBytes += bytes.length;
+                                offsetsStream.writeLong(numBytes);
+                            }
+                            mappedDictionary.put(token, code);
+                        } else {
+                            if (value != null) {
+                                heapValues.add(value);
+                            }
+                            heapDictionary.put(token, code);
+                        }
+                    }
+                    if (columns != null) {
+                        columns[j][numRows] = code;
+                    } else {
+                        codesStream.writeInt(code);
+                    }
+                }
+                ++numRows;
+                tracker.increment();
+            }
+            tracker.end();
+
+            // Finalize storage, mapping the temporary files in memory if necessary
+            MappedFile mappedOffsets = null;
+            MappedFile mappedValues = null;
+            MappedFile mappedCodes = null;
+            if (mapped) {
+                offsetsStream.close();
+                valuesStream.close();
+                codesStream.close();
+                mappedOffsets = new MappedFile(offsetsFile, false);
+                mappedValues = new MappedFile(valuesFile, false);
+                mappedCodes = new MappedFile(codesFile, false);
+            }
+            LOGGER.info("{} tuples, {} distinct values{}", numRows, numValues - 1,
+                    mapped ? " (memory-mapped)" : "");
+            return new InputTable(variables, numRows, mapped ? null
+                    : heapValues.toArray(new Value[heapValues.size()]), columns,
+                    mappedOffsets, mappedValues, mappedCodes);
+
+        } finally {
+            IO.closeQuietly(offsetsStream);
+            IO.closeQuietly(valuesStream);
+            IO.closeQuietly(codesStream);
+            IO.closeQuietly(mappedDictionary);
+        }
+    }
+
+    private static File createTempFile(final String suffix) throws IOException {
+        final File file = File.createTempFile("querytest-", suffix);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static DataOutputStream newDataStream(final File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    List<String> getVariables() {
+        return this.variables;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    @Nullable
+    Value get(final int row, final int column) {
+        final int code = getCode(row, column);
+        return this.heapValues != null ? this.heapValues[code] : QueryTestDriver
+                .decode(getToken(code));
+    }
+
+    String getString(final int row, final int column) {
+        if (this.heapStrings == null) {
+            return Data.toString(get(row, column), null);
+        }
+        final int code = getCode(row, column);
+        String string = this.heapStrings[code];
+        if (string == null) {
+            string = Data.toString(this.heapValues[code], null); // benign race
+            this.heapStrings[code] = string;
+        }
+        return string;
+    }
+
+    private int getCode(final int row, final int column) {
+        return this.heapCodes != null ? this.heapCodes[column][row] : this.mappedCodes
+                .getInt(((long) row * this.variables.size() + column) * 4);
+    }
+
+    @Nullable
+    private String getToken(final int code) {
+        if (code == 0) {
+            return null;
+        }
+        final long start = this.mappedOffsets.getLong((code - 1) * 8L);
+        final long end = this.mappedOffsets.getLong(code * 8L);
+        return new String(this.mappedValues.getBytes(start, (int) (end - start)),
+                StandardCharsets.UTF_8);
+    }
+
+    BindingSet get(final int row) {
+        Preconditions.checkElementIndex(row, this.size);
+        return new Tuple(row);
+    }
+
+    // A read-only view of a row of the table
+    final class Tuple implements BindingSet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int row;
+
+        Tuple(final int row) {
+            this.row = row;
+        }
+
+        @Override
+        public Iterator<Binding> iterator() {
+            final List<Binding> bindings = Lists.newArrayList();
+            for (int i = 0; i < InputTable.this.variables.size(); ++i) {
+                final Value value = InputTable.this.get(this.row, i);
+                if (value != null) {
+                    bindings.add(new BindingImpl(InputTable.this.variables.get(i), value));
+                }
+            }
+            return bindings.iterator();
+        }
+
+        @Override
+        public Set<String> getBindingNames() {
+            final Set<String> names = Sets.newLinkedHashSet();
+            for (final Binding binding : this) {
+                names.add(binding.getName());
+            }
+            return names;
+        }
+
+        @Override
+        public Binding getBinding(final String bindingName) {
+            final Value value = getValue(bindingName);
+            return value == null ? null : new BindingImpl(bindingName, value);
+        }
+
+        @Override
+        public boolean hasBinding(final String bindingName) {
+            return getValue(bindingName) != null;
+        }
+
+        @Override
+        public Value getValue(final String bindingName) {
+            final Integer column = InputTable.this.columns.get(bindingName);
+            return column == null ? null : InputTable.this.get(this.row, column);
+        }
+
+        String getString(final String bindingName) {
+            final Integer column = InputTable.this.columns.get(bindingName);
+            return column == null ? Data.toString(null, null) : InputTable.this.getString(
+                    this.row, column);
+        }
+
+        @Override
+        public int size() {
+            return getBindingNames().size();
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (object == this) {
+                return true;
+            }
+            if (!(object instanceof BindingSet)) {
+                return false;
+            }
+            return toMapBindingSet().equals(object);
+        }
+
+        @Override
+        public int hashCode() {
+            return toMapBindingSet().hashCode();
+        }
+
+        private MapBindingSet toMapBindingSet() {
+            final MapBindingSet bindings = new MapBindingSet();
+            for (final Binding binding : this) {
+                bindings.addBinding(binding);
+            }
+            return bindings;
+        }
+
+    }
+
+    // A file mapped in memory in chunks of 1 GB, so to overcome the 2 GB limit of a single
+    // mapping; ints and longs at aligned positions never straddle two chunks
+    private static final class MappedFile {
+
+        private static final int CHUNK_BITS = 30;
+
+        private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+        private final ByteBuffer[] chunks;
+
+        MappedFile(final File file, final boolean writable) throws IOException {
+            this(file, file.length(), writable);
+        }
+
+        MappedFile(final File file, final long length, final boolean writable)
+                throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r")) {
+                if (writable) {
+                    raf.setLength(length);
+                }
+                final FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE
+                        : FileChannel.MapMode.READ_ONLY;
+                this.chunks = new ByteBuffer[(int) (length + CHUNK_MASK >>> CHUNK_BITS)];
+                for (int i = 0; i < this.chunks.length; ++i) {
+                    final long start = (long) i << CHUNK_BITS;
+                    this.chunks[i] = raf.getChannel().map(mode, start,
+                            Math.min(length - start, CHUNK_MASK + 1L));
+                }
+            }
+        }
+
+        int getInt(final long position) {
+            return chunk(position).getInt((int) (position & CHUNK_MASK));
+        }
+
+        void putInt(final long position, final int value) {
+            chunk(position).putInt((int) (position & CHUNK_MASK), value);
+        }
+
+        long getLong(final long position) {
+            return chunk(position).getLong((int) (position & CHUNK_MASK));
+        }
+
+        void putLong(final long position, final long value) {
+            chunk(position).putLong((int) (position & CHUNK_MASK), value);
+        }
+
+        byte[] getBytes(final long position, final int length) {
+            final byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                final ByteBuffer chunk = chunk(position + offset).duplicate();
+                chunk.position((int) (position + offset & CHUNK_MASK));
+                final int count = Math.min(length - offset, chunk.remaining());
+                chunk.get(bytes, offset, count);
+                offset += count;
+            }
+            return bytes;
+        }
+
+        private ByteBuffer chunk(final long position) {
+            return this.chunks[(int) (position >>> CHUNK_BITS)];
+        }
+
+    }
+
+    // A String -> code hash table (open addressing) in a memory-mapped temporary file, used
+    // to intern values while loading mapped data; strings are identified by their 128 bit
+    // murmur3 hash, whose collisions are negligibly probable and thus not checked
+    private static final class MappedDictionary implements Closeable {
+
+        private static final HashFunction FUNCTION = Hashing.murmur3_128();
+
+        private static final int SLOT_SIZE = 24; // hash (16 bytes), code + 1 (4 bytes), pad
+
+        private File file;
+
+        private MappedFile table;
+
+        private long capacity;
+
+        private long size;
+
+        MappedDictionary() throws IOException {
+            allocate(1L << 16);
+        }
+
+        int get(final String string) {
+            final ByteBuffer hash = ByteBuffer.wrap(FUNCTION.hashString(string,
+                    StandardCharsets.UTF_8).asBytes());
+            return this.table.getInt(find(hash.getLong(0), hash.getLong(8)) + 16) - 1;
+        }
+
+        void put(final String string, final int code) throws IOException {
+            final ByteBuffer hash = ByteBuffer.wrap(FUNCTION.hashString(string,
+                    StandardCharsets.UTF_8).asBytes());
+            put(hash.getLong(0), hash.getLong(8), code + 1);
+            if (this.size * 2 > this.capacity) {
+                final File oldFile = this.file;
+                final MappedFile oldTable = this.table;
+                final long oldCapacity = this.capacity;
+                allocate(oldCapacity * 2);
+                for (long slot = 0; slot < oldCapacity; ++slot) {
+                    final long position = slot * SLOT_SIZE;
+                    final int slotCode = oldTable.getInt(position + 16);
+                    if (slotCode != 0) {
+                        put(oldTable.getLong(position), oldTable.getLong(position + 8),
+                                slotCode);
+                    }
+                }
+                oldFile.delete();
+            }
+        }
+
+        @Override
+        public void close() {
+            this.file.delete();
+        }
+
+        private void put(final long hash1, final long hash2, final int slotCode) {
+            final long position = find(hash1, hash2);
+            if (this.table.getInt(position + 16) == 0) {
+                this.table.putLong(position, hash1);
+                this.table.putLong(position + 8, hash2);
+                ++this.size;
+            }
+            this.table.putInt(position + 16, slotCode);
+        }
+
+        private long find(final long hash1, final long hash2) {
+            long index = hash1 & this.capacity - 1;
+            while (true) {
+                final long position = index * SLOT_SIZE;
+                if (this.table.getInt(position + 16) == 0
+                        || this.table.getLong(position) == hash1
+                        && this.table.getLong(position + 8) == hash2) {
+                    return position;
+                }
+                index = index + 1 & this.capacity - 1;
+            }
+        }
+
+        private void allocate(final long capacity) throws IOException {
+            this.file = createTempFile(".dictionary");
+            this.table = new MappedFile(this.file, capacity * SLOT_SIZE, true);
+            this.capacity = capacity;
+            this.size = 0;
+        }
+
+    }
+
+}
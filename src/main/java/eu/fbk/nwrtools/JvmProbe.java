@@ -0,0 +1,167 @@
+package eu.fbk.nwrtools;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.impl.MapBindingSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.fbk.rdfpro.util.Statements;
+
+/**
+ * Samples the overhead of the driver JVM around query evaluations: CPU time and bytes
+ * allocated by the client thread (ThreadMXBean) and time and number of stop-the-world GC
+ * pauses (GarbageCollectorMXBean counters, which are updated synchronously at the end of each
+ * pause, so a pause is attributed to the queries and mixes whose execution it overlapped).
+ */
+final class JvmProbe {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JvmProbe.class);
+
+    static final List<String> QUERY_VARIABLES = ImmutableList.of("cpu", "alloc", "gc");
+
+    static final List<String> MIX_VARIABLES = ImmutableList.of("mix.cpu", "mix.alloc",
+            "mix.gc", "mix.gccount");
+
+    private static final int CPU = 0; // ns
+
+    private static final int ALLOC = 1; // bytes
+
+    private static final int GC_TIME = 2; // ms
+
+    private static final int GC_COUNT = 3;
+
+    private final ThreadMXBean threads;
+
+    @Nullable
+    private final com.sun.management.ThreadMXBean allocations;
+
+    private final List<GarbageCollectorMXBean> collectors; // stop-the-world only
+
+    private final long[] start; // GC counters at phase start
+
+    private final AtomicLong cpu;
+
+    private final AtomicLong alloc;
+
+    private final AtomicLong numMixes;
+
+    private final AtomicLong numPausedMixes;
+
+    JvmProbe() {
+        // Enable thread CPU time and allocation measurements, if supported
+        this.threads = ManagementFactory.getThreadMXBean();
+        if (this.threads.isCurrentThreadCpuTimeSupported()) {
+            try {
+                this.threads.setThreadCpuTimeEnabled(true);
+            } catch (final UnsupportedOperationException ex) {
+                LOGGER.warn("Could not enable thread CPU time measurement", ex);
+            }
+        }
+        com.sun.management.ThreadMXBean allocations = null;
+        if (this.threads instanceof com.sun.management.ThreadMXBean) {
+            allocations = (com.sun.management.ThreadMXBean) this.threads;
+            if (allocations.isThreadAllocatedMemorySupported()) {
+                allocations.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                allocations = null;
+            }
+        }
+        this.allocations = allocations;
+
+        // Select collectors whose collection time consists of stop-the-world pauses
+        this.collectors = Lists.newArrayList();
+        for (final GarbageCollectorMXBean collector : ManagementFactory
+                .getGarbageCollectorMXBeans()) {
+            final String name = collector.getName();
+            if (!name.contains("Concurrent") && !name.contains("Cycles")) {
+                this.collectors.add(collector);
+            }
+        }
+
+        this.start = sample();
+        this.cpu = new AtomicLong();
+        this.alloc = new AtomicLong();
+        this.numMixes = new AtomicLong();
+        this.numPausedMixes = new AtomicLong();
+    }
+
+    long[] sample() {
+        // Thread counters are -1 if unsupported or disabled (e.g., for virtual threads)
+        long gcTime = 0L;
+        long gcCount = 0L;
+        for (final GarbageCollectorMXBean collector : this.collectors) {
+            gcTime += Math.max(0L, collector.getCollectionTime());
+            gcCount += Math.max(0L, collector.getCollectionCount());
+        }
+        return new long[] {
+                this.threads.getCurrentThreadCpuTime(),
+                this.allocations == null ? -1L : this.allocations
+                        .getThreadAllocatedBytes(Thread.currentThread().getId()), gcTime,
+                gcCount };
+    }
+
+    long[] measure(final long[] sample, final long[] total) {
+        // Compute the overhead since the sample, accumulating it in the total (shared by the
+        // concurrent queries of a mix)
+        final long[] now = sample();
+        final long[] delta = new long[now.length];
+        synchronized (total) {
+            for (int i = 0; i < now.length; ++i) {
+                delta[i] = sample[i] < 0 || now[i] < 0 ? -1L : now[i] - sample[i];
+                total[i] = total[i] < 0 || delta[i] < 0 ? -1L : total[i] + delta[i];
+            }
+        }
+        return delta;
+    }
+
+    void bind(final long[] delta, final String prefix, final MapBindingSet output) {
+        final ValueFactory vf = Statements.VALUE_FACTORY;
+        if (delta[CPU] >= 0) {
+            output.addBinding(prefix + "cpu", vf.createLiteral(delta[CPU] / 1000)); // us
+        }
+        if (delta[ALLOC] >= 0) {
+            output.addBinding(prefix + "alloc", vf.createLiteral(delta[ALLOC]));
+        }
+        output.addBinding(prefix + "gc", vf.createLiteral(delta[GC_TIME]));
+    }
+
+    boolean reportMix(final long[] total, final MapBindingSet output) {
+        // Bind mix overhead and return whether the mix overlapped a GC pause
+        bind(total, "mix.", output);
+        output.addBinding("mix.gccount", Statements.VALUE_FACTORY
+                .createLiteral(total[GC_COUNT]));
+        this.cpu.addAndGet(Math.max(0L, total[CPU]));
+        this.alloc.addAndGet(Math.max(0L, total[ALLOC]));
+        this.numMixes.incrementAndGet();
+        if (total[GC_COUNT] > 0) {
+            this.numPausedMixes.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    String summary(final long elapsed, final boolean excluded) {
+        final long[] delta = measure(this.start, new long[this.start.length]);
+        final double seconds = Math.max(1L, elapsed) / 1000.0;
+        final long mixes = this.numMixes.get();
+        final long pausedMixes = this.numPausedMixes.get();
+        return String.format("%d GC pause(s), %d ms paused (%.2f%% of time); client threads: "
+                + "%d ms CPU, %.1f MB/s allocated; %d of %d mix(es) (%.2f%%) overlapping "
+                + "GC pauses%s", delta[GC_COUNT], delta[GC_TIME], 100.0 * delta[GC_TIME]
+                / Math.max(1L, elapsed), this.cpu.get() / 1000000, this.alloc.get()
+                / seconds / (1024 * 1024), pausedMixes, mixes, 100.0 * pausedMixes
+                / Math.max(1L, mixes), excluded ? ", excluded from statistics" : "");
+    }
+
+}
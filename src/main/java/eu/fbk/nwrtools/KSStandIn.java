@@ -0,0 +1,588 @@
+package eu.fbk.nwrtools;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.DCTERMS;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFWriter;
+import org.openrdf.rio.Rio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.fbk.knowledgestore.vocabulary.KS;
+import eu.fbk.knowledgestore.vocabulary.NFO;
+import eu.fbk.knowledgestore.vocabulary.NIE;
+import eu.fbk.knowledgestore.vocabulary.NIF;
+import eu.fbk.nwrtools.util.CommandLine;
+
+/**
+ * A local HTTP stand-in for a KnowledgeStore server, serving synthetic NewsReader-shaped data.
+ * <p>
+ * The stand-in answers the SPARQL ({@code /sparql}), retrieve ({@code /resources},
+ * {@code /mentions}), count ({@code /resources/count}, {@code /mentions/count}) and download (
+ * {@code /files}) operations used by the tools in this package, so that their own overhead can be
+ * measured without a live KnowledgeStore. Data is not stored but generated deterministically from
+ * request parameters: the same request always produces the same answer, latency and outcome.
+ * SPARQL queries are not evaluated; a fixed number of synthetic solutions (or triples) is
+ * returned, using the projected variables of SELECT queries. Latency (fixed plus exponentially
+ * distributed jitter), bandwidth and error rate can be configured to emulate different server
+ * profiles.
+ * </p>
+ */
+public final class KSStandIn {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KSStandIn.class);
+
+    private static final ValueFactory FACTORY = ValueFactoryImpl.getInstance();
+
+    private static final String RESOURCE_NS = "http://www.newsreader-project.eu/data/synthetic/";
+
+    private static final String ENTITY_NS = "http://dbpedia.org/resource/Entity_";
+
+    private static final int NUM_ENTITIES = 10000;
+
+    private static final Pattern SELECT_PATTERN = Pattern.compile(
+            "(?is).*?\\bselect\\s+(?:distinct\\s+|reduced\\s+)?(.*?)\\s*(?:from|where|\\{).*");
+
+    private static final Pattern VARIABLE_PATTERN = Pattern.compile("[?$](\\w+)");
+
+    private static final Pattern RESOURCE_PATTERN = Pattern.compile(Pattern.quote(RESOURCE_NS)
+            + "(\\d+)\\.xml(?:#char=(\\d+),\\d+)?");
+
+    private final int numResources;
+
+    private final int numMentions; // per resource
+
+    private final int numResults; // per SPARQL query
+
+    private final long latency;
+
+    private final double jitter;
+
+    private final long bandwidth; // bytes / s, 0 = unlimited
+
+    private final double errorRate;
+
+    private final long seed;
+
+    private final Map<String, AtomicLong> counters;
+
+    public static void main(final String... args) {
+        try {
+            final CommandLine cmd = CommandLine
+                    .parser()
+                    .withName("ks-standin")
+                    .withHeader(
+                            "Starts a local HTTP stand-in for a KnowledgeStore, serving "
+                                    + "synthetic NewsReader-shaped data with configurable "
+                                    + "latency, bandwidth and error profiles.")
+                    .withOption("p", "port", "the port to listen to (default 8080)", "PORT",
+                            CommandLine.Type.POSITIVE_INTEGER, true, false, false)
+                    .withOption("n", "resources", "the number of resources (default 10000)",
+                            "NUM", CommandLine.Type.POSITIVE_INTEGER, true, false, false)
+                    .withOption("m", "mentions", "the number of mentions per resource "
+                            + "(default 50)", "NUM", CommandLine.Type.NON_NEGATIVE_INTEGER,
+                            true, false, false)
+                    .withOption("r", "results", "the number of results per SPARQL query "
+                            + "(default 100)", "NUM", CommandLine.Type.NON_NEGATIVE_INTEGER,
+                            true, false, false)
+                    .withOption("l", "latency", "the fixed latency of each request in ms "
+                            + "(default 0)", "MS", CommandLine.Type.NON_NEGATIVE_INTEGER, true,
+                            false, false)
+                    .withOption("j", "jitter", "the mean of the exponentially distributed "
+                            + "latency added to each request in ms (default 0)", "MS",
+                            CommandLine.Type.NON_NEGATIVE_FLOAT, true, false, false)
+                    .withOption("b", "bandwidth", "the maximum transfer rate of each "
+                            + "response in KB/s (default unlimited)", "KBPS",
+                            CommandLine.Type.NON_NEGATIVE_INTEGER, true, false, false)
+                    .withOption("e", "errors", "the fraction of requests failing with an "
+                            + "HTTP 500 error (default 0)", "RATE",
+                            CommandLine.Type.NON_NEGATIVE_FLOAT, true, false, false)
+                    .withOption("t", "threads", "the number of server threads (default 32)",
+                            "NUM", CommandLine.Type.POSITIVE_INTEGER, true, false, false)
+                    .withOption("s", "seed", "the seed for generating data (default 0)", "NUM",
+                            CommandLine.Type.INTEGER, true, false, false)
+                    .withFooter(
+                            "Point the tools to http://localhost:PORT/ to use the stand-in.")
+                    .withLogger(LoggerFactory.getLogger("eu.fbk.nwrtools")).parse(args);
+
+            final int port = cmd.getOptionValue("p", Integer.class, 8080);
+            final int threads = cmd.getOptionValue("t", Integer.class, 32);
+            final KSStandIn standIn = new KSStandIn(cmd.getOptionValue("n", Integer.class,
+                    10000), cmd.getOptionValue("m", Integer.class, 50), cmd.getOptionValue("r",
+                    Integer.class, 100), cmd.getOptionValue("l", Integer.class, 0),
+                    cmd.getOptionValue("j", Double.class, 0.0), cmd.getOptionValue("b",
+                            Integer.class, 0) * 1024L, cmd.getOptionValue("e", Double.class,
+                            0.0), cmd.getOptionValue("s", Integer.class, 0));
+            standIn.start(port, threads);
+
+        } catch (final Throwable ex) {
+            CommandLine.fail(ex);
+        }
+    }
+
+    public KSStandIn(final int numResources, final int numMentions, final int numResults,
+            final long latency, final double jitter, final long bandwidth,
+            final double errorRate, final long seed) {
+        this.numResources = numResources;
+        this.numMentions = numMentions;
+        this.numResults = numResults;
+        this.latency = latency;
+        this.jitter = jitter;
+        this.bandwidth = bandwidth;
+        this.errorRate = errorRate;
+        this.seed = seed;
+        this.counters = Maps.newConcurrentMap();
+    }
+
+    public HttpServer start(final int port, final int threads) throws IOException {
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("standin-%02d").build());
+        final HttpServer server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    dispatch(exchange);
+                } catch (final Throwable ex) {
+                    LOGGER.warn("Failed " + exchange.getRequestURI(), ex);
+                    send(exchange, 500, "text/plain", ex.toString());
+                } finally {
+                    exchange.close();
+                }
+            }
+
+        });
+        server.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+
+            @Override
+            public void run() {
+                server.stop(0);
+                executor.shutdownNow();
+                LOGGER.info("Stand-in stopped; requests served: {}", KSStandIn.this.counters);
+            }
+
+        });
+
+        LOGGER.info("Stand-in listening on port {}: {} resources, {} mentions/resource, "
+                + "{} results/query, latency {} ms + {} ms jitter, bandwidth {} KB/s, "
+                + "error rate {}", port, this.numResources, this.numMentions, this.numResults,
+                this.latency, this.jitter, this.bandwidth == 0 ? "unlimited"
+                        : this.bandwidth / 1024, this.errorRate);
+        return server;
+    }
+
+    private void dispatch(final HttpExchange exchange) throws Throwable {
+
+        // Parse request parameters, either from the URI or from the body of POST requests, and
+        // seed the generation of the answer and of latency and failures with both of them
+        final String path = exchange.getRequestURI().getPath().replaceAll("/+$", "");
+        final String operation = path.substring(path.lastIndexOf('/') + 1);
+        final Map<String, List<String>> params = parseParameters(exchange);
+        final Random random = new Random((this.seed * 31 + exchange.getRequestURI().hashCode())
+                * 31 + params.hashCode());
+        AtomicLong counter = this.counters.get(path);
+        if (counter == null) {
+            this.counters.putIfAbsent(path, new AtomicLong());
+            counter = this.counters.get(path);
+        }
+        counter.incrementAndGet();
+
+        // Emulate server latency and failures
+        final double delay = this.latency - this.jitter * Math.log(1.0 - random.nextDouble());
+        if (delay >= 1.0) {
+            TimeUnit.MICROSECONDS.sleep((long) (delay * 1000));
+        }
+        if (this.errorRate > 0.0 && random.nextDouble() < this.errorRate) {
+            send(exchange, 500, "text/plain", "Synthetic failure");
+            return;
+        }
+
+        // Dispatch based on the operation
+        if ("sparql".equals(operation)) {
+            handleSparql(exchange, first(params, "query"), random);
+        } else if ("count".equals(operation)) {
+            final boolean mentions = path.contains("mentions");
+            final long count = first(params, "condition") == null ? total(mentions)
+                    : (long) (total(mentions) * random.nextDouble());
+            send(exchange, 200, "text/plain", Long.toString(count));
+        } else if ("resources".equals(operation) || "mentions".equals(operation)) {
+            handleRetrieve(exchange, "mentions".equals(operation), params);
+        } else if ("files".equals(operation)) {
+            handleDownload(exchange, first(params, "id"));
+        } else if ("".equals(operation)) {
+            send(exchange, 200, "text/plain", "KnowledgeStore stand-in");
+        } else {
+            send(exchange, 404, "text/plain", "Unknown operation " + path);
+        }
+    }
+
+    private void handleSparql(final HttpExchange exchange, @Nullable final String query,
+            final Random random) throws IOException {
+
+        if (query == null) {
+            send(exchange, 400, "text/plain", "Missing query");
+            return;
+        }
+
+        final String form = query.replaceAll("(?is)(#[^\n]*\n|prefix\\s+\\S*\\s*<[^>]*>|"
+                + "base\\s*<[^>]*>|\\s)+", " ").trim().split("\\s", 2)[0].toLowerCase();
+
+        if ("ask".equals(form)) {
+            send(exchange, 200, "application/sparql-results+json", "{ \"head\": {}, "
+                    + "\"boolean\": " + (random.nextInt(4) > 0) + " }");
+
+        } else if ("construct".equals(form) || "describe".equals(form)) {
+            final List<Statement> statements = Lists.newArrayList();
+            while (statements.size() < this.numResults) {
+                statements.addAll(generateResource(random.nextInt(this.numResources)));
+            }
+            sendRDF(exchange, statements.subList(0, this.numResults));
+
+        } else if ("select".equals(form)) {
+            final Matcher selectMatcher = SELECT_PATTERN.matcher(query);
+            final List<String> variables = Lists.newArrayList();
+            if (selectMatcher.matches()) {
+                final Matcher matcher = VARIABLE_PATTERN.matcher(selectMatcher.group(1));
+                while (matcher.find()) {
+                    if (!variables.contains(matcher.group(1))) {
+                        variables.add(matcher.group(1));
+                    }
+                }
+            }
+            if (variables.isEmpty()) {
+                variables.addAll(ImmutableList.of("s", "p", "o"));
+            }
+            final Writer writer = open(exchange, 200, "application/sparql-results+json");
+            writer.write("{ \"head\": { \"vars\": [ \"");
+            writer.write(Joiner.on("\", \"").join(variables));
+            writer.write("\" ] },\n  \"results\": { \"bindings\": [");
+            for (int i = 0; i < this.numResults; ++i) {
+                writer.write(i == 0 ? "\n    { " : ",\n    { ");
+                for (int j = 0; j < variables.size(); ++j) {
+                    final int choice = random.nextInt(3);
+                    writer.write(j == 0 ? "\"" : ", \"");
+                    writer.write(variables.get(j));
+                    if (choice == 0) {
+                        writer.write("\": { \"type\": \"uri\", \"value\": \"" + ENTITY_NS
+                                + random.nextInt(NUM_ENTITIES) + "\" }");
+                    } else if (choice == 1) {
+                        writer.write("\": { \"type\": \"uri\", \"value\": \"" + RESOURCE_NS
+                                + random.nextInt(this.numResources) + ".xml\" }");
+                    } else {
+                        writer.write("\": { \"type\": \"literal\", \"datatype\": \""
+                                + XMLSchema.INT + "\", \"value\": \"" + random.nextInt(1000)
+                                + "\" }");
+                    }
+                }
+                writer.write(" }");
+            }
+            writer.write("\n  ] }\n}\n");
+            writer.close();
+
+        } else {
+            send(exchange, 400, "text/plain", "Unsupported query form " + form);
+        }
+    }
+
+    private void handleRetrieve(final HttpExchange exchange, final boolean mentions,
+            final Map<String, List<String>> params) throws IOException {
+
+        // Select records either by ID or by position (ignoring conditions)
+        final List<Statement> statements = Lists.newArrayList();
+        final List<String> ids = params.get("id");
+        if (ids != null) {
+            for (final String idString : ids) {
+                for (final String id : Splitter.on(',').trimResults().omitEmptyStrings()
+                        .split(idString)) {
+                    final Matcher matcher = RESOURCE_PATTERN.matcher(id.replaceAll("[<>]", ""));
+                    if (matcher.matches()) {
+                        final int index = Integer.parseInt(matcher.group(1));
+                        if (!mentions) {
+                            statements.addAll(generateResource(index));
+                        } else if (matcher.group(2) != null) {
+                            statements.addAll(generateMention(index,
+                                    Integer.parseInt(matcher.group(2)) / 40));
+                        }
+                    }
+                }
+            }
+        } else {
+            final long offset = Long.parseLong(Strings.nullToEmpty(first(params, "offset"))
+                    .isEmpty() ? "0" : first(params, "offset"));
+            final long limit = Long.parseLong(Strings.nullToEmpty(first(params, "limit"))
+                    .isEmpty() ? "1000" : first(params, "limit"));
+            final long end = Math.min(total(mentions), offset + limit);
+            for (long i = offset; i < end; ++i) {
+                statements.addAll(mentions ? generateMention((int) (i / this.numMentions),
+                        (int) (i % this.numMentions)) : generateResource((int) i));
+            }
+        }
+        sendRDF(exchange, statements);
+    }
+
+    private void handleDownload(final HttpExchange exchange, @Nullable final String id)
+            throws IOException {
+
+        final Matcher matcher = id == null ? null : RESOURCE_PATTERN.matcher(id.replaceAll(
+                "[<>]", ""));
+        if (matcher == null || !matcher.matches()) {
+            send(exchange, 404, "text/plain", "Unknown file " + id);
+            return;
+        }
+
+        // Generate a NAF-like document whose size depends deterministically on the resource
+        final int index = Integer.parseInt(matcher.group(1));
+        final Random random = new Random(this.seed * 31 + index);
+        final Writer writer = open(exchange, 200, "application/octet-stream");
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<NAF xml:lang=\"en\" "
+                + "version=\"v3\">\n  <raw><![CDATA[");
+        final int numWords = this.numMentions * 8 + random.nextInt(this.numMentions * 8 + 1);
+        for (int i = 0; i < numWords; ++i) {
+            writer.write(i == 0 ? "" : " ");
+            writer.write("word" + random.nextInt(NUM_ENTITIES));
+        }
+        writer.write("]]></raw>\n  <terms>\n");
+        for (int i = 0; i < numWords; ++i) {
+            writer.write("    <term id=\"t" + i + "\" lemma=\"word\" pos=\"N\"><span>"
+                    + "<target id=\"w" + i + "\"/></span></term>\n");
+        }
+        writer.write("  </terms>\n</NAF>\n");
+        writer.close();
+    }
+
+    private List<Statement> generateResource(final int index) {
+        final URI uri = FACTORY.createURI(RESOURCE_NS + index + ".xml");
+        final Random random = new Random(this.seed * 31 + index);
+        final List<Statement> statements = Lists.newArrayList();
+        statements.add(FACTORY.createStatement(uri, RDF.TYPE, KS.RESOURCE));
+        statements.add(FACTORY.createStatement(uri, DCTERMS.TITLE,
+                FACTORY.createLiteral("Synthetic news article " + index)));
+        statements.add(FACTORY.createStatement(uri, DCTERMS.CREATED, FACTORY.createLiteral(
+                String.format("%04d-%02d-%02d", 2003 + random.nextInt(12),
+                        1 + random.nextInt(12), 1 + random.nextInt(28)), XMLSchema.DATE)));
+        statements.add(FACTORY.createStatement(uri, NIE.MIME_TYPE,
+                FACTORY.createLiteral("text/naf+xml")));
+        statements.add(FACTORY.createStatement(uri, NFO.FILE_NAME,
+                FACTORY.createLiteral(index + ".xml")));
+        for (int i = 0; i < this.numMentions; ++i) {
+            statements.add(FACTORY.createStatement(uri, KS.HAS_MENTION, mentionURI(index, i)));
+        }
+        return statements;
+    }
+
+    private List<Statement> generateMention(final int resourceIndex, final int mentionIndex) {
+        final URI uri = mentionURI(resourceIndex, mentionIndex);
+        final Random random = new Random((this.seed * 31 + resourceIndex) * 31 + mentionIndex);
+        final List<Statement> statements = Lists.newArrayList();
+        statements.add(FACTORY.createStatement(uri, RDF.TYPE, KS.MENTION));
+        statements.add(FACTORY.createStatement(uri, KS.MENTION_OF,
+                FACTORY.createURI(RESOURCE_NS + resourceIndex + ".xml")));
+        statements.add(FACTORY.createStatement(uri, NIF.BEGIN_INDEX,
+                FACTORY.createLiteral(mentionIndex * 40)));
+        statements.add(FACTORY.createStatement(uri, NIF.END_INDEX,
+                FACTORY.createLiteral(mentionIndex * 40 + 10)));
+        statements.add(FACTORY.createStatement(uri, NIF.ANCHOR_OF,
+                FACTORY.createLiteral("word" + random.nextInt(NUM_ENTITIES))));
+        statements.add(FACTORY.createStatement(
+                FACTORY.createURI(ENTITY_NS + random.nextInt(NUM_ENTITIES)),
+                FACTORY.createURI("http://groundedannotationframework.org/gaf#denotedBy"), uri));
+        return statements;
+    }
+
+    private URI mentionURI(final int resourceIndex, final int mentionIndex) {
+        return FACTORY.createURI(RESOURCE_NS + resourceIndex + ".xml#char=" + mentionIndex * 40
+                + "," + (mentionIndex * 40 + 10));
+    }
+
+    private long total(final boolean mentions) {
+        return mentions ? (long) this.numResources * this.numMentions : this.numResources;
+    }
+
+    private void sendRDF(final HttpExchange exchange, final Iterable<Statement> statements)
+            throws IOException {
+
+        // Negotiate format based on Accept header, using Turtle as default
+        RDFFormat format = null;
+        final String accept = exchange.getRequestHeaders().getFirst("Accept");
+        if (accept != null) {
+            for (final String type : Splitter.on(',').trimResults().split(accept)) {
+                format = Rio.getWriterFormatForMIMEType(type.replaceAll(";.*", "").trim());
+                if (format != null) {
+                    break;
+                }
+            }
+        }
+        format = format != null ? format : RDFFormat.TURTLE;
+
+        exchange.getResponseHeaders().set("Content-Type", format.getDefaultMIMEType());
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream stream = throttle(exchange.getResponseBody())) {
+            final RDFWriter writer = Rio.createWriter(format, stream);
+            writer.startRDF();
+            writer.handleNamespace("ks", KS.NAMESPACE);
+            writer.handleNamespace("nif", NIF.NAMESPACE);
+            writer.handleNamespace("dct", DCTERMS.NAMESPACE);
+            for (final Statement statement : statements) {
+                writer.handleStatement(statement);
+            }
+            writer.endRDF();
+        } catch (final Throwable ex) {
+            throw new IOException("Could not write RDF", ex);
+        }
+    }
+
+    private void send(final HttpExchange exchange, final int status, final String contentType,
+            final String body) throws IOException {
+        final Writer writer = open(exchange, status, contentType);
+        writer.write(body);
+        writer.close();
+    }
+
+    private Writer open(final HttpExchange exchange, final int status, final String contentType)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=UTF-8");
+        exchange.sendResponseHeaders(status, 0);
+        return new OutputStreamWriter(throttle(exchange.getResponseBody()),
+                StandardCharsets.UTF_8);
+    }
+
+    private OutputStream throttle(final OutputStream stream) {
+        return this.bandwidth <= 0 ? stream : new ThrottledOutputStream(stream, this.bandwidth);
+    }
+
+    @Nullable
+    private static String first(final Map<String, List<String>> params, final String name) {
+        final List<String> values = params.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private static Map<String, List<String>> parseParameters(final HttpExchange exchange)
+            throws IOException {
+        final Map<String, List<String>> params = Maps.newHashMap();
+        parseParameters(exchange.getRequestURI().getRawQuery(), params);
+        if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            final String contentType = Strings.nullToEmpty(exchange.getRequestHeaders()
+                    .getFirst("Content-Type"));
+            try (InputStream stream = exchange.getRequestBody()) {
+                final String body = new String(ByteStreams.toByteArray(stream),
+                        StandardCharsets.UTF_8);
+                if (contentType.startsWith("application/sparql-query")) {
+                    params.put("query", ImmutableList.of(body));
+                } else {
+                    parseParameters(body, params);
+                }
+            }
+        }
+        return params;
+    }
+
+    private static void parseParameters(@Nullable final String string,
+            final Map<String, List<String>> params) throws UnsupportedEncodingException {
+        if (string == null) {
+            return;
+        }
+        for (final String param : Splitter.on('&').omitEmptyStrings().split(string)) {
+            final int index = param.indexOf('=');
+            final String name = URLDecoder.decode(index < 0 ? param : param.substring(0, index),
+                    "UTF-8");
+            final String value = index < 0 ? "" : URLDecoder.decode(param.substring(index + 1),
+                    "UTF-8");
+            List<String> values = params.get(name);
+            if (values == null) {
+                values = Lists.newArrayList();
+                params.put(name, values);
+            }
+            values.add(value);
+        }
+    }
+
+    // Limits the rate at which data is written, sleeping as needed after each write
+    private static final class ThrottledOutputStream extends FilterOutputStream {
+
+        private final long bandwidth;
+
+        private final long startTime;
+
+        private long bytes;
+
+        ThrottledOutputStream(final OutputStream stream, final long bandwidth) {
+            super(stream);
+            this.bandwidth = bandwidth;
+            this.startTime = System.nanoTime();
+            this.bytes = 0L;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            this.out.write(b);
+            throttle(1);
+        }
+
+        @Override
+        public void write(final byte[] buffer, final int offset, final int length)
+                throws IOException {
+            this.out.write(buffer, offset, length);
+            throttle(length);
+        }
+
+        private void throttle(final int length) throws IOException {
+            this.bytes += length;
+            final long expected = this.bytes * 1000000000L / this.bandwidth;
+            final long elapsed = System.nanoTime() - this.startTime;
+            if (expected - elapsed > 1000000L) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(expected - elapsed);
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted");
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,262 @@
+package eu.fbk.nwrtools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.fbk.nwrtools.util.Histogram;
+
+/**
+ * Exposes live metrics of the measurement phase (published by the Monitor at each sample)
+ * as attributes of a JMX MBean and over HTTP, in the Prometheus text exposition format.
+ */
+final class Metrics implements DynamicMBean, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Metrics.class);
+
+    private static final String[] PERCENTILES = new String[] { "p50", "p90", "p99" };
+
+    private final long window;
+
+    @Nullable
+    private final HttpServer server;
+
+    @Nullable
+    private final ObjectName name;
+
+    private volatile Map<String, Double> values; // <query>.<metric> -> value
+
+    private volatile boolean measuring;
+
+    Metrics(final int port, final boolean jmx, final long window) throws IOException {
+        this.window = window;
+        this.values = ImmutableMap.of();
+        this.measuring = false;
+        if (port <= 0) {
+            this.server = null;
+        } else {
+            this.server = HttpServer.create(new InetSocketAddress(port), 16);
+            this.server.createContext("/metrics", new HttpHandler() {
+
+                @Override
+                public void handle(final HttpExchange exchange) throws IOException {
+                    try {
+                        final byte[] body = format().getBytes(StandardCharsets.UTF_8);
+                        exchange.getResponseHeaders().set("Content-Type",
+                                "text/plain; version=0.0.4; charset=utf-8");
+                        exchange.sendResponseHeaders(200, body.length);
+                        exchange.getResponseBody().write(body);
+                    } finally {
+                        exchange.close();
+                    }
+                }
+
+            });
+            this.server.start();
+            LOGGER.info("Metrics available at http://localhost:{}/metrics", port);
+        }
+        if (!jmx) {
+            this.name = null;
+        } else {
+            try {
+                this.name = new ObjectName("eu.fbk.nwrtools:type=QueryTestDriver");
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, this.name);
+            } catch (final JMException ex) {
+                throw new IOException("Could not register MBean", ex);
+            }
+            LOGGER.info("Metrics available via JMX as {}", this.name);
+        }
+    }
+
+    long getWindow() {
+        return this.window;
+    }
+
+    void publish(final int clients, final double elapsed, final Statistics.Recorder total,
+            final Statistics.Recorder recent, final double recentSeconds) {
+        final Map<String, Double> values = Maps.newLinkedHashMap();
+        values.put("test.clients", (double) clients);
+        values.put("test.elapsed", elapsed);
+        publish(values, "mix", total.queryMixTime, recent.queryMixTime, recentSeconds);
+        long inFlight = 0L;
+        for (final Map.Entry<String, Statistics.QueryInfo> entry : total.queryInfos
+                .entrySet()) {
+            final String query = entry.getKey();
+            final Statistics.QueryInfo info = entry.getValue();
+            final Statistics.QueryInfo recentInfo = recent.queryInfos.get(query);
+            final long completed = info.time.getCount();
+            final long recentCompleted = recentInfo.time.getCount();
+            publish(values, query, info.time, recentInfo.time, recentSeconds);
+            values.put(query + ".failed", (double) info.numFailures.get());
+            values.put(query + ".inflight", (double) (info.numStarted.get() - completed));
+            values.put(query + ".errorrate", recentCompleted == 0 ? 0.0
+                    : (double) recentInfo.numFailures.get() / recentCompleted);
+            inFlight += info.numStarted.get() - completed;
+        }
+        values.put("test.inflight", (double) inFlight);
+        this.values = values;
+        this.measuring = true;
+    }
+
+    private static void publish(final Map<String, Double> values, final String prefix,
+            final Histogram total, final Histogram recent, final double recentSeconds) {
+        values.put(prefix + ".completed", (double) total.getCount());
+        values.put(prefix + ".throughput", recent.getCount() / recentSeconds);
+        values.put(prefix + ".p50", (double) recent.getPercentile(50));
+        values.put(prefix + ".p90", (double) recent.getPercentile(90));
+        values.put(prefix + ".p99", (double) recent.getPercentile(99));
+        values.put(prefix + ".max", (double) recent.getMax());
+        values.put(prefix + ".mean", recent.getCount() == 0 ? 0.0 : recent.getMean());
+    }
+
+    void stop() {
+        this.measuring = false;
+    }
+
+    String format() {
+        // Group values by metric, labelling them with the query they refer to
+        final Map<String, Double> values = this.values;
+        final Map<String, StringBuilder> metrics = Maps.newLinkedHashMap();
+        final StringBuilder out = new StringBuilder();
+        out.append("# TYPE querytest_measuring gauge\n");
+        out.append("querytest_measuring ").append(this.measuring ? 1 : 0).append('\n');
+        for (final Map.Entry<String, Double> entry : values.entrySet()) {
+            final String key = entry.getKey();
+            final String query = key.substring(0, key.lastIndexOf('.'));
+            final String field = key.substring(key.lastIndexOf('.') + 1);
+            final boolean global = "test".equals(query);
+            final boolean percentile = Arrays.asList(PERCENTILES).contains(field);
+            final String metric;
+            final String type;
+            if (percentile) {
+                metric = "querytest_latency_ms";
+                type = "summary";
+            } else if ("max".equals(field) || "mean".equals(field)) {
+                metric = "querytest_latency_" + field + "_ms";
+                type = "gauge";
+            } else if ("completed".equals(field) || "failed".equals(field)) {
+                metric = "querytest_" + field + "_total";
+                type = "counter";
+            } else {
+                metric = "querytest_" + field + (global && "elapsed".equals(field) ? "_s"
+                        : "");
+                type = "gauge";
+            }
+            StringBuilder builder = metrics.get(metric);
+            if (builder == null) {
+                builder = new StringBuilder();
+                builder.append("# TYPE ").append(metric).append(' ').append(type)
+                        .append('\n');
+                metrics.put(metric, builder);
+            }
+            builder.append(metric);
+            if (!global) {
+                builder.append("{query=\"").append(query).append('"');
+                if (percentile) {
+                    builder.append(",quantile=\"")
+                            .append(Integer.parseInt(field.substring(1)) / 100.0)
+                            .append('"');
+                }
+                builder.append('}');
+            }
+            final double value = entry.getValue();
+            builder.append(' ').append(value == Math.rint(value) ? Long.toString(
+                    (long) value) : Double.toString(value)).append('\n');
+        }
+        for (final StringBuilder builder : metrics.values()) {
+            out.append(builder);
+        }
+        return out.toString();
+    }
+
+    @Override
+    public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+        final Double value = this.values.get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(final String[] attributes) {
+        final Map<String, Double> values = this.values;
+        final AttributeList list = new AttributeList();
+        for (final String attribute : attributes) {
+            final Double value = values.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Read-only attribute " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(final AttributeList attributes) {
+        return new AttributeList(); // all attributes are read-only
+    }
+
+    @Override
+    public Object invoke(final String action, final Object[] params,
+            final String[] signature) throws MBeanException {
+        throw new MBeanException(new UnsupportedOperationException(action));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        final List<MBeanAttributeInfo> attributes = Lists.newArrayList();
+        for (final String key : this.values.keySet()) {
+            attributes.add(new MBeanAttributeInfo(key, Double.class.getName(), key, true,
+                    false, false));
+        }
+        return new MBeanInfo(Metrics.class.getName(), "QueryTestDriver live metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null,
+                null);
+    }
+
+    @Override
+    public void close() {
+        if (this.server != null) {
+            this.server.stop(0);
+        }
+        if (this.name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.name);
+            } catch (final JMException ex) {
+                LOGGER.warn("Could not unregister MBean " + this.name, ex);
+            }
+        }
+    }
+
+}
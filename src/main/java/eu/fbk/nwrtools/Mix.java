@@ -0,0 +1,151 @@
+package eu.fbk.nwrtools;
+
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+
+import jersey.repackaged.com.google.common.collect.Sets;
+
+final class Mix {
+
+    private final String name;
+
+    private final Query[] queries;
+
+    private final double weight;
+
+    private final int[][] predecessors; // query index -> indexes of queries it waits for
+
+    private final int[][] successors; // query index -> indexes of queries waiting for it
+
+    private final boolean concurrent;
+
+    Mix(final String name, final Query[] queries, final double weight) {
+
+        // Queries of a mix run sequentially, unless some of them declare the queries they
+        // must follow (after), in which case each query runs as soon as the queries it
+        // follows or whose outputs it uses complete; queries not in the mix are ignored
+        final List<List<Integer>> successors = Lists.newArrayList();
+        final int[][] predecessors = new int[queries.length][];
+        boolean concurrent = false;
+        for (int i = 0; i < queries.length; ++i) {
+            successors.add(Lists.<Integer>newArrayList());
+            final Set<String> names = Sets.newHashSet();
+            if (queries[i].getDependencies() != null) {
+                names.addAll(queries[i].getDependencies());
+                concurrent |= queries.length > 1;
+            }
+            for (final String variable : queries[i].getInputVariables()) {
+                final int index = variable.indexOf('.');
+                if (index > 0) {
+                    names.add(variable.substring(0, index));
+                }
+            }
+            final List<Integer> indexes = Lists.newArrayList();
+            for (int j = 0; j < queries.length; ++j) {
+                if (names.contains(queries[j].getName())) {
+                    Preconditions.checkArgument(j < i, "Query " + queries[i]
+                            + " depends on query " + queries[j]
+                            + ", which does not precede it in mix " + name);
+                    indexes.add(j);
+                    successors.get(j).add(i);
+                }
+            }
+            predecessors[i] = Ints.toArray(indexes);
+        }
+        this.name = name;
+        this.queries = queries;
+        this.weight = weight;
+        this.predecessors = predecessors;
+        this.successors = new int[queries.length][];
+        for (int i = 0; i < queries.length; ++i) {
+            this.successors[i] = Ints.toArray(successors.get(i));
+        }
+        this.concurrent = concurrent;
+    }
+
+    public static Mix[] parse(final String string, final Iterable<Query> queries) {
+        // Sub-mixes are specified as 'name=query1+query2+...:weight, ...' (default weight 1)
+        final List<Mix> mixes = Lists.newArrayList();
+        for (final String token : Splitter.on(',').trimResults().omitEmptyStrings()
+                .split(string)) {
+            final Matcher matcher = Pattern.compile("([^=\\s]+)\\s*=\\s*([^:\\s]+)"
+                    + "(?:\\s*:\\s*(\\S+))?").matcher(token);
+            Preconditions.checkArgument(matcher.matches(), "Invalid sub-mix " + token);
+            final List<Query> mixQueries = Lists.newArrayList();
+            for (final String queryName : matcher.group(2).split("\\+")) {
+                Query mixQuery = null;
+                for (final Query query : queries) {
+                    if (query.getName().equals(queryName)) {
+                        mixQuery = query;
+                    }
+                }
+                Preconditions.checkArgument(mixQuery != null, "Unknown or disabled query "
+                        + queryName + " in sub-mix " + matcher.group(1));
+                mixQueries.add(mixQuery);
+            }
+            final double weight = matcher.group(3) == null ? 1.0 : Double
+                    .parseDouble(matcher.group(3));
+            Preconditions.checkArgument(weight >= 0.0, "Invalid weight for sub-mix "
+                    + matcher.group(1));
+            mixes.add(new Mix(matcher.group(1), mixQueries.toArray(new Query[mixQueries
+                    .size()]), weight));
+        }
+        return mixes.toArray(new Mix[mixes.size()]);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public Query[] getQueries() {
+        return this.queries;
+    }
+
+    public double getWeight() {
+        return this.weight;
+    }
+
+    public int[] getPredecessors(final int index) {
+        return this.predecessors[index];
+    }
+
+    public int[] getSuccessors(final int index) {
+        return this.successors[index];
+    }
+
+    public boolean isConcurrent() {
+        return this.concurrent;
+    }
+
+    public String formatDependencies() {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < this.queries.length; ++i) {
+            builder.append(i == 0 ? "" : ", ").append(this.queries[i].getName());
+            for (int j = 0; j < this.predecessors[i].length; ++j) {
+                builder.append(j == 0 ? " after " : "+").append(
+                        this.queries[this.predecessors[i][j]].getName());
+            }
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(this.name);
+        if (this.queries.length != 1 || !this.queries[0].getName().equals(this.name)) {
+            builder.append('=');
+            for (int i = 0; i < this.queries.length; ++i) {
+                builder.append(i == 0 ? "" : "+").append(this.queries[i].getName());
+            }
+        }
+        return builder.append(':').append(this.weight).toString();
+    }
+
+}
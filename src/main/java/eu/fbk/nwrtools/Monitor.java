@@ -0,0 +1,186 @@
+package eu.fbk.nwrtools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.fbk.nwrtools.util.Histogram;
+
+/**
+ * Samples statistics at fixed intervals, emitting a row of the time series (if enabled) for
+ * each window and publishing live metrics (measurement or replay phase only); statistics
+ * are switched at each phase, whose name is reported in the ?phase column.
+ */
+final class Monitor implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Monitor.class);
+
+    private Statistics stats;
+
+    private String phase;
+
+    @Nullable
+    private final Writer writer;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final long startTimestamp;
+
+    private long phaseTimestamp;
+
+    @Nullable
+    private final Metrics metrics;
+
+    private final int clients;
+
+    private final int historySize;
+
+    private final Queue<Statistics.Recorder> history; // snapshots over the metrics window
+
+    private final Queue<Long> historyTimestamps;
+
+    private Statistics.Recorder lastSnapshot;
+
+    private long lastTimestamp;
+
+    Monitor(final Statistics stats, final String phase, final long interval,
+            @Nullable final Writer writer, @Nullable final Metrics metrics, final int clients)
+            throws IOException {
+
+        this.stats = stats;
+        this.phase = phase;
+        this.writer = writer;
+        this.metrics = metrics;
+        this.clients = clients;
+        this.historySize = metrics == null ? 0 : (int) Math.max(1L,
+                (metrics.getWindow() + interval - 1) / interval);
+        this.history = new ArrayDeque<>();
+        this.historyTimestamps = new ArrayDeque<>();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("monitor").build());
+        this.startTimestamp = System.currentTimeMillis();
+        this.phaseTimestamp = this.startTimestamp;
+        this.lastSnapshot = stats.merge();
+        this.lastTimestamp = this.startTimestamp;
+        this.history.add(this.lastSnapshot);
+        this.historyTimestamps.add(this.lastTimestamp);
+
+        if (writer != null) {
+            final StringBuilder builder = new StringBuilder("?time\t?elapsed\t?phase");
+            for (final String name : Iterables.concat(ImmutableList.of("mix"),
+                    stats.queryNames)) {
+                for (final String field : new String[] { "rate", "errors", "p50", "p90",
+                        "p99", "max", "mean" }) {
+                    builder.append("\t?").append(name).append('.').append(field);
+                }
+            }
+            writer.write(builder.append('\n').toString());
+        }
+
+        this.scheduler.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                sample();
+            }
+
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void sample() {
+        try {
+            // Compute the statistics of the window since last sample
+            final long timestamp = System.currentTimeMillis();
+            final Statistics.Recorder snapshot = this.stats.merge();
+            final Statistics.Recorder window = snapshot.subtract(this.lastSnapshot);
+            final double seconds = Math.max(1L, timestamp - this.lastTimestamp) / 1000.0;
+            this.lastSnapshot = snapshot;
+            this.lastTimestamp = timestamp;
+
+            // Emit a row of the time series, if enabled
+            if (this.writer != null) {
+                final StringBuilder builder = new StringBuilder();
+                builder.append(timestamp).append('\t');
+                builder.append((timestamp - this.startTimestamp) / 1000.0).append('\t');
+                builder.append(this.phase);
+                emit(builder, seconds, window.queryMixTime, -1L);
+                for (final Statistics.QueryInfo info : window.queryInfos.values()) {
+                    emit(builder, seconds, info.time, info.numFailures.get());
+                }
+                this.writer.write(builder.append('\n').toString());
+                this.writer.flush();
+            }
+
+            // Publish live metrics, computing rates and percentiles over the metrics window
+            if (this.metrics != null && !"warmup".equals(this.phase)) {
+                this.history.add(snapshot);
+                this.historyTimestamps.add(timestamp);
+                while (this.history.size() > this.historySize + 1) {
+                    this.history.remove();
+                    this.historyTimestamps.remove();
+                }
+                final Statistics.Recorder recent = snapshot.subtract(this.history.peek());
+                final double recentSeconds = Math.max(1L,
+                        timestamp - this.historyTimestamps.peek()) / 1000.0;
+                this.metrics.publish(this.clients, (timestamp - this.phaseTimestamp) / 1000.0,
+                        snapshot, recent, recentSeconds);
+            }
+
+        } catch (final Throwable ex) {
+            LOGGER.warn("Could not sample statistics", ex);
+        }
+    }
+
+    private static void emit(final StringBuilder builder, final double seconds,
+            final Histogram time, final long errors) {
+        builder.append('\t').append(String.format("%.2f", time.getCount() / seconds));
+        builder.append('\t').append(errors >= 0 ? Long.toString(errors) : "");
+        if (time.getCount() > 0) {
+            builder.append('\t').append(time.getPercentile(50));
+            builder.append('\t').append(time.getPercentile(90));
+            builder.append('\t').append(time.getPercentile(99));
+            builder.append('\t').append(time.getMax());
+            builder.append('\t').append(String.format("%.1f", time.getMean()));
+        } else {
+            builder.append("\t\t\t\t\t");
+        }
+    }
+
+    synchronized void switchPhase(final Statistics stats, final String phase) {
+        // Emit the last (partial) window of the previous phase, then restart from the new
+        // statistics, discarding the history of the metrics window
+        sample();
+        this.stats = stats;
+        this.phase = phase;
+        this.phaseTimestamp = this.lastTimestamp;
+        this.lastSnapshot = stats.merge();
+        this.history.clear();
+        this.historyTimestamps.clear();
+        this.history.add(this.lastSnapshot);
+        this.historyTimestamps.add(this.lastTimestamp);
+    }
+
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+        sample(); // emit last (partial) window
+        if (this.metrics != null) {
+            this.metrics.stop();
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package eu.fbk.nwrtools;
+
+import java.io.Closeable;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import javax.annotation.Nullable;
+
+import eu.fbk.knowledgestore.client.Client;
+import eu.fbk.rdfpro.util.IO;
+
+/**
+ * A KS client shared by a group of simulated clients, whose connections are handed out one
+ * per query as slots of a driver-side pool (most recently used first), so that the time
+ * spent waiting for a free slot can be measured; the KS client is configured with the same
+ * number of connections, so that it never blocks. The HTTP connection pool of the KS client
+ * is not observable, so neither the opening and reuse of its connections nor their setup
+ * time are measured: the wait is that of the driver-side pool only.
+ */
+final class Pool implements Closeable {
+
+    private final Client client;
+
+    private final int groupSize;
+
+    private final int connections;
+
+    private final BlockingDeque<Integer> idle;
+
+    Pool(final Client client, final int groupSize, final int connections) {
+        this.client = client;
+        this.groupSize = groupSize;
+        this.connections = connections;
+        this.idle = new LinkedBlockingDeque<>();
+        for (int i = 0; i < connections; ++i) {
+            this.idle.addLast(i);
+        }
+    }
+
+    Client getClient() {
+        return this.client;
+    }
+
+    int getGroupSize() {
+        return this.groupSize;
+    }
+
+    int getConnections() {
+        return this.connections;
+    }
+
+    int acquire(@Nullable final Statistics.Recorder recorder) throws InterruptedException {
+        Integer connection = this.idle.pollFirst();
+        long wait = 0L;
+        if (connection == null) {
+            final long ts = System.nanoTime();
+            connection = this.idle.takeFirst();
+            wait = (System.nanoTime() - ts) / 1000;
+        }
+        if (recorder != null) {
+            synchronized (recorder) { // shared by the concurrent queries of a mix
+                recorder.reportConnectionWait(wait);
+            }
+        }
+        return connection;
+    }
+
+    void release(final int connection) {
+        this.idle.addFirst(connection);
+    }
+
+    @Override
+    public void close() {
+        IO.closeQuietly(this.client);
+    }
+
+}
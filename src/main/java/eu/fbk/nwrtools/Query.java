@@ -0,0 +1,1279 @@
+package eu.fbk.nwrtools;
+
+import java.io.File;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
+
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.impl.MapBindingSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jersey.repackaged.com.google.common.collect.Sets;
+
+import eu.fbk.knowledgestore.Operation;
+import eu.fbk.knowledgestore.Operation.Sparql;
+import eu.fbk.knowledgestore.Outcome;
+import eu.fbk.knowledgestore.Session;
+import eu.fbk.knowledgestore.data.Data;
+import eu.fbk.knowledgestore.data.Record;
+import eu.fbk.knowledgestore.data.Representation;
+import eu.fbk.knowledgestore.data.Stream;
+import eu.fbk.knowledgestore.vocabulary.KS;
+import eu.fbk.rdfpro.util.Namespaces;
+import eu.fbk.rdfpro.util.Statements;
+
+abstract class Query {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Query.class);
+
+    private static final ValueFactory FACTORY = ValueFactoryImpl.getInstance();
+
+    private final String name;
+
+    private final Long timeout;
+
+    private final double weight;
+
+    private final long thinkTime;
+
+    private final boolean hashing;
+
+    private final boolean measuringChars;
+
+    private final Set<String> inputVariables;
+
+    private final Set<String> outputVariables;
+
+    @Nullable
+    private final Set<String> dependencies; // after, null if not declared
+
+    Query(final String name, final Properties properties,
+            final Iterable<String> inputVariables, final Iterable<String> outputVariables) {
+        this(name, properties, inputVariables, outputVariables, false);
+    }
+
+    Query(final String name, final Properties properties,
+            final Iterable<String> inputVariables, final Iterable<String> outputVariables,
+            final boolean fingerprinting) {
+
+        // Property 'hash' enables a result fingerprint (?hash) only for queries that
+        // compute one, so that no always-empty column is declared for the other ones
+        final String timeout = properties.getProperty("timeout");
+
+        this.name = name;
+        this.timeout = timeout != null ? Long.parseLong(timeout) : null;
+        this.weight = Double.parseDouble(properties.getProperty("weight", "1"));
+        this.thinkTime = Long.parseLong(properties.getProperty("thinktime", "0"));
+        Preconditions.checkArgument(this.weight >= 0.0 && this.thinkTime >= 0,
+                "Invalid weight / think time for query " + name);
+        this.hashing = fingerprinting && Boolean.parseBoolean(properties.getProperty("hash"));
+        this.measuringChars = Boolean.parseBoolean(properties.getProperty("chars", "true"));
+        this.dependencies = properties.getProperty("after") == null ? null : ImmutableSet
+                .copyOf(Splitter.on(',').trimResults().omitEmptyStrings()
+                        .split(properties.getProperty("after")));
+        this.inputVariables = ImmutableSet.copyOf(inputVariables);
+        this.outputVariables = ImmutableSet.copyOf(Iterables.concat( //
+                ImmutableSet.of("start", "time", "error", "prepare", "length", "first",
+                        "last", "chars"),
+                this.hashing ? ImmutableSet.of("hash") : ImmutableSet.<String>of(),
+                outputVariables));
+    }
+
+    public static List<Query> create(final Properties properties,
+            final Properties defaultQueryProperties) {
+
+        final Map<String, Properties> map = Maps.newLinkedHashMap();
+        for (final Object key : properties.keySet()) {
+            final String keyString = key.toString();
+            final int index = keyString.indexOf(".");
+            if (index > 0) {
+                final String queryName = keyString.substring(0, index);
+                final String propertyName = keyString.substring(index + 1);
+                final String propertyValue = properties.getProperty(keyString);
+                Properties queryProperties = map.get(queryName);
+                if (queryProperties == null) {
+                    queryProperties = new Properties();
+                    queryProperties.putAll(defaultQueryProperties);
+                    map.put(queryName, queryProperties);
+                }
+                queryProperties.setProperty(propertyName, propertyValue);
+            }
+        }
+
+        final List<Query> queries = Lists.newArrayList();
+        for (final Map.Entry<String, Properties> entry : map.entrySet()) {
+            final String queryName = entry.getKey();
+            final Properties queryProperties = entry.getValue();
+            final String queryType = queryProperties.getProperty("type");
+            if ("download".equalsIgnoreCase(queryType)) {
+                queries.add(new DownloadQuery(queryName, queryProperties));
+            } else if ("retrieve".equalsIgnoreCase(queryType)) {
+                queries.add(new RetrieveQuery(queryName, queryProperties));
+            } else if ("lookup".equalsIgnoreCase(queryType)) {
+                queries.add(new LookupQuery(queryName, queryProperties));
+            } else if ("batchlookup".equalsIgnoreCase(queryType)) {
+                queries.add(new BatchLookupQuery(queryName, queryProperties));
+            } else if ("lookupall".equalsIgnoreCase(queryType)) {
+                queries.add(new LookupAllQuery(queryName, queryProperties));
+            } else if ("count".equalsIgnoreCase(queryType)) {
+                queries.add(new CountQuery(queryName, queryProperties));
+            } else if ("sparql".equalsIgnoreCase(queryType)) {
+                queries.add(new SparqlQuery(queryName, queryProperties));
+            } else if ("create".equalsIgnoreCase(queryType)) {
+                queries.add(new CreateQuery(queryName, queryProperties));
+            } else if ("merge".equalsIgnoreCase(queryType)) {
+                queries.add(new MergeQuery(queryName, queryProperties));
+            } else if ("update".equalsIgnoreCase(queryType)) {
+                queries.add(new UpdateQuery(queryName, queryProperties));
+            } else if ("delete".equalsIgnoreCase(queryType)) {
+                queries.add(new DeleteQuery(queryName, queryProperties));
+            } else if ("upload".equalsIgnoreCase(queryType)) {
+                queries.add(new UploadQuery(queryName, queryProperties));
+            }
+        }
+        return queries;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public Long getTimeout() {
+        return this.timeout;
+    }
+
+    public double getWeight() {
+        return this.weight;
+    }
+
+    public long getThinkTime() {
+        return this.thinkTime;
+    }
+
+    public Set<String> getInputVariables() {
+        return this.inputVariables;
+    }
+
+    public Set<String> getOutputVariables() {
+        return this.outputVariables;
+    }
+
+    @Nullable
+    public Set<String> getDependencies() {
+        return this.dependencies;
+    }
+
+    public long evaluate(final Session session, final long startTimestamp,
+            final List<? extends BindingSet> inputs, final MapBindingSet output,
+            final Random random, @Nullable final Statistics.Recorder recorder,
+            @Nullable final String expectedHash) {
+
+        // Inputs are the sampled tuple plus, for batch queries, further sampled tuples
+        final ValueFactory vf = ValueFactoryImpl.getInstance();
+        final BindingSet input = inputs.get(0);
+
+        if (LOGGER.isDebugEnabled()) {
+            final StringBuilder builder = new StringBuilder();
+            builder.append("Started: ");
+            builder.append(QueryTestDriver.format(this.inputVariables, input, " "));
+            LOGGER.debug(builder.toString());
+        }
+
+        if (recorder != null) {
+            recorder.reportQueryStart(this.name);
+        }
+
+        String error = "";
+        try {
+            doEvaluate(session, inputs, output, random);
+        } catch (final Throwable ex) {
+            error = ex.getClass().getSimpleName() + " - "
+                    + Strings.nullToEmpty(ex.getMessage());
+            LOGGER.warn("Got exception", ex);
+        }
+
+        if (expectedHash != null && "".equals(error)) {
+            final Value hash = output.getValue("hash");
+            if (hash != null && !expectedHash.equals(hash.stringValue())) {
+                error = "Hash mismatch - expected " + expectedHash + ", got "
+                        + hash.stringValue();
+                LOGGER.warn("Wrong result: "
+                        + QueryTestDriver.format(this.inputVariables, input, " "));
+            }
+        }
+
+        final long size = getLong(output, "size");
+        final long chars = getLong(output, "chars");
+
+        // Times to first and last result are bound to absolute timestamps by doEvaluate()
+        // and are made relative to the start of the query here
+        final long endTimestamp = System.currentTimeMillis();
+        final long elapsed = endTimestamp - startTimestamp;
+        final long first = getLong(output, "first");
+        final long last = getLong(output, "last");
+        if (first >= 0) {
+            output.addBinding("first", vf.createLiteral(first - startTimestamp));
+        }
+        if (last >= 0) {
+            output.addBinding("last", vf.createLiteral(last - startTimestamp));
+        }
+
+        if (recorder != null) {
+            recorder.reportQueryCompletion(this.name, !"".equals(error), elapsed, size,
+                    first < 0 ? -1 : first - startTimestamp, last < 0 ? -1 : last
+                            - startTimestamp, chars);
+        }
+
+        output.addBinding("time", vf.createLiteral(elapsed));
+
+        if (LOGGER.isDebugEnabled()) {
+            final StringBuilder builder = new StringBuilder();
+            builder.append("".equals(error) ? "Success" : "Failure");
+            builder.append(": ");
+            builder.append(QueryTestDriver.format(this.inputVariables, input, " "));
+            builder.append(" -> ");
+            builder.append(QueryTestDriver.format(this.outputVariables, output, " "));
+            LOGGER.debug(builder.toString());
+        }
+
+        output.addBinding("start", vf.createLiteral(startTimestamp));
+        output.addBinding("error", vf.createLiteral(error));
+
+        return endTimestamp;
+    }
+
+    void report(final Statistics.Recorder recorder, final BindingSet output) {
+        // Report a completion based on the output of evaluate(), so to allow deferring it
+        final Value error = output.getValue("error");
+        recorder.reportQueryCompletion(this.name, error != null
+                && !error.stringValue().isEmpty(), getLong(output, "time"),
+                getLong(output, "size"), getLong(output, "first"), getLong(output, "last"),
+                getLong(output, "chars"));
+    }
+
+    @Nullable
+    Fingerprint newFingerprint() {
+        return this.hashing ? new Fingerprint() : null;
+    }
+
+    long count(final Stream<?> stream, @Nullable final Fingerprint fingerprint,
+            final MapBindingSet output) {
+
+        // Drain the stream, tracking timestamps of first and last results and the number of
+        // characters of the RDF terms received, if measured (they are UTF-16 chars of the
+        // decoded terms, not bytes on the wire, which the KS client does not expose)
+        long count = 0L;
+        long chars = 0L;
+        long first = -1L;
+        try {
+            for (final Object element : stream) {
+                if (count++ == 0) {
+                    first = System.currentTimeMillis();
+                }
+                if (this.measuringChars) {
+                    chars += length(element);
+                }
+                if (fingerprint != null) {
+                    fingerprint.add(element);
+                }
+            }
+        } finally {
+            stream.close();
+        }
+
+        // Accumulate in output (streams may be consumed multiple times for the same query)
+        if (first >= 0 && getLong(output, "first") < 0) {
+            output.addBinding("first", FACTORY.createLiteral(first));
+        }
+        reportReceived(output, chars);
+        return count;
+    }
+
+    void reportReceived(final MapBindingSet output, final long chars) {
+        // Downloads report the bytes of the content received, as each is a char of data
+        final long now = System.currentTimeMillis();
+        if (getLong(output, "first") < 0) {
+            output.addBinding("first", FACTORY.createLiteral(now));
+        }
+        output.addBinding("last", FACTORY.createLiteral(now));
+        if (this.measuringChars) {
+            output.addBinding("chars",
+                    FACTORY.createLiteral(Math.max(0L, getLong(output, "chars")) + chars));
+        }
+    }
+
+    private static long getLong(final BindingSet bindings, final String variable) {
+        try {
+            final Value value = bindings.getValue(variable);
+            if (value != null) {
+                return Long.parseLong(value.stringValue());
+            }
+        } catch (final Throwable ex) {
+            // Ignore
+        }
+        return -1L;
+    }
+
+    private static long length(final Object result) {
+        long length = 0L;
+        if (result instanceof BindingSet) {
+            for (final Binding binding : (BindingSet) result) {
+                length += binding.getValue().stringValue().length();
+            }
+        } else if (result instanceof Statement) {
+            final Statement stmt = (Statement) result;
+            length += stmt.getSubject().stringValue().length();
+            length += stmt.getPredicate().stringValue().length();
+            length += stmt.getObject().stringValue().length();
+            length += stmt.getContext() == null ? 0 : stmt.getContext().stringValue()
+                    .length();
+        } else {
+            length += String.valueOf(result).length();
+        }
+        return length;
+    }
+
+    public int getBatchSize() {
+        return 1;
+    }
+
+    void doEvaluate(final Session session, final List<? extends BindingSet> inputs,
+            final MapBindingSet output, final Random random) throws Throwable {
+        doEvaluate(session, inputs.get(0), output, random);
+    }
+
+    abstract void doEvaluate(Session session, BindingSet input, MapBindingSet output,
+            Random random) throws Throwable;
+
+    // Instantiates a template keeping track of time (us) and length of request construction
+    String instantiate(final Template template, final BindingSet input,
+            final MapBindingSet output) {
+        final long ts = System.nanoTime();
+        final String string = template.instantiate(input);
+        final long elapsed = (System.nanoTime() - ts) / 1000;
+        final Value prepare = output.getValue("prepare");
+        final Value length = output.getValue("length");
+        output.addBinding("prepare", FACTORY.createLiteral(elapsed
+                + (prepare == null ? 0L : ((Literal) prepare).longValue())));
+        output.addBinding("length", FACTORY.createLiteral(string.length()
+                + (length == null ? 0L : ((Literal) length).longValue())));
+        return string;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+    private static class DownloadQuery extends Query {
+
+        // Representations are drained through a pooled buffer, so that only a byte counter
+        // (and optionally a digest) is kept, whatever the size of the file; buffers are
+        // pooled rather than per-thread, as with virtual threads each request has its own
+        // thread (extra buffers, if more downloads run concurrently, are garbage collected)
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<>(64);
+
+        private final Template id;
+
+        private final boolean caching;
+
+        @Nullable
+        private final String digest; // digest algorithm, e.g., MD5 or SHA-256
+
+        @Nullable
+        private final String checksum; // input variable with the expected hex digest
+
+        DownloadQuery(final String name, final Properties properties) {
+            this(name, properties, new Template(properties.getProperty("id")));
+        }
+
+        private DownloadQuery(final String name, final Properties properties, final Template id) {
+            super(name, properties, properties.getProperty("checksum") == null ? id
+                    .getVariables() : Sets.union(id.getVariables(),
+                    ImmutableSet.of(properties.getProperty("checksum"))), properties
+                    .getProperty("digest") == null ? ImmutableList.of("size", "throughput")
+                    : ImmutableList.of("size", "throughput", "digest"));
+            this.id = id;
+            this.caching = "false".equalsIgnoreCase(properties.getProperty("caching"));
+            this.digest = properties.getProperty("digest");
+            this.checksum = properties.getProperty("checksum");
+            Preconditions.checkArgument(this.digest != null || this.checksum == null,
+                    "No digest algorithm specified for checksum of query " + name);
+            if (this.digest != null) {
+                try {
+                    MessageDigest.getInstance(this.digest);
+                } catch (final NoSuchAlgorithmException ex) {
+                    throw new IllegalArgumentException("Invalid digest algorithm "
+                            + this.digest + " for query " + name, ex);
+                }
+            }
+        }
+
+        @Override
+        void doEvaluate(final Session session, final BindingSet input,
+                final MapBindingSet output, final Random random) throws Throwable {
+
+            final URI id = (URI) Statements.parseValue(instantiate(this.id, input, output),
+                    Namespaces.DEFAULT);
+
+            final long startTimestamp = System.currentTimeMillis();
+            final MessageDigest digest = this.digest == null ? null : MessageDigest
+                    .getInstance(this.digest);
+            long size = 0L;
+            try (final Representation representation = session.download(id)
+                    .caching(this.caching).timeout(getTimeout()).exec()) {
+                if (representation != null) {
+                    final InputStream stream = representation.getInputStream();
+                    final byte[] pooled = BUFFERS.poll();
+                    final byte[] buffer = pooled != null ? pooled : new byte[BUFFER_SIZE];
+                    try {
+                        for (int n = stream.read(buffer); n >= 0; n = stream.read(buffer)) {
+                            if (size == 0L && n > 0 && getLong(output, "first") < 0) {
+                                output.addBinding("first", FACTORY.createLiteral(System
+                                        .currentTimeMillis()));
+                            }
+                            if (digest != null) {
+                                digest.update(buffer, 0, n);
+                            }
+                            size += n;
+                        }
+                    } finally {
+                        BUFFERS.offer(buffer);
+                    }
+                    reportReceived(output, size);
+                } else {
+                    LOGGER.warn("No results for DOWNLOAD request, id " + id);
+                }
+            } catch (final Throwable ex) {
+                throw new RuntimeException("Failed DOWNLOAD, id " + QueryTestDriver.format(id)
+                        + ", caching " + this.caching, ex);
+            } finally {
+                // Throughput in MB/s, from request to last byte received
+                final long elapsed = System.currentTimeMillis() - startTimestamp;
+                output.addBinding("size", FACTORY.createLiteral(size));
+                output.addBinding("throughput", FACTORY.createLiteral(Math.round(size
+                        * 1000000.0 / 1048576 / Math.max(1L, elapsed)) / 1000.0));
+            }
+
+            if (digest != null) {
+                final String hex = BaseEncoding.base16().lowerCase().encode(digest.digest());
+                output.addBinding("digest", FACTORY.createLiteral(hex));
+                final Value expected = this.checksum == null ? null : input
+                        .getValue(this.checksum);
+                if (expected != null && !expected.stringValue().equalsIgnoreCase(hex)) {
+                    throw new IllegalStateException("Digest mismatch for DOWNLOAD, id "
+                            + QueryTestDriver.format(id) + " - expected " + expected.stringValue()
+                            + ", got " + hex);
+                }
+            }
+        }
+    }
+
+    private static class RetrieveQuery extends Query {
+
+        private final URI layer;
+
+        @Nullable
+        private final Template condition;
+
+        @Nullable
+        private final Long offset;
+
+        @Nullable
+        private final Long limit;
+
+        @Nullable
+        private final List<URI> properties;
+
+        RetrieveQuery(final String name, final Properties properties) {
+            this(name, properties, Template.forString(properties.getProperty("condition")));
+        }
+
+        private RetrieveQuery(final String name, final Properties properties,
+                @Nullable final Template condition) {
+
+            super(name, properties, condition.getVariables(), ImmutableList.of("size"),
+                    true);
+
+            final String offset = properties.getProperty("offset");
+            final String limit = properties.getProperty("limit");
+
+            List<URI> props = null;
+            if (properties.containsKey("properties")) {
+                props = Lists.newArrayList();
+                for (final String token : Splitter.onPattern("[ ,;]").omitEmptyStrings()
+                        .trimResults().split(properties.getProperty("properties"))) {
+                    props.add((URI) Statements.parseValue(token));
+                }
+            }
+
+            this.layer = QueryTestDriver.normalizeLayerURI((URI) Statements.parseValue(
+                    properties.getProperty("layer"), Namespaces.DEFAULT));
+            this.condition = condition;
+            this.offset = offset == null ? null : Long.parseLong(offset);
+            this.limit = limit == null ? null : Long.parseLong(limit);
+            this.properties = props;
+        }
+
+        @Override
+        void doEvaluate(final Session session, final BindingSet input,
+                final MapBindingSet output, final Random random) throws Throwable {
+
+            final String condition = Strings.nullToEmpty(instantiate(this.condition, input,
+                    output));
+
+            long numTriples = 0L;
+            final Fingerprint fingerprint = newFingerprint();
+            try {
+                // FIXME: conditions do not seem to work
+                final Stream<Record> stream = session.retrieve(this.layer)
+                        .condition(condition).offset(this.offset).limit(this.limit)
+                        .properties(this.properties).exec();
+                numTriples = count(Record.encode(stream, ImmutableList.of(this.layer)),
+                        fingerprint, output);
+                if (numTriples == 0) {
+                    LOGGER.warn("No results for RETRIEVE request, layer "
+                            + QueryTestDriver.format(this.layer) + ", condition '" + condition
+                            + "', offset " + this.offset + ", limit " + this.limit);
+                }
+
+            } catch (final Throwable ex) {
+                throw new RuntimeException("Failed RETRIEVE " + QueryTestDriver.format(this.layer)
+                        + ", condition " + condition + ", offset " + this.offset + ", limit"
+                        + this.limit + ", properties " + this.properties, ex);
+            } finally {
+                output.addBinding("size", FACTORY.createLiteral(numTriples));
+                if (fingerprint != null) {
+                    output.addBinding("hash", FACTORY.createLiteral(fingerprint.toString()));
+                }
+            }
+        }
+    }
+
+    private static class LookupQuery extends Query {
+
+        private final URI layer;
+
+        @Nullable
+        private final Template id;
+
+        @Nullable
+        private final List<URI> properties;
+
+        LookupQuery(final String name, final Properties properties) {
+            this(name, properties, Template.forString(properties.getProperty("id")));
+        }
+
+        private LookupQuery(final String name, final Properties properties,
+                @Nullable final Template id) {
+
+            super(name, properties, id.getVariables(), ImmutableList.of("size"), true);
+
+            List<URI> props = null;
+            if (properties.containsKey("properties")) {
+                props = Lists.newArrayList();
+                for (final String token : Splitter.onPattern("[ ,;]").omitEmptyStrings()
+                        .trimResults().split(properties.getProperty("properties"))) {
+                    props.add((URI) Statements.parseValue(token));
+                }
+            }
+
+            this.layer = QueryTestDriver.normalizeLayerURI((URI) Statements.parseValue(
+                    properties.getProperty("layer"), Namespaces.DEFAULT));
+            this.id = id;
+            this.properties = props;
+        }
+
+        @Override
+        void doEvaluate(final Session session, final BindingSet input,
+                final MapBindingSet output, final Random random) throws Throwable {
+
+            final URI id = (URI) Statements.parseValue(instantiate(this.id, input, output),
+                    Namespaces.DEFAULT);
+
+            long numTriples = 0L;
+            final Fingerprint fingerprint = newFingerprint();
+            try {
+                final Stream<Record> stream = session.retrieve(this.layer).ids(id)
+                        .properties(this.properties).exec();
+                numTriples = count(Record.encode(stream, ImmutableList.of(this.layer)),
+                        fingerprint, output);
+                if (numTriples == 0) {
+                    LOGGER.warn("No results for LOOKUP request, layer "
+                            + QueryTestDriver.format(this.layer) + ", id " + id);
+                }
+
+            } catch (final Throwable ex) {
+                throw new RuntimeException("Failed LOOKUP " + QueryTestDriver.format(this.layer)
+                        + ", id " + QueryTestDriver.format(id) + ", properties "
+                        + this.properties, ex);
+            } finally {
+                output.addBinding("size", FACTORY.createLiteral(numTriples));
+                if (fingerprint != null) {
+                    output.addBinding("hash", FACTORY.createLiteral(fingerprint.toString()));
+                }
+            }
+        }
+
+    }
+
+    // Looks up the ids obtained from a batch of sampled input tuples with a single call,
+    // reporting the number of distinct ids and the time per id (ms, amortized over the batch
+    // size, as in the batch latency table; duplicate ids are sent once)
+    private static class BatchLookupQuery extends Query {
+
+        private final URI layer;
+
+        private final Template id;
+
+        private final int batchSize;
+
+        @Nullable
+        private final List<URI> properties;
+
+        BatchLookupQuery(final String name, final Properties properties) {
+            this(name, properties, new Template(properties.getProperty("id")));
+        }
+
+        private BatchLookupQuery(final String name, final Properties properties,
+                final Template id) {
+
+            super(name, properties, id.getVariables(), ImmutableList.of("size", "ids",
+                    "idtime", "inputs"), true);
+
+            List<URI> props = null;
+            if (properties.containsKey("properties")) {
+                props = Lists.newArrayList();
+                for (final String token : Splitter.onPattern("[ ,;]").omitEmptyStrings()
+                        .trimResults().split(properties.getProperty("properties"))) {
+                    props.add((URI) Statements.parseValue(token));
+                }
+            }
+
+            this.layer = QueryTestDriver.normalizeLayerURI((URI) Statements.parseValue(
+                    properties.getProperty("layer"), Namespaces.DEFAULT));
+            this.id = id;
+            this.batchSize = Integer.parseInt(properties.getProperty("batch", "10"));
+            this.properties = props;
+            Preconditions.checkArgument(this.batchSize > 0, "Invalid batch size "
+                    + this.batchSize + " for query " + name);
+        }
+
+        @Override
+        public int getBatchSize() {
+            return this.batchSize;
+        }
+
+        @Override
+        void doEvaluate(final Session session, final BindingSet input,
+                final MapBindingSet output, final Random random) throws Throwable {
+            doEvaluate(session, ImmutableList.of(input), output, random);
+        }
+
+        @Override
+        void doEvaluate(final Session session, final List<? extends BindingSet> inputs,
+                final MapBindingSet output, final Random random) throws Throwable {
+
+            final Set<URI> ids = Sets.newLinkedHashSet();
+            for (final BindingSet input : inputs) {
+                ids.add((URI) Statements.parseValue(instantiate(this.id, input, output),
+                        Namespaces.DEFAULT));
+            }
+
+            final long startTimestamp = System.currentTimeMillis();
+            long numTriples = 0L;
+            final Fingerprint fingerprint = newFingerprint();
+            try {
+                final Stream<Record> stream = session.retrieve(this.layer).ids(ids)
+                        .properties(this.properties).timeout(getTimeout()).exec();
+                numTriples = count(Record.encode(stream, ImmutableList.of(this.layer)),
+                        fingerprint, output);
+                if (numTriples == 0) {
+                    LOGGER.warn("No results for BATCH LOOKUP request, layer "
+                            + QueryTestDriver.format(this.layer) + ", ids " + ids);
+                }
+
+            } catch (final Throwable ex) {
+                throw new RuntimeException("Failed BATCH LOOKUP "
+                        + QueryTestDriver.format(this.layer) + ", ids " + ids + ", properties "
+                        + this.properties, ex);
+            } finally {
+                final long elapsed = System.currentTimeMillis() - startTimestamp;
+                output.addBinding("size", FACTORY.createLiteral(numTriples));
+                output.addBinding("ids", FACTORY.createLiteral(ids.size()));
+                output.addBinding("idtime", FACTORY.createLiteral(Math.round(elapsed
+                        * 1000.0 / inputs.size()) / 1000.0));
+                if (fingerprint != null) {
+                    output.addBinding("hash", FACTORY.createLiteral(fingerprint.toString()));
+                }
+            }
+        }
+
+    }
+
+    private static class LookupAllQuery extends Query {
+
+        @Nullable
+        private final Template id;
+
+        LookupAllQuery(final String name, final Properties properties) {
+            this(name, properties, Template.forString(properties.getProperty("id")));
+        }
+
+        private LookupAllQuery(final String name, final Properties properties,
+                @Nullable final Template id) {
+            super(name, properties, id.getVariables(), ImmutableList.of("size"), true);
+            this.id = id;
+        }
+
+        @Override
+        void doEvaluate(final Session session, final BindingSet input,
+                final MapBindingSet output, final Random random) throws Throwable {
+
+            final URI id = (URI) Statements.parseValue(instantiate(this.id, input, output),
+                    Namespaces.DEFAULT);
+
+            long numTriples = 0L;
+            final Fingerprint fingerprint = newFingerprint();
+            try {
+                numTriples += count(Record.encode(session.retrieve(KS.RESOURCE).ids(id)
+                        .exec(), ImmutableList.of(KS.RESOURCE)), fingerprint, output);
+                numTriples += count(Record.encode(
+                        session.retrieve(KS.MENTION).condition("ks:mentionOf = $$", id)
+                                .limit(100000L).exec(), ImmutableList.of(KS.MENTION)),
+                        fingerprint, output);
+                if (numTriples == 0) {
+                    LOGGER.warn("No results for LOOKUP ALL request, id " + id);
+                }
+            } catch (final Throwable ex) {
+                throw new RuntimeException("Failed LOOKUP ALL, id "
+                        + QueryTestDriver.format(id), ex);
+            } finally {
+                output.addBinding("size", FACTORY.createLiteral(numTriples));
+                if (fingerprint != null) {
+                    output.addBinding("hash", FACTORY.createLiteral(fingerprint.toString()));
+                }
+            }
+        }
+    }
+
+    private static class CountQuery extends Query {
+
+        private final URI layer;
+
+        @Nullable
+        private final Template condition;
+
+        CountQuery(final String name, final Properties properties) {
+            this(name, properties, Template.forString(properties.getProperty("condition")));
+        }
+
+        private CountQuery(final String name, final Properties properties,
+                @Nullable final Template condition) {
+
+            super(name, properties, condition.getVariables(), ImmutableList.of("size"));
+
+            this.layer = QueryTestDriver.normalizeLayerURI((URI) Statements.parseValue(properties
+                    .getProperty("layer")));
+            this.condition = condition;
+        }
+
+        @Override
+        void doEvaluate(final Session session, final BindingSet input,
+                final MapBindingSet output, final Random random) throws Throwable {
+
+            final String condition = Strings.nullToEmpty(instantiate(this.condition, input,
+                    output));
+            long numResults = 0L;
+            try {
+                numResults = session.count(this.layer).condition(condition).exec();
+                reportReceived(output, Long.toString(numResults).length());
+                if (numResults == 0) {
+                    LOGGER.warn("No results for COUNT request, layer "
+                            + QueryTestDriver.format(this.layer) + ", condition '" + condition
+                            + "'");
+                }
+            } catch (final Throwable ex) {
+                throw new RuntimeException("Count " + QueryTestDriver.format(this.layer) + " where "
+                        + condition + " failed", ex);
+            } finally {
+                output.addBinding("size", FACTORY.createLiteral(numResults));
+            }
+        }
+
+    }
+
+    // Base class of write operations on a record built from the test data: the id and the
+    // property values of the record are templates (record: 'prop value ; prop value ...',
+    // where values are RDF terms); if 'unique' is set, a random suffix drawn from the seeded
+    // generator of the client is appended to the id, so that repeated creations do not
+    // conflict and runs are reproducible. The id written is returned in output.
+    private static abstract class WriteQuery extends Query {
+
+        final URI layer;
+
+        final Template id;
+
+        final boolean unique;
+
+        final List<URI> recordProperties;
+
+        final List<Template> recordValues;
+
+        @Nullable
+        final String[] criteria;
+
+        WriteQuery(final String name, final Properties properties) {
+            this(name, properties, new Template(properties.getProperty("id")), properties
+                    .getProperty("record", ""));
+        }
+
+        private WriteQuery(final String name, final Properties properties, final Template id,
+                final String record) {
+
+            super(name, properties, Sets.union(id.getVariables(), recordVariables(record)),
+                    ImmutableList.of("size", "id"));
+
+            final List<URI> recordProperties = Lists.newArrayList();
+            final List<Template> recordValues = Lists.newArrayList();
+            for (final String entry : splitRecord(record)) {
+                final String[] tokens = entry.trim().split("\\s+", 2);
+                Preconditions.checkArgument(tokens.length == 2, "Invalid record entry '"
+                        + entry + "' for query " + name);
+                recordProperties.add((URI) Statements.parseValue(tokens[0],
+                        Namespaces.DEFAULT));
+                recordValues.add(new Template(tokens[1]));
+            }
+
+            final String criteria = properties.getProperty("criteria");
+            this.layer = QueryTestDriver.normalizeLayerURI((URI) Statements.parseValue(
+                    properties.getProperty("layer", "ks:Resource"), Namespaces.DEFAULT));
+            this.id = id;
+            this.unique = Boolean.parseBoolean(properties.getProperty("unique"));
+            this.recordProperties = ImmutableList.copyOf(recordProperties);
+            this.recordValues = ImmutableList.copyOf(recordValues);
+            this.criteria = criteria == null ? null : Iterables.toArray(Splitter.on(',')
+                    .trimResults().omitEmptyStrings().split(criteria), String.class);
+        }
+
+        private static List<String> splitRecord(final String record) {
+            // Split on ';' outside quoted literals and <...> URIs
+            final List<String> entries = Lists.newArrayList();
+            boolean quoted = false;
+            boolean bracketed = false;
+            int start = 0;
+            for (int i = 0; i < record.length(); ++i) {
+                final char c = record.charAt(i);
+                if (c == '\\' && quoted) {
+                    ++i;
+                } else if (c == '"' && !bracketed) {
+                    quoted = !quoted;
+                } else if (c == '<' && !quoted || c == '>' && !quoted) {
+                    bracketed = c == '<';
+                } else if (c == ';' && !quoted && !bracketed) {
+                    entries.add(record.substring(start, i));
+                    start = i + 1;
+                }
+            }
+            entries.add(record.substring(start));
+            final List<String> result = Lists.newArrayList();
+            for (final String entry : entries) {
+                if (!entry.trim().isEmpty()) {
+                    result.add(entry);
+                }
+            }
+            return result;
+        }
+
+        private static Set<String> recordVariables(final String record) {
+            final Set<String> variables = Sets.newHashSet();
+            for (final String entry : splitRecord(record)) {
+                variables.addAll(new Template(entry).getVariables());
+            }
+            return variables;
+        }
+
+        @Override
+        void doEvaluate(final Session session, final BindingSet input,
+                final MapBindingSet output, final Random random) throws Throwable {
+
+            URI id = (URI) Statements.parseValue(instantiate(this.id, input, output),
+                    Namespaces.DEFAULT);
+            if (this.unique) {
+                id = FACTORY.createURI(id.stringValue() + "_"
+                        + Long.toHexString(random.nextLong()));
+            }
+            final Record record = Record.create(id, this.layer);
+            for (int i = 0; i < this.recordProperties.size(); ++i) {
+                record.add(this.recordProperties.get(i), Statements.parseValue(instantiate(
+                        this.recordValues.get(i), input, output), Namespaces.DEFAULT));
+            }
+
+            long size = 0L;
+            try {
+                final Outcome outcome = write(session, id, record);
+                reportReceived(output, 0L);
+                if (outcome == null || !outcome.getStatus().isOK()) {
+                    throw new IllegalStateException("Got outcome " + outcome);
+                }
+                size = 1L;
+            } catch (final Throwable ex) {
+                throw new RuntimeException("Failed " + getClass().getSimpleName() + " "
+                        + QueryTestDriver.format(this.layer) + ", id "
+                        + QueryTestDriver.format(id), ex);
+            } finally {
+                output.addBinding("size", FACTORY.createLiteral(size));
+                output.addBinding("id", id);
+            }
+        }
+
+        abstract Outcome write(Session session, URI id, Record record) throws Throwable;
+
+    }
+
+    private static class CreateQuery extends WriteQuery {
+
+        CreateQuery(final String name, final Properties properties) {
+            super(name, properties);
+        }
+
+        @Override
+        Outcome write(final Session session, final URI id, final Record record)
+                throws Throwable {
+            return session.create(this.layer).timeout(getTimeout()).records(record).exec();
+        }
+
+    }
+
+    private static class MergeQuery extends WriteQuery {
+
+        MergeQuery(final String name, final Properties properties) {
+            super(name, properties);
+        }
+
+        @Override
+        Outcome write(final Session session, final URI id, final Record record)
+                throws Throwable {
+            final Operation.Merge merge = session.merge(this.layer).timeout(getTimeout())
+                    .records(record);
+            return (this.criteria == null ? merge : merge.criteria(this.criteria)).exec();
+        }
+
+    }
+
+    private static class UpdateQuery extends WriteQuery {
+
+        UpdateQuery(final String name, final Properties properties) {
+            super(name, properties);
+        }
+
+        @Override
+        Outcome write(final Session session, final URI id, final Record record)
+                throws Throwable {
+            final Operation.Update update = session.update(this.layer)
+                    .timeout(getTimeout()).ids(id).record(record);
+            return (this.criteria == null ? update : update.criteria(this.criteria)).exec();
+        }
+
+    }
+
+    private static class DeleteQuery extends WriteQuery {
+
+        DeleteQuery(final String name, final Properties properties) {
+            super(name, properties);
+        }
+
+        @Override
+        Outcome write(final Session session, final URI id, final Record record)
+                throws Throwable {
+            return session.delete(this.layer).timeout(getTimeout()).ids(id).exec();
+        }
+
+    }
+
+    // Uploads either a local file (file: template of its path) or synthetic content of a
+    // given size (size: bytes, default 64 KB) as the representation of a resource; synthetic
+    // content is generated once, so that its generation is not part of query time
+    private static class UploadQuery extends Query {
+
+        private final Template id;
+
+        @Nullable
+        private final Template file;
+
+        @Nullable
+        private final byte[] content;
+
+        UploadQuery(final String name, final Properties properties) {
+            this(name, properties, new Template(properties.getProperty("id")), properties
+                    .getProperty("file") == null ? null : new Template(
+                    properties.getProperty("file")));
+        }
+
+        private UploadQuery(final String name, final Properties properties,
+                final Template id, @Nullable final Template file) {
+            super(name, properties, file == null ? id.getVariables() : Sets.union(
+                    id.getVariables(), file.getVariables()), ImmutableList.of("size",
+                    "throughput"));
+            final int size = Integer.parseInt(properties.getProperty("size", "65536"));
+            Preconditions.checkArgument(size >= 0, "Invalid size " + size + " for query "
+                    + name);
+            this.id = id;
+            this.file = file;
+            this.content = file != null ? null : new byte[size];
+            if (this.content != null) {
+                // Synthetic content depends on the query name, so it is the same across runs
+                new Random(name.hashCode()).nextBytes(this.content);
+            }
+        }
+
+        @Override
+        void doEvaluate(final Session session, final BindingSet input,
+                final MapBindingSet output, final Random random) throws Throwable {
+
+            final URI id = (URI) Statements.parseValue(instantiate(this.id, input, output),
+                    Namespaces.DEFAULT);
+
+            final Representation representation;
+            final long size;
+            if (this.file != null) {
+                final File file = new File(instantiate(this.file, input, output));
+                representation = Representation.create(file, false);
+                size = file.length();
+            } else {
+                representation = Representation.create(this.content);
+                size = this.content.length;
+            }
+
+            final long startTimestamp = System.currentTimeMillis();
+            try {
+                final Outcome outcome = session.upload(id).timeout(getTimeout())
+                        .representation(representation).exec();
+                reportReceived(output, 0L);
+                if (outcome == null || !outcome.getStatus().isOK()) {
+                    throw new IllegalStateException("Got outcome " + outcome);
+                }
+            } catch (final Throwable ex) {
+                throw new RuntimeException("Failed UPLOAD, id " + QueryTestDriver.format(id), ex);
+            } finally {
+                // Throughput in MB/s, from request to outcome received
+                final long elapsed = System.currentTimeMillis() - startTimestamp;
+                representation.close();
+                output.addBinding("size", FACTORY.createLiteral(size));
+                output.addBinding("throughput", FACTORY.createLiteral(Math.round(size
+                        * 1000000.0 / 1048576 / Math.max(1L, elapsed)) / 1000.0));
+            }
+        }
+
+    }
+
+    private static final class SparqlQuery extends Query {
+
+        private final Template query;
+
+        private final String form;
+
+        SparqlQuery(final String name, final Properties properties) {
+            this(name, properties, Template.forString(properties.getProperty("query")));
+        }
+
+        private SparqlQuery(final String name, final Properties properties,
+                final Template query) {
+            super(name, properties, query.getVariables(), ImmutableList.of("size"), true);
+            this.query = query;
+            this.form = detectQueryForm(query.getText());
+        }
+
+        private static String detectQueryForm(final String query) {
+
+            final int length = query.length();
+
+            int start = 0;
+            while (start < length) {
+                final char ch = query.charAt(start);
+                if (ch == '#') { // comment
+                    while (start < length && query.charAt(start) != '\n') {
+                        ++start;
+                    }
+                } else if (ch == 'p' || ch == 'b' || ch == 'P' || ch == 'B') { // prefix/base
+                    while (start < length && query.charAt(start) != '>') {
+                        ++start;
+                    }
+                } else if (!Character.isWhitespace(ch)) { // found
+                    break;
+                }
+                ++start;
+            }
+
+            for (int i = start; i < query.length(); ++i) {
+                final char ch = query.charAt(i);
+                if (Character.isWhitespace(ch)) {
+                    final String form = query.substring(start, i).toLowerCase();
+                    if (!"select".equals(form) && !"construct".equals(form)
+                            && !"describe".equals(form) && !"ask".equals(form)) {
+                        throw new IllegalArgumentException("Unknown query form: " + form);
+                    }
+                    return form;
+                }
+            }
+
+            throw new IllegalArgumentException("Cannot detect query form");
+        }
+
+        @Override
+        void doEvaluate(final Session session, final BindingSet input,
+                final MapBindingSet output, final Random random) throws Throwable {
+
+            long numResults = 0;
+            final String queryString = instantiate(this.query, input, output);
+            final Sparql operation = session.sparql(queryString).timeout(getTimeout());
+            final Fingerprint fingerprint = newFingerprint();
+
+            try {
+                switch (this.form) {
+                case "select":
+                    numResults = count(operation.execTuples(), fingerprint, output);
+                    break;
+                case "construct":
+                case "describe":
+                    numResults = count(operation.execTriples(), fingerprint, output);
+                    break;
+                case "ask":
+                    final boolean result = operation.execBoolean();
+                    reportReceived(output, Boolean.toString(result).length());
+                    if (fingerprint != null) {
+                        fingerprint.add(result);
+                    }
+                    numResults = 1;
+                    break;
+                default:
+                    throw new Error();
+                }
+                if (numResults == 0) {
+                    LOGGER.warn("No results for SPARQL request, query is\n" + queryString);
+                }
+                output.addBinding("size", FACTORY.createLiteral(numResults));
+            } catch (final Throwable ex) {
+                throw new RuntimeException("Failed SPARQL, form " + this.form.toUpperCase()
+                        + ", query:\n" + queryString, ex);
+            } finally {
+                if (fingerprint != null) {
+                    output.addBinding("hash", FACTORY.createLiteral(fingerprint.toString()));
+                }
+            }
+        }
+    }
+
+    // A template compiled into literal segments interleaved with variable slots
+    static final class Template {
+
+        private static final Pattern PATTERN = Pattern.compile("\\$\\{([^\\}]+)\\}");
+
+        private static final int SLOT_LENGTH = 64; // estimated length of a slot value
+
+        private static final Template EMPTY = new Template("");
+
+        private final String text;
+
+        private final String[] segments; // n + 1 literal segments around n slots
+
+        private final String[] slotVariables;
+
+        private final int length;
+
+        private final Set<String> variables;
+
+        private Template(final String string) {
+            Preconditions.checkNotNull(string);
+            final List<String> segments = Lists.newArrayList();
+            final List<String> variables = Lists.newArrayList();
+            final Matcher matcher = PATTERN.matcher(string);
+            int offset = 0;
+            while (matcher.find()) {
+                segments.add(string.substring(offset, matcher.start()));
+                variables.add(matcher.group(1));
+                offset = matcher.end();
+            }
+            segments.add(string.substring(offset));
+            int length = 0;
+            for (final String segment : segments) {
+                length += segment.length();
+            }
+            this.text = string;
+            this.segments = segments.toArray(new String[segments.size()]);
+            this.slotVariables = variables.toArray(new String[variables.size()]);
+            this.length = length;
+            this.variables = ImmutableSet.copyOf(variables);
+        }
+
+        static Template forString(@Nullable final String string) {
+            return string == null ? EMPTY : new Template(string);
+        }
+
+        String getText() {
+            return this.text;
+        }
+
+        int getLength() {
+            return this.length; // length without slot values
+        }
+
+        Set<String> getVariables() {
+            return this.variables;
+        }
+
+        String instantiate(final BindingSet bindings) {
+            if (this.slotVariables.length == 0) {
+                return this.segments[0];
+            }
+            // Size the builder for typical values (URIs), so that it rarely needs to grow
+            final StringBuilder builder = new StringBuilder(this.length
+                    + this.slotVariables.length * SLOT_LENGTH);
+            builder.append(this.segments[0]);
+            for (int i = 0; i < this.slotVariables.length; ++i) {
+                final String variable = this.slotVariables[i];
+                if (bindings instanceof InputTable.Tuple) {
+                    builder.append(((InputTable.Tuple) bindings).getString(variable));
+                } else {
+                    builder.append(Data.toString(bindings.getValue(variable), null));
+                }
+                builder.append(this.segments[i + 1]);
+            }
+            return builder.toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,329 @@
+package eu.fbk.nwrtools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummaryValues;
+import org.apache.commons.math3.stat.inference.TTest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.fbk.nwrtools.util.CommandLine;
+import eu.fbk.nwrtools.util.Histogram;
+import eu.fbk.rdfpro.util.IO;
+import eu.fbk.rdfpro.util.Tracker;
+
+/**
+ * Compares the output TSV files of multiple QueryTestDriver runs against a baseline run.
+ * <p>
+ * Files (possibly compressed) are streamed and summarized into per-query histograms of
+ * successful query times, so memory does not depend on file size. For each query (and for the
+ * whole mix) the mean, median and 99th percentile of times, the error rate and the throughput of
+ * each run are compared with the ones of the baseline, testing the difference of means with
+ * Welch's t-test and the difference of 99th percentiles with their distribution-free confidence
+ * intervals (which must not overlap). A query regresses if its mean time or 99th percentile
+ * increase by more than a relative threshold (and the corresponding test is significant), if its
+ * throughput decreases by more than the threshold, if its error rate increases by more than a
+ * tenth of the threshold, or if it no longer succeeds (or runs) at all; in that case the tool
+ * terminates with exit code 1.
+ * </p>
+ */
+public final class QueryTestCompare {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryTestCompare.class);
+
+    private static final String MIX = "mix";
+
+    public static void main(final String... args) {
+        try {
+            final CommandLine cmd = CommandLine
+                    .parser()
+                    .withName("query-test-compare")
+                    .withHeader(
+                            "Compares the per-mix output of QueryTestDriver runs against a "
+                                    + "baseline run, flagging significant regressions.")
+                    .withOption("t", "threshold", "the relative change of times / throughput "
+                            + "regarded as a regression (default 0.1)", "RATIO",
+                            CommandLine.Type.NON_NEGATIVE_FLOAT, true, false, false)
+                    .withOption("a", "alpha", "the significance level of the tests on mean and "
+                            + "99th percentile times (default 0.01)", "P",
+                            CommandLine.Type.POSITIVE_FLOAT, true, false, false)
+                    .withOption("q", "queries", "the comma-separated queries to compare "
+                            + "(default all)", "QUERIES", CommandLine.Type.STRING, true, false,
+                            false)
+                    .withFooter(
+                            "The first FILE is the baseline, the other FILEs are compared with "
+                                    + "it. Files may be compressed.\nExit code is 1 if any "
+                                    + "regression is detected.")
+                    .withLogger(LoggerFactory.getLogger("eu.fbk.nwrtools")).parse(args);
+
+            final double threshold = cmd.getOptionValue("t", Double.class, 0.1);
+            final double alpha = cmd.getOptionValue("a", Double.class, 0.01);
+            final String queriesArg = cmd.getOptionValue("q", String.class, null);
+            final List<File> files = cmd.getArgs(File.class);
+            Preconditions.checkArgument(files.size() >= 2, "At least two files are required");
+            Preconditions.checkArgument(alpha < 1.0, "Invalid significance level " + alpha);
+            final Set<String> queries = queriesArg == null ? null : ImmutableSet
+                    .copyOf(Splitter.on(',').trimResults().omitEmptyStrings().split(queriesArg));
+
+            final Run baseline = Run.read(files.get(0), queries);
+            int regressions = 0;
+            for (final File file : files.subList(1, files.size())) {
+                final Run run = Run.read(file, queries);
+                final StringBuilder builder = new StringBuilder();
+                regressions += compare(baseline, run, threshold, alpha, builder);
+                LOGGER.info("Comparison of {} with {} (baseline):\n\n{}", run.file,
+                        baseline.file, builder);
+            }
+
+            if (regressions > 0) {
+                LOGGER.error("{} regression(s) detected", regressions);
+                System.exit(1);
+            }
+            LOGGER.info("No regression detected");
+
+        } catch (final Throwable ex) {
+            CommandLine.fail(ex);
+        }
+    }
+
+    static int compare(final Run baseline, final Run run, final double threshold,
+            final double alpha, final StringBuilder out) {
+
+        out.append(String.format("%-12s %8s %9s %8s %8s %8s %8s %9s %8s %8s  %s\n", "Query",
+                "Count", "Mean", "dMean", "p-value", "P50", "dP50", "P99", "dP99", "dTput",
+                "Status"));
+
+        int regressions = 0;
+        final double z = new NormalDistribution().inverseCumulativeProbability(1.0 - alpha / 2);
+        final Set<String> queries = Sets.newLinkedHashSet(run.times.keySet());
+        queries.addAll(baseline.times.keySet());
+        for (final String query : queries) {
+            final Histogram time = run.times.containsKey(query) ? run.times.get(query)
+                    : new Histogram();
+            final Histogram baseTime = baseline.times.containsKey(query) ? baseline.times
+                    .get(query) : new Histogram();
+
+            // Compare error rates first (absolute difference, as they are often zero), as they
+            // are defined also for queries with too few successful executions to compare times
+            final long errors = run.errors.containsKey(query) ? run.errors.get(query) : 0L;
+            final long baseErrors = baseline.errors.containsKey(query) ? baseline.errors
+                    .get(query) : 0L;
+            final double errorDelta = errorRate(errors, time.getCount())
+                    - errorRate(baseErrors, baseTime.getCount());
+
+            // With too few times, report a query that stopped succeeding (or running) or whose
+            // error rate increased; otherwise there is nothing to compare
+            if (baseTime.getCount() < 2 || time.getCount() < 2) {
+                final String status;
+                if (baseTime.getCount() > 0 && time.getCount() == 0) {
+                    status = errors > 0 ? "REGRESSION (errors)" : "REGRESSION (missing)";
+                    ++regressions;
+                } else if (errorDelta > threshold / 10) {
+                    status = "REGRESSION (errors)";
+                    ++regressions;
+                } else {
+                    status = baseTime.getCount() < 2 ? "no baseline" : "too few samples";
+                }
+                out.append(String.format("%-12s %8d %9.1f %8s %8s %8d %8s %9d %8s %8s  %s\n",
+                        query, time.getCount(), time.getMean(), "", "", time.getPercentile(50),
+                        "", time.getPercentile(99), "", "", status));
+                continue;
+            }
+
+            // Compare times, testing the difference of means with Welch's t-test
+            final double pValue = new TTest().tTest(summary(baseTime), summary(time));
+            final double meanDelta = delta(baseTime.getMean(), time.getMean());
+            final double p50Delta = delta(baseTime.getPercentile(50), time.getPercentile(50));
+            final double p99Delta = delta(baseTime.getPercentile(99), time.getPercentile(99));
+
+            // Test the difference of 99th percentiles, as tails may change with equal means
+            final long[] p99Interval = percentileInterval(time, 99, z);
+            final long[] baseP99Interval = percentileInterval(baseTime, 99, z);
+            final boolean p99Significant = p99Interval[0] > baseP99Interval[1];
+
+            // Compare throughputs (completions / s over the test duration)
+            final double throughput = time.getCount() / run.getSeconds();
+            final double baseThroughput = baseTime.getCount() / baseline.getSeconds();
+            final double throughputDelta = delta(baseThroughput, throughput);
+
+            final boolean significant = pValue < alpha;
+            final List<String> reasons = Lists.newArrayList();
+            if (significant && meanDelta > threshold) {
+                reasons.add("mean");
+            }
+            if (p99Significant && p99Delta > threshold) {
+                reasons.add("p99");
+            }
+            if (throughputDelta < -threshold) {
+                reasons.add("throughput");
+            }
+            if (errorDelta > threshold / 10) {
+                reasons.add("errors");
+            }
+            final String status;
+            if (!reasons.isEmpty()) {
+                status = "REGRESSION (" + Joiner.on(", ").join(reasons) + ")";
+                ++regressions;
+            } else if (significant && meanDelta < -threshold) {
+                status = "improved";
+            } else {
+                status = "ok";
+            }
+
+            out.append(String.format("%-12s %8d %9.1f %+7.1f%% %8.4f %8d %+7.1f%% %9d %+7.1f%% "
+                    + "%+7.1f%%  %s\n", query, time.getCount(), time.getMean(), meanDelta * 100,
+                    pValue, time.getPercentile(50), p50Delta * 100, time.getPercentile(99),
+                    p99Delta * 100, throughputDelta * 100, status));
+        }
+        return regressions;
+    }
+
+    // Returns the lower and upper bounds of the distribution-free confidence interval of a
+    // percentile, i.e., the order statistics whose ranks bracket the rank of the percentile at z
+    // standard deviations, approximating the binomial distribution of ranks with a normal one
+    static long[] percentileInterval(final Histogram histogram, final double percentile,
+            final double z) {
+        final long n = histogram.getCount();
+        final double p = percentile / 100.0;
+        final double halfWidth = z * Math.sqrt(n * p * (1.0 - p));
+        final long lowerRank = Math.max(1L, (long) Math.floor(n * p - halfWidth));
+        final long upperRank = Math.min(n, (long) Math.ceil(n * p + halfWidth) + 1);
+        return new long[] { valueAt(histogram, lowerRank), valueAt(histogram, upperRank) };
+    }
+
+    private static long valueAt(final Histogram histogram, final long rank) {
+        // Aim at the middle of the rank, so that rounding does not move to the next one
+        return histogram.getPercentile(Math.min(100.0, 100.0 * (rank - 0.5)
+                / histogram.getCount()));
+    }
+
+    private static StatisticalSummaryValues summary(final Histogram histogram) {
+        final double sd = histogram.getStandardDeviation();
+        return new StatisticalSummaryValues(histogram.getMean(), sd * sd, histogram.getCount(),
+                histogram.getMax(), histogram.getMin(), histogram.getSum());
+    }
+
+    private static double errorRate(final long errors, final long successes) {
+        return errors == 0 ? 0.0 : (double) errors / (errors + successes);
+    }
+
+    private static double delta(final double base, final double value) {
+        return base == 0.0 ? value == 0.0 ? 0.0 : Double.POSITIVE_INFINITY : (value - base)
+                / base;
+    }
+
+    // The summary of a run: query (and mix) times, errors and time span of the run
+    static final class Run {
+
+        final File file;
+
+        final Map<String, Histogram> times;
+
+        final Map<String, Long> errors;
+
+        long minStart;
+
+        long maxEnd;
+
+        Run(final File file) {
+            this.file = file;
+            this.times = Maps.newLinkedHashMap();
+            this.errors = Maps.newHashMap();
+            this.minStart = Long.MAX_VALUE;
+            this.maxEnd = Long.MIN_VALUE;
+        }
+
+        double getSeconds() {
+            return Math.max(1L, this.maxEnd - this.minStart) / 1000.0;
+        }
+
+        static Run read(final File file, @Nullable final Set<String> queries) throws IOException {
+
+            final Run run = new Run(file);
+            final Tracker tracker = new Tracker(LOGGER, null, //
+                    "Parsed " + file + ": %d mixes (%d mixes/s avg)", //
+                    "Parsed %d mixes (%d mixes/s, %d mixes/s avg)");
+            tracker.start();
+
+            try (BufferedReader reader = new BufferedReader(IO.utf8Reader(IO.buffer(IO.read(file
+                    .getAbsolutePath()))))) {
+
+                // Locate the time and error columns of the selected queries, plus mix columns
+                final String[] header = reader.readLine().split("\t");
+                final List<String> names = Lists.newArrayList();
+                final List<Integer> timeColumns = Lists.newArrayList();
+                final List<Integer> errorColumns = Lists.newArrayList();
+                int startColumn = -1;
+                for (int i = 0; i < header.length; ++i) {
+                    final String column = header[i].substring(1);
+                    if (column.equals("mix.start")) {
+                        startColumn = i;
+                    } else if (column.endsWith(".time")) {
+                        final String name = column.substring(0, column.length() - 5);
+                        if (queries == null || queries.contains(name) || name.equals(MIX)) {
+                            names.add(name);
+                            timeColumns.add(i);
+                            errorColumns.add(-1);
+                            run.times.put(name, new Histogram());
+                        }
+                    }
+                }
+                for (int i = 0; i < header.length; ++i) {
+                    final String column = header[i].substring(1);
+                    final int index = names.indexOf(column.endsWith(".error") ? column
+                            .substring(0, column.length() - 6) : null);
+                    if (index >= 0) {
+                        errorColumns.set(index, i);
+                    }
+                }
+                Preconditions.checkArgument(startColumn >= 0 && run.times.containsKey(MIX),
+                        "Not a QueryTestDriver output file: " + file);
+
+                // Stream the rows, recording times of successful queries and counting errors
+                final int mixIndex = names.indexOf(MIX);
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    final String[] tokens = line.split("\t", -1);
+                    for (int i = 0; i < names.size(); ++i) {
+                        final int errorColumn = errorColumns.get(i);
+                        if (errorColumn >= 0 && !tokens[errorColumn].isEmpty()) {
+                            final Long count = run.errors.get(names.get(i));
+                            run.errors.put(names.get(i), count == null ? 1L : count + 1);
+                        } else if (!tokens[timeColumns.get(i)].isEmpty()) {
+                            run.times.get(names.get(i)).record(
+                                    Long.parseLong(tokens[timeColumns.get(i)]));
+                        }
+                    }
+                    if (!tokens[startColumn].isEmpty()
+                            && !tokens[timeColumns.get(mixIndex)].isEmpty()) {
+                        final long start = Long.parseLong(tokens[startColumn]);
+                        final long end = start + Long.parseLong(tokens[timeColumns.get(mixIndex)]);
+                        run.minStart = Math.min(run.minStart, start);
+                        run.maxEnd = Math.max(run.maxEnd, end);
+                    }
+                    tracker.increment();
+                }
+            }
+
+            tracker.end();
+            return run;
+        }
+
+    }
+
+}
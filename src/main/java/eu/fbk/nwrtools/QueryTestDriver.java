@@ -5,17 +5,27 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Writer;
+import java.net.InetSocketAddress;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -24,21 +34,21 @@ import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.primitives.Doubles;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.openrdf.model.Resource;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
@@ -54,15 +64,12 @@ import org.slf4j.MDC;
 import jersey.repackaged.com.google.common.collect.Ordering;
 import jersey.repackaged.com.google.common.collect.Sets;
 
-import eu.fbk.knowledgestore.Operation.Sparql;
 import eu.fbk.knowledgestore.Session;
 import eu.fbk.knowledgestore.client.Client;
 import eu.fbk.knowledgestore.data.Data;
-import eu.fbk.knowledgestore.data.Record;
-import eu.fbk.knowledgestore.data.Representation;
-import eu.fbk.knowledgestore.data.Stream;
 import eu.fbk.knowledgestore.vocabulary.KS;
 import eu.fbk.nwrtools.util.CommandLine;
+import eu.fbk.nwrtools.util.Histogram;
 import eu.fbk.rdfpro.util.IO;
 import eu.fbk.rdfpro.util.Namespaces;
 import eu.fbk.rdfpro.util.Statements;
@@ -90,22 +97,93 @@ public final class QueryTestDriver {
 
     private final long testTime; // test.testtime
 
-    private final int clients; // test.clients
+    private final boolean autoWarmup; // test.autowarmup
+
+    private final double warmupTolerance; // test.warmuptolerance
+
+    private final double precision; // test.precision
+
+    private final double confidence; // test.confidence
+
+    private final double[] percentiles; // test.percentiles
+
+    private final int[] clients; // test.clients
+
+    private final double kneeGain; // test.kneegain
+
+    @Nullable
+    private final File sweepFile; // test.sweep
+
+    private final boolean virtual; // test.engine
+
+    private final int groupSize; // test.topology, clients sharing a KS client (0 = all)
+
+    @Nullable
+    private final Integer connections; // test.connections, per KS client
 
     private final long timeout; // test.timeout
 
+    private final double rate; // test.rate
+
+    private final boolean poisson; // test.arrival
+
     private final Query[] queries; // test.queries
 
+    private final Mix[] mixes; // test.mix, test.submixes
+
+    private final double[] mixWeights; // cumulative, normalized
+
+    private final Sampler sampler; // test.sampling, test.skew, test.hotset, test.hotrate
+
     private final List<String> outputVariables;
 
     private List<String> inputVariables;
 
-    private final byte[][] inputData;
+    private final InputTable inputData;
+
+    private final Map<String, String[]> goldenHashes; // test.golden, query -> input -> hash
+
+    @Nullable
+    private final Trace trace; // test.replay, test.replayspeed
 
     private final File outputFile;
 
+    private final int outputQueueSize; // test.outqueue
+
+    private final File histogramsFile; // test.histograms
+
+    private final File timeSeriesFile; // test.timeseries
+
+    private final long interval; // test.interval
+
+    private final int metricsPort; // test.metricsport
+
+    private final boolean jmx; // test.jmx
+
+    private final long metricsWindow; // test.metricswindow
+
+    private final boolean jvm; // test.jvm
+
+    private final boolean excludeGc; // test.excludegc
+
     private final long seed;
 
+    private final String mode; // test.mode
+
+    @Nullable
+    private final InetSocketAddress coordinatorAddress; // test.coordinator
+
+    private final int numWorkers; // test.workers
+
+    @Nullable
+    private Coordinator coordinator; // while running in coordinator mode
+
+    @Nullable
+    private Worker worker; // while running in worker mode
+
+    @Nullable
+    private Metrics metrics; // while running with live metrics enabled
+
     public static void main(final String... args) {
         try {
             MDC.put(MDC_CONTEXT, "main");
@@ -158,11 +236,56 @@ public final class QueryTestDriver {
         // Parse seed
         this.seed = read(properties, "test.seed", Long.class, 0L);
 
+        // Parse distributed mode parameters: workers connect to the coordinator at the given
+        // address, synchronize warmup and measurement with it and report back their histograms
+        this.mode = read(properties, "test.mode", String.class, "standalone").toLowerCase();
+        Preconditions.checkArgument(ImmutableSet.of("standalone", "coordinator", "worker")
+                .contains(this.mode), "Invalid mode " + this.mode);
+        final String coordinatorArg = read(properties, "test.coordinator", String.class,
+                "localhost:7654");
+        final int colonIndex = coordinatorArg.lastIndexOf(':');
+        Preconditions.checkArgument(colonIndex > 0, "Invalid coordinator address "
+                + coordinatorArg);
+        this.coordinatorAddress = "standalone".equals(this.mode) ? null
+                : new InetSocketAddress(coordinatorArg.substring(0, colonIndex),
+                        Integer.parseInt(coordinatorArg.substring(colonIndex + 1)));
+        this.numWorkers = read(properties, "test.workers", Integer.class, 1);
+        Preconditions.checkArgument(this.numWorkers > 0, "Invalid number of workers "
+                + this.numWorkers);
+
         // Parse file names
         final String dataArg = read(properties, "test.data", String.class);
         final String outputArg = read(properties, "test.out", String.class);
         final File dataFile = base.resolve(Paths.get(dataArg)).toFile();
         this.outputFile = outputArg == null ? null : base.resolve(Paths.get(outputArg)).toFile();
+        this.outputQueueSize = read(properties, "test.outqueue", Integer.class, 65536);
+        final String histogramsArg = read(properties, "test.histograms", String.class, null);
+        this.histogramsFile = histogramsArg == null ? null : base.resolve(
+                Paths.get(histogramsArg)).toFile();
+        final String timeSeriesArg = read(properties, "test.timeseries", String.class, null);
+        this.timeSeriesFile = timeSeriesArg == null ? null : base.resolve(
+                Paths.get(timeSeriesArg)).toFile();
+        this.interval = (long) (read(properties, "test.interval", Double.class, 1.0) * 1000);
+        Preconditions.checkArgument(this.interval > 0, "Invalid interval " + this.interval);
+
+        // Parse live metrics parameters (HTTP endpoint in Prometheus format and/or JMX MBean)
+        this.metricsPort = read(properties, "test.metricsport", Integer.class, 0);
+        this.jmx = read(properties, "test.jmx", Boolean.class, false);
+        this.metricsWindow = (long) (read(properties, "test.metricswindow", Double.class, 10.0)
+                * 1000);
+        Preconditions.checkArgument(this.metricsWindow > 0, "Invalid metrics window "
+                + this.metricsWindow);
+
+        // Parse driver-side JVM instrumentation parameters: if enabled, CPU time, allocated
+        // bytes and GC pauses of the driver are sampled around each query; mixes overlapping a
+        // stop-the-world pause of the driver may be excluded from statistics (test.excludegc)
+        this.excludeGc = read(properties, "test.excludegc", Boolean.class, false);
+        this.jvm = this.excludeGc || read(properties, "test.jvm", Boolean.class, false);
+        if (this.jvm) {
+            LOGGER.info("JVM instrumentation enabled ({})", this.excludeGc
+                    ? "mixes overlapping GC pauses excluded from statistics"
+                    : "mixes overlapping GC pauses only flagged");
+        }
 
         // Parse server URL, username and password
         this.url = read(properties, "test.url", String.class);
@@ -172,48 +295,135 @@ public final class QueryTestDriver {
                 this.username == null && this.password == null ? " (anonymous access)"
                         : " (authenticated access)");
 
-        // Parse number of mixes, max times and client counts
-        this.warmupMixes = read(properties, "test.warmupmixes", Integer.class, 0);
-        this.testMixes = read(properties, "test.testmixes", Integer.class, 1);
+        // Parse adaptive termination parameters: warmup may last until mix times reach a steady
+        // state, while measurement may last until the confidence intervals of mean and selected
+        // percentiles of query times are within the given relative precision
+        this.autoWarmup = read(properties, "test.autowarmup", Boolean.class, false);
+        this.warmupTolerance = read(properties, "test.warmuptolerance", Double.class, 0.05);
+        this.precision = read(properties, "test.precision", Double.class, 0.0);
+        this.confidence = read(properties, "test.confidence", Double.class, 0.95);
+        final String percentilesArg = read(properties, "test.percentiles", String.class,
+                "50,90,99");
+        final List<Double> percentiles = Lists.newArrayList();
+        for (final String token : Splitter.on(',').trimResults().omitEmptyStrings()
+                .split(percentilesArg)) {
+            percentiles.add(Double.parseDouble(token));
+        }
+        this.percentiles = Doubles.toArray(percentiles);
+        Preconditions.checkArgument(this.warmupTolerance > 0.0, "Invalid warmup tolerance "
+                + this.warmupTolerance);
+        Preconditions.checkArgument(this.precision >= 0.0, "Invalid precision "
+                + this.precision);
+        Preconditions.checkArgument(this.confidence > 0.0 && this.confidence < 1.0,
+                "Invalid confidence " + this.confidence);
+        for (final double percentile : this.percentiles) {
+            Preconditions.checkArgument(percentile > 0.0 && percentile < 100.0,
+                    "Invalid percentile " + percentile);
+        }
+        if (this.autoWarmup) {
+            LOGGER.info("Warmup until steady state ({} tolerance)", this.warmupTolerance);
+        }
+        if (this.precision > 0.0) {
+            LOGGER.info("Measurement until convergence ({} precision, {} confidence, mean and "
+                    + "percentiles {})", this.precision, this.confidence, percentilesArg);
+        }
+
+        // Parse number of mixes, max times and client counts (in adaptive mode, the number of
+        // mixes is unbounded by default, so that only the max time limits the phase)
+        this.warmupMixes = read(properties, "test.warmupmixes", Integer.class,
+                this.autoWarmup ? Integer.MAX_VALUE : 0);
+        this.testMixes = read(properties, "test.testmixes", Integer.class,
+                this.precision > 0.0 ? Integer.MAX_VALUE : 1);
         this.warmupTime = read(properties, "test.warmuptime", Long.class, 3600L) * 1000;
         this.testTime = read(properties, "test.testtime", Long.class, 3600L) * 1000;
-        this.clients = read(properties, "test.clients", Integer.class, 1);
+        this.clients = parseClients(read(properties, "test.clients", String.class, "1"));
         LOGGER.info("{} mix(es), {} s warmup; {} mix(es), {} s test; {} client(s)",
                 this.warmupMixes, this.warmupTime / 1000, this.testMixes, this.testTime / 1000,
-                this.clients);
+                Ints.join(", ", this.clients));
+
+        // Parse sweep parameters (used if multiple client counts are supplied)
+        this.kneeGain = read(properties, "test.kneegain", Double.class, 0.1);
+        final String sweepArg = read(properties, "test.sweep", String.class, null);
+        this.sweepFile = sweepArg == null ? null : base.resolve(Paths.get(sweepArg)).toFile();
+
+        // Parse execution engine: 'threads' uses a platform thread per simulated client,
+        // 'virtual' uses a virtual thread per client
+        final String engine = read(properties, "test.engine", String.class, "threads");
+        Preconditions.checkArgument("threads".equalsIgnoreCase(engine)
+                || "virtual".equalsIgnoreCase(engine), "Unknown engine " + engine);
+        this.virtual = "virtual".equalsIgnoreCase(engine);
+
+        // Parse client topology: 'client' uses a KS client per simulated client, 'shared' a
+        // single KS client for all of them and 'group' a KS client per group of test.groupsize
+        // clients; each KS client has a pool of test.connections connections (default: one per
+        // client, at most 256), whose acquisition is tracked to measure the pool wait
+        final String topology = read(properties, "test.topology", String.class,
+                this.virtual ? "shared" : "client").toLowerCase();
+        if ("client".equals(topology)) {
+            this.groupSize = 1;
+        } else if ("shared".equals(topology)) {
+            this.groupSize = 0;
+        } else if ("group".equals(topology)) {
+            this.groupSize = read(properties, "test.groupsize", Integer.class, 16);
+            Preconditions.checkArgument(this.groupSize > 0, "Invalid group size "
+                    + this.groupSize);
+        } else {
+            throw new IllegalArgumentException("Unknown topology " + topology);
+        }
+        this.connections = read(properties, "test.connections", Integer.class, null);
+        Preconditions.checkArgument(this.connections == null || this.connections > 0,
+                "Invalid number of connections " + this.connections);
+        LOGGER.info("Engine: {} threads, {}", this.virtual ? "virtual" : "platform",
+                this.groupSize == 1 ? "KS client per thread" : this.groupSize == 0
+                        ? "shared KS client" : "KS client per " + this.groupSize + " threads");
 
         // Parse default timeout
         this.timeout = read(properties, "test.timeout", Long.class, -1L);
 
-        // Parse test data
-        Preconditions.checkArgument(dataFile.exists(), "File " + dataFile + " does not exist");
-        final List<byte[]> data = Lists.newArrayList();
-        try (BufferedReader reader = new BufferedReader(IO.utf8Reader(IO.buffer(IO.read(dataFile
-                .getAbsolutePath()))))) {
-            String line = reader.readLine();
-            final String[] inputVariables = line.split("\t");
-            for (int i = 0; i < inputVariables.length; ++i) {
-                inputVariables[i] = inputVariables[i].substring(1);
-            }
-            this.inputVariables = ImmutableList.copyOf(inputVariables);
-            LOGGER.info("Input schema: ({})", Joiner.on(", ").join(this.inputVariables));
-            final Tracker tracker = new Tracker(LOGGER, null, //
-                    "Parsed " + dataFile + ": %d tuples (%d tuple/s avg)", //
-                    "Parsed %d tuples (%d tuple/s, %d tuple/s avg)");
-            tracker.start();
-            while ((line = reader.readLine()) != null) {
-                data.add(line.getBytes(Charsets.UTF_8));
-                tracker.increment();
-            }
-            tracker.end();
+        // Parse open-loop arrival rate (mixes/s over all clients) and arrival distribution
+        this.rate = read(properties, "test.rate", Double.class, 0.0);
+        final String arrival = read(properties, "test.arrival", String.class, "fixed");
+        Preconditions.checkArgument(this.rate >= 0.0, "Invalid rate " + this.rate);
+        Preconditions.checkArgument("fixed".equalsIgnoreCase(arrival)
+                || "poisson".equalsIgnoreCase(arrival), "Unknown arrival distribution " + arrival);
+        this.poisson = "poisson".equalsIgnoreCase(arrival);
+        if (this.rate > 0.0) {
+            LOGGER.info("Open-loop test: {} mix/s, {} arrivals", this.rate,
+                    this.poisson ? "poisson" : "fixed");
         }
-        this.inputData = data.toArray(new byte[data.size()][]);
+
+        // Parse test data once, either on heap or memory-mapped (test.datamapped)
+        Preconditions.checkArgument(dataFile.exists(), "File " + dataFile + " does not exist");
+        this.inputData = InputTable.read(dataFile,
+                read(properties, "test.datamapped", Boolean.class, false));
+        this.inputVariables = this.inputData.getVariables();
+        LOGGER.info("Input schema: ({})", Joiner.on(", ").join(this.inputVariables));
+
+        // Parse the distribution used to pick input tuples; sequential sampling partitions the
+        // input among workers, so that each tuple is used once over the whole (cold cache) run
+        this.sampler = new Sampler(read(properties, "test.sampling", String.class, "uniform")
+                .toLowerCase(), this.inputData.size(), this.seed, read(properties, "test.skew",
+                Double.class, 1.0), read(properties, "test.hotset", Double.class, 0.1), read(
+                properties, "test.hotrate", Double.class, 0.9),
+                "worker".equals(this.mode) ? this.numWorkers : 1);
+        LOGGER.info("Input sampling: {}", this.sampler);
 
         // Parse queries
         final Properties defaultQueryProperties = new Properties();
         if (this.timeout >= 0) {
             defaultQueryProperties.setProperty("timeout", Long.toString(this.timeout));
         }
+        final String thinkTime = read(properties, "test.thinktime", String.class, null);
+        if (thinkTime != null) {
+            defaultQueryProperties.setProperty("thinktime", thinkTime);
+        }
+        final String goldenArg = read(properties, "test.golden", String.class, null);
+        if (goldenArg != null || read(properties, "test.hash", Boolean.class, false)) {
+            defaultQueryProperties.setProperty("hash", "true");
+        }
+        if (!read(properties, "test.chars", Boolean.class, true)) {
+            defaultQueryProperties.setProperty("chars", "false"); // skip measuring ?chars
+        }
         final List<Query> allQueries = Query.create(properties, defaultQueryProperties);
         final List<Query> enabledQueries = Lists.newArrayList();
         final Set<String> enabledNames = Sets.newLinkedHashSet(Arrays.asList(read(properties,
@@ -233,56 +443,270 @@ public final class QueryTestDriver {
         LOGGER.info("{} queries enabled ({} defined): {}", enabledQueries.size(),
                 allQueries.size(), Joiner.on(", ").join(enabledQueries));
 
+        // Build the units sampled for each mix: all the queries in order (sequential mode), or
+        // either single queries or the configured sub-mixes picked based on weights
+        final String mixMode = read(properties, "test.mix", String.class, "sequential");
+        final boolean weighted = "weighted".equalsIgnoreCase(mixMode);
+        Preconditions.checkArgument(weighted || "sequential".equalsIgnoreCase(mixMode),
+                "Invalid mix mode " + mixMode);
+        final String subMixes = read(properties, "test.submixes", String.class, null);
+        if (!weighted) {
+            this.mixes = new Mix[] { new Mix("mix", this.queries, 1.0) };
+        } else if (subMixes == null) {
+            this.mixes = new Mix[this.queries.length];
+            for (int i = 0; i < this.queries.length; ++i) {
+                this.mixes[i] = new Mix(this.queries[i].getName(),
+                        new Query[] { this.queries[i] }, this.queries[i].getWeight());
+            }
+        } else {
+            this.mixes = Mix.parse(subMixes, enabledQueries);
+        }
+        double totalWeight = 0.0;
+        for (final Mix mix : this.mixes) {
+            totalWeight += mix.getWeight();
+        }
+        Preconditions.checkArgument(totalWeight > 0.0, "No query with positive weight");
+        this.mixWeights = new double[this.mixes.length];
+        double cumulatedWeight = 0.0;
+        for (int i = 0; i < this.mixes.length; ++i) {
+            cumulatedWeight += this.mixes[i].getWeight();
+            this.mixWeights[i] = cumulatedWeight / totalWeight;
+        }
+        if (weighted) {
+            LOGGER.info("Weighted mix: {}", Joiner.on(", ").join(this.mixes));
+        }
+
+        // Load the trace to replay, if any
+        final String replayArg = read(properties, "test.replay", String.class, null);
+        this.trace = replayArg == null ? null : Trace.read(base.resolve(Paths.get(replayArg))
+                .toFile(), this.inputData, this.queries,
+                read(properties, "test.replayspeed", Double.class, 1.0));
+
         // Check query variables and build list of output variables
         final List<String> outputVariables = Lists.newArrayList("mix.client", "mix.index",
-                "mix.input", "mix.start", "mix.time");
+                "mix.input", "mix.start", "mix.delay", "mix.time");
+        if (isMixNamed()) {
+            outputVariables.add("mix.name");
+        }
         for (final String variable : this.inputVariables) {
             outputVariables.add("input." + variable);
         }
-        for (final Query query : this.queries) {
-            for (final String inputVariable : query.getInputVariables()) {
-                if (!this.inputVariables.contains(inputVariable)) {
-                    throw new IllegalArgumentException("Query " + query
-                            + " refers to unknown input variable " + inputVariable);
+        for (final Mix mix : this.mixes) {
+            // Queries may use input variables or outputs <query>.<variable> of previous queries
+            final Set<String> available = Sets.newHashSet(this.inputVariables);
+            for (final Query query : mix.getQueries()) {
+                for (final String inputVariable : query.getInputVariables()) {
+                    if (!available.contains(inputVariable)) {
+                        throw new IllegalArgumentException("Query " + query
+                                + " refers to unknown input variable " + inputVariable
+                                + (this.mixes.length > 1 ? " in mix " + mix.getName() : ""));
+                    }
+                }
+                for (final String outputVariable : query.getOutputVariables()) {
+                    available.add(query.getName() + "." + outputVariable);
                 }
             }
+            if (mix.isConcurrent()) {
+                LOGGER.info("Concurrent mix {}: {}", mix.getName(), mix.formatDependencies());
+            }
+        }
+        for (final Query query : this.queries) {
             for (final String outputVariable : Ordering.natural().immutableSortedCopy(
                     query.getOutputVariables())) {
                 outputVariables.add(query.getName() + "." + outputVariable);
             }
+            if (this.jvm) {
+                for (final String outputVariable : JvmProbe.QUERY_VARIABLES) {
+                    outputVariables.add(query.getName() + "." + outputVariable);
+                }
+            }
+        }
+        if (isConcurrent()) {
+            outputVariables.add("mix.path"); // queries on the critical path
+        }
+        if (this.jvm) {
+            outputVariables.addAll(JvmProbe.MIX_VARIABLES);
         }
         this.outputVariables = ImmutableList.copyOf(outputVariables);
         LOGGER.info("Output schema: {} attributes", this.outputVariables.size());
+
+        // Load result hashes from the output of a reference run, if verification is enabled
+        this.goldenHashes = goldenArg == null ? ImmutableMap.<String, String[]>of()
+                : readGoldenHashes(base.resolve(Paths.get(goldenArg)).toFile(),
+                        this.inputData.size());
+
     }
 
     public void run() throws Throwable {
 
-        // Open writer if possible
-        final Writer writer = this.outputFile == null ? null : IO.utf8Writer(IO.buffer(IO
-                .write(this.outputFile.getAbsolutePath())));
+        // In distributed mode, wait for workers to connect or connect to the coordinator
+        if ("coordinator".equals(this.mode)) {
+            this.coordinator = new Coordinator(this.coordinatorAddress.getPort(),
+                    this.numWorkers);
+        } else if ("worker".equals(this.mode)) {
+            this.worker = Worker.connect(this.coordinatorAddress);
+            MDC.put(MDC_CONTEXT, "worker" + this.worker.getId());
+        }
+
+        // Configured mixes and rate are totals over all workers, each running its own share
+        if (this.coordinator != null) {
+            LOGGER.info("{} mix(es) warmup, {} mix(es) test{} split among {} workers",
+                    this.warmupMixes, this.testMixes, this.rate <= 0.0 ? "" : ", " + this.rate
+                            + " mix/s", this.numWorkers);
+        } else if (this.worker != null) {
+            LOGGER.info("Worker share: {} mix(es) warmup, {} mix(es) test{}",
+                    share(this.warmupMixes), share(this.testMixes), this.rate <= 0.0 ? ""
+                            : ", " + rate() + " mix/s");
+        }
+
+        // Expose live metrics, if enabled (not in coordinator mode, as no client runs there)
+        if ((this.metricsPort > 0 || this.jmx) && this.coordinator == null) {
+            this.metrics = new Metrics(this.metricsPort, this.jmx, this.metricsWindow);
+        }
 
+        // Run the test, then terminate workers (coordinator) or wait for termination (worker)
+        final List<Statistics> steps = Lists.newArrayList();
         try {
             // Allocate a random number generator
-            final Random random = new Random(this.seed);
+            final Random random = new Random(seed());
 
-            // Take a timestamp and allocate data structure for computing statistics
+            // Take a timestamp
             final long ts = System.currentTimeMillis();
-            final List<String> queryNames = Lists.newArrayList();
-            for (final Query query : this.queries) {
-                queryNames.add(query.getName());
-            }
-            final Statistics stats = new Statistics(queryNames);
 
             // Log test started
             LOGGER.info("Test started");
 
-            // Perform warmup (if enabled)
-            if (this.warmupMixes > 0) {
-                runClients(this.warmupMixes, this.warmupTime, random, "Warmup", null, null);
+            // Run a warmup + measurement step for each client count, collecting statistics;
+            // in replay mode, the number of clients is the one of the trace
+            for (final int clients : this.trace == null ? this.clients
+                    : new int[] { this.trace.getNumClients() }) {
+                steps.add(runStep(clients, random));
+            }
+
+            // Log test completion
+            LOGGER.info("Test completed in {} ms", System.currentTimeMillis() - ts);
+
+            // Synchronize termination
+            if (this.coordinator != null) {
+                this.coordinator.broadcast("EXIT");
+            } else if (this.worker != null) {
+                this.worker.expect("EXIT");
+            }
+
+        } finally {
+            IO.closeQuietly(this.coordinator);
+            IO.closeQuietly(this.worker);
+            IO.closeQuietly(this.metrics);
+        }
+
+        // Report the throughput vs. latency curve and its knee in case of a client sweep
+        if (steps.size() > 1) {
+            final String curve = formatCurve(steps);
+            LOGGER.info("Scalability curve:\n\n{}\n", curve);
+            if (this.sweepFile != null) {
+                try (Writer sweepWriter = IO.utf8Writer(IO.buffer(IO.write(this.sweepFile
+                        .getAbsolutePath())))) {
+                    sweepWriter.write(curve);
+                }
+            }
+        }
+    }
+
+    private Statistics runStep(final int clients, final Random random) throws Throwable {
+
+        // Allocate data structure for computing statistics (possibly of multiple workers)
+        final long ts = System.currentTimeMillis();
+        final List<String> queryNames = Lists.newArrayList();
+        for (final Query query : this.queries) {
+            queryNames.add(query.getName());
+        }
+        final int totalClients = this.coordinator == null ? clients : clients * this.numWorkers;
+        final Statistics stats = new Statistics(totalClients, queryNames);
+
+        // Either drive the workers (coordinator mode) or execute the step locally
+        if (this.coordinator != null) {
+            this.coordinator.broadcast("STEP " + clients);
+            LOGGER.info("Warmup started ({} workers)", this.numWorkers);
+            this.coordinator.await("WARM");
+            LOGGER.info("Measurement started ({} workers)", this.numWorkers);
+            stats.reportElapsedTest(this.coordinator.measure(this.testTime));
+            this.coordinator.collect(stats);
+        } else {
+            executeStep(clients, random, stats);
+        }
+
+        // Log step completion, comparing observed and configured query rates if weighted
+        LOGGER.info("Completed in {} ms ({} clients)\n\n{}\n", System.currentTimeMillis() - ts,
+                totalClients, stats);
+        if (this.mixes.length > 1) {
+            LOGGER.info("Query distribution:\n\n{}\n", formatDistribution(stats));
+        }
+        for (final Query query : this.queries) {
+            if (query.getBatchSize() > 1) {
+                LOGGER.info("Batch latency:\n\n{}\n", formatBatches(stats));
+                break;
+            }
+        }
+
+        // Dump histograms, if requested, so that they can be later merged or compared
+        final File histogramsFile = stepFile(this.histogramsFile, clients);
+        if (histogramsFile != null) {
+            try (Writer histogramsWriter = IO.utf8Writer(IO.buffer(IO.write(histogramsFile
+                    .getAbsolutePath())))) {
+                stats.write(histogramsWriter);
+            }
+            LOGGER.info("Histograms written to {}", histogramsFile);
+        }
+
+        // Send histograms to the coordinator, if running as a worker
+        if (this.worker != null) {
+            this.worker.send(stats);
+        }
+        return stats;
+    }
+
+    private void executeStep(final int clients, final Random random, final Statistics stats)
+            throws Throwable {
+
+        // Open writers if possible (using a file per step in case of a client sweep)
+        final File outputFile = stepFile(this.outputFile, clients);
+        final File timeSeriesFile = stepFile(this.timeSeriesFile, clients);
+        final Writer writer = outputFile == null ? null : IO.utf8Writer(IO.buffer(IO
+                .write(outputFile.getAbsolutePath())));
+        final Writer timeSeriesWriter = timeSeriesFile == null ? null : IO.utf8Writer(IO
+                .buffer(IO.write(timeSeriesFile.getAbsolutePath())));
+
+        // Sample time series and live metrics from the start of warmup, so that the transient
+        // leading to steady state is visible; warmup statistics are collected if needed for that
+        Monitor monitor = null;
+        try {
+            // Perform warmup (if enabled), synchronizing with the coordinator in worker mode
+            if (this.worker != null) {
+                this.worker.expect("STEP " + clients);
+            }
+            final boolean monitored = clients > 0 && (timeSeriesWriter != null
+                    || this.metrics != null);
+            final Statistics warmupStats = !this.autoWarmup && !monitored ? null
+                    : new Statistics(clients, stats.queryNames);
+            if (monitored) {
+                monitor = new Monitor(warmupStats, "warmup", this.interval, timeSeriesWriter,
+                        this.metrics, clients);
+            }
+            if (share(this.warmupMixes) > 0) {
+                runClients(clients, share(this.warmupMixes), this.warmupTime, random, "Warmup",
+                        null, warmupStats, null, !this.autoWarmup ? null : new StopCondition(
+                                warmupStats, this.interval, true, this.warmupTolerance, 0.0,
+                                null));
+            }
+            if (this.worker != null) {
+                this.worker.send("WARM");
+                this.worker.expect("MEASURE");
+                this.worker.listen();
             }
 
-            // Perform the real test (if enabled)
-            if (this.clients > 0 && this.testMixes > 0) {
+            // Perform the real test (if enabled); in worker mode, the coordinator may stop it
+            // before the worker completes its share, so that all workers stop together
+            if (clients > 0 && (share(this.testMixes) > 0 || this.trace != null)) {
                 if (writer != null) {
                     for (int i = 0; i < this.outputVariables.size(); ++i) {
                         writer.write(i == 0 ? "?" : "\t?");
@@ -290,25 +714,206 @@ public final class QueryTestDriver {
                     }
                     writer.write("\n");
                 }
-                runClients(this.testMixes, this.testTime, random, "Measurement", writer, stats);
+                final ResultWriter resultWriter = writer == null ? null : new ResultWriter(
+                        writer, this.outputVariables, this.outputQueueSize);
+                final String phase = this.trace != null ? "Replay" : "Measurement";
+                if (monitor != null) {
+                    monitor.switchPhase(stats, phase.toLowerCase());
+                }
+                try {
+                    runClients(clients, this.trace != null ? Integer.MAX_VALUE
+                            : share(this.testMixes), this.testTime, random, phase,
+                            resultWriter, stats, this.trace, this.precision <= 0.0 ? null
+                                    : new StopCondition(stats, this.interval, false,
+                                            this.precision, this.confidence, this.percentiles));
+                } finally {
+                    if (resultWriter != null) {
+                        resultWriter.close();
+                    }
+                }
+            }
+            if (this.worker != null) {
+                this.worker.complete();
             }
-
-            // Log test completion
-            LOGGER.info("Test completed in {} ms\n\n{}\n", System.currentTimeMillis() - ts, stats);
 
         } finally {
-            // Close TSV file
+            // Stop sampling and close TSV files
+            IO.closeQuietly(monitor);
             IO.closeQuietly(writer);
+            IO.closeQuietly(timeSeriesWriter);
         }
     }
 
-    private void runClients(final int maxMixes, final long maxTime, final Random random,
-            final String phaseName, @Nullable final Writer writer, @Nullable final Statistics stats)
-            throws Throwable {
+    private String formatCurve(final List<Statistics> steps) {
+
+        // Locate the knee, then emit a TSV table with a row for each step
+        final int knee = findKnee(steps, this.kneeGain);
+        final StringBuilder builder = new StringBuilder();
+        builder.append("?clients\t?mixes\t?throughput\t?mean\t?p50\t?p90\t?p99\t?knee\n");
+        for (int i = 0; i < steps.size(); ++i) {
+            final Statistics step = steps.get(i);
+            final Histogram time = step.getMixTime();
+            builder.append(String.format("%d\t%d\t%.2f\t%.1f\t%d\t%d\t%d\t%s\n",
+                    step.getClients(), time.getCount(), step.getMixThroughput(), time.getMean(),
+                    time.getPercentile(50), time.getPercentile(90), time.getPercentile(99),
+                    i == knee ? "true" : "false"));
+        }
+        if (knee >= 0) {
+            LOGGER.info("Saturation knee at {} clients ({} mix/s)", steps.get(knee)
+                    .getClients(), String.format("%.2f", steps.get(knee).getMixThroughput()));
+        } else {
+            LOGGER.info("No saturation knee detected");
+        }
+        return builder.toString();
+    }
+
+    static int findKnee(final List<Statistics> steps, final double kneeGain) {
+        // The knee is the last step before one where throughput gain falls below the given
+        // fraction of the relative client increase, while p99 mix time increases (client counts
+        // increase, as checked by parseClients(); steps that do not are skipped)
+        for (int i = 1; i < steps.size(); ++i) {
+            final Statistics prev = steps.get(i - 1);
+            final Statistics curr = steps.get(i);
+            final double clientGain = (double) curr.getClients() / prev.getClients() - 1.0;
+            final double throughputGain = curr.getMixThroughput() / prev.getMixThroughput() - 1.0;
+            if (clientGain > 0.0 && throughputGain < kneeGain * clientGain
+                    && curr.getMixTime().getPercentile(99) > prev.getMixTime().getPercentile(99)) {
+                return i - 1;
+            }
+        }
+        return -1;
+    }
+
+    private String formatDistribution(final Statistics stats) {
+
+        // Compute the expected number of executions of each query per mix, based on weights
+        final Map<String, Double> expected = Maps.newLinkedHashMap();
+        for (final Query query : this.queries) {
+            expected.put(query.getName(), 0.0);
+        }
+        double lastWeight = 0.0;
+        for (int i = 0; i < this.mixes.length; ++i) {
+            final double probability = this.mixWeights[i] - lastWeight;
+            lastWeight = this.mixWeights[i];
+            for (final Query query : this.mixes[i].getQueries()) {
+                expected.put(query.getName(), expected.get(query.getName()) + probability);
+            }
+        }
+
+        // Emit a table comparing expected and observed executions per mix and rates
+        final Statistics.Recorder merged = stats.merge();
+        final long numMixes = merged.queryMixTime.getCount();
+        final double elapsed = stats.getElapsedTime() / 1000.0;
+        final StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-12s%12s%12s%12s%12s\n", "", "Expected", "Observed",
+                "Total", "/Sec"));
+        for (final Map.Entry<String, Double> entry : expected.entrySet()) {
+            final long count = merged.queryInfos.get(entry.getKey()).time.getCount();
+            builder.append(String.format("%-12s%12.4f%12.4f%12d%12.2f\n", entry.getKey(),
+                    entry.getValue(), numMixes == 0 ? 0.0 : (double) count / numMixes, count,
+                    elapsed <= 0.0 ? 0.0 : count / elapsed));
+        }
+        return builder.toString();
+    }
+
+    private String formatBatches(final Statistics stats) {
+
+        // Emit a table comparing the latency of batch queries with the one amortized per id
+        final Statistics.Recorder merged = stats.merge();
+        final StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-12s%8s%8s%-32s%-32s\n", "", "", "",
+                "     Batch time [ms]", "     Time per id [ms]"));
+        builder.append(String.format("%-12s%8s%8s%8s%8s%8s%8s%8s%8s%8s%8s\n", "", "Batch",
+                "Calls", "P50", "P90", "P99", "Mean", "P50", "P90", "P99", "Mean"));
+        for (final Query query : this.queries) {
+            final int size = query.getBatchSize();
+            if (size > 1) {
+                final Histogram time = merged.queryInfos.get(query.getName()).time;
+                builder.append(String.format("%-12s%8d%8d", query.getName(), size,
+                        time.getCount()));
+                builder.append(String.format("%8d%8d%8d%8.1f", time.getPercentile(50),
+                        time.getPercentile(90), time.getPercentile(99), time.getMean()));
+                builder.append(String.format("%8.2f%8.2f%8.2f%8.2f\n",
+                        (double) time.getPercentile(50) / size, (double) time.getPercentile(90)
+                                / size, (double) time.getPercentile(99) / size, time.getMean()
+                                / size));
+            }
+        }
+        return builder.toString();
+    }
+
+    @Nullable
+    private File stepFile(@Nullable final File file, final int clients) {
+        // Add a .c<clients> suffix in case of sweep, and a .w<worker> suffix if worker
+        final String suffix = (this.clients.length == 1 ? "" : ".c" + clients)
+                + (this.worker == null ? "" : ".w" + this.worker.getId());
+        if (file == null || suffix.isEmpty()) {
+            return file;
+        }
+        final String name = file.getName();
+        final int index = name.indexOf('.');
+        return new File(file.getParentFile(), index < 0 ? name + suffix : name.substring(0,
+                index) + suffix + name.substring(index));
+    }
+
+    private int share(final int mixes) {
+        // Workers run an equal share of the configured number of mixes (unless unbounded)
+        if (this.worker == null || mixes == Integer.MAX_VALUE) {
+            return mixes;
+        }
+        return mixes / this.numWorkers + (this.worker.getId() < mixes % this.numWorkers ? 1 : 0);
+    }
+
+    private double rate() {
+        // Workers issue an equal share of the configured open-loop rate
+        return this.worker == null ? this.rate : this.rate / this.numWorkers;
+    }
+
+    private long seed() {
+        // Workers derive distinct seeds, so not to replay the same sequence of inputs
+        return this.seed + (this.worker == null ? 0 : 1000003L * this.worker.getId());
+    }
+
+    static int[] parseClients(final String string) {
+        // Accepts a list 'n1,n2,...', a linear range 'from-to+step' or a geometric range
+        // 'from-to*factor' (all bounds included), or combinations thereof; counts must
+        // increase, as the knee of the scalability curve is located along them
+        final List<Integer> clients = Lists.newArrayList();
+        for (final String token : Splitter.on(',').trimResults().omitEmptyStrings()
+                .split(string)) {
+            final Matcher matcher = Pattern.compile("(\\d+)(?:-(\\d+)([+*])(\\d+))?")
+                    .matcher(token);
+            Preconditions.checkArgument(matcher.matches(), "Invalid client count " + token);
+            final int from = Integer.parseInt(matcher.group(1));
+            if (matcher.group(2) == null) {
+                clients.add(from);
+            } else {
+                final int to = Integer.parseInt(matcher.group(2));
+                final boolean linear = "+".equals(matcher.group(3));
+                final int step = Integer.parseInt(matcher.group(4));
+                Preconditions.checkArgument(from > 0 && (linear ? step > 0 : step > 1),
+                        "Invalid client range " + token);
+                for (int n = from; n <= to; n = linear ? n + step : n * step) {
+                    clients.add(n);
+                }
+            }
+        }
+        Preconditions.checkArgument(!clients.isEmpty(), "No client count specified");
+        for (int i = 1; i < clients.size(); ++i) {
+            Preconditions.checkArgument(clients.get(i) > clients.get(i - 1),
+                    "Client counts must increase: " + string);
+        }
+        return Ints.toArray(clients);
+    }
+
+    private void runClients(final int clients, final int maxMixes, final long maxTime,
+            final Random random, final String phaseName, @Nullable final ResultWriter writer,
+            @Nullable final Statistics stats, @Nullable final Trace trace,
+            @Nullable final StopCondition stopCondition) throws Throwable {
 
         // Log start
-        LOGGER.info("{} started ({} clients, {} mix(es), {} queries/mix)", phaseName,
-                this.clients, maxMixes, this.queries.length);
+        LOGGER.info("{} started ({} clients, {} mix(es), {} queries/mix)", phaseName, clients,
+                maxMixes, this.queries.length);
 
         // Create a Tracker to track the progress of the process
         final Tracker tracker = new Tracker(LOGGER, null,
@@ -319,16 +924,35 @@ public final class QueryTestDriver {
         // Start a thread for each concurrent client
         final AtomicReference<Throwable> exceptionHolder = new AtomicReference<>();
         final Thread mainThread = Thread.currentThread();
-        final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
-                .setDaemon(true).setNameFormat("client-%02d").build());
+        final ExecutorService executor = this.virtual ? newVirtualThreadExecutor() : Executors
+                .newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("client-%02d").build());
+        final Pool[] pools = newPools(clients);
+        final ExecutorService queryExecutor = !isConcurrent() ? null : this.virtual
+                ? newVirtualThreadExecutor() : Executors.newCachedThreadPool(
+                        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("query-%02d")
+                                .build());
+        final ExecutorService mixExecutor = this.rate <= 0.0 || trace != null ? null
+                : this.virtual ? newVirtualThreadExecutor() : Executors.newCachedThreadPool(
+                        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("mix-%02d")
+                                .build());
         final AtomicLong startTimestamp = new AtomicLong(Long.MAX_VALUE);
         final AtomicLong endTimestamp = new AtomicLong(Long.MIN_VALUE);
-        final long[] clientExecutionTimes = new long[this.clients];
-        final int[] clientMixes = new int[this.clients];
+        final long[] clientExecutionTimes = new long[clients];
+        final int[] clientMixes = new int[clients];
+        final long traceOrigin = System.currentTimeMillis(); // common to all replaying clients
+        final JvmProbe probe = this.jvm ? new JvmProbe() : null;
         try {
             final AtomicInteger globalMixCounter = new AtomicInteger(maxMixes);
-            for (int i = 0; i < this.clients; ++i) {
+            if (stopCondition != null) {
+                stopCondition.start(globalMixCounter);
+            }
+            if (this.worker != null) {
+                this.worker.stopOnSignal(globalMixCounter);
+            }
+            for (int i = 0; i < clients; ++i) {
                 final int clientId = i;
+                final Random clientRandom = new Random(random.nextLong()); // per client & phase
                 executor.submit(new Runnable() {
 
                     @Override
@@ -337,15 +961,19 @@ public final class QueryTestDriver {
                         try {
                             MDC.put(MDC_CONTEXT, String.format("client%d", clientId));
                             final AtomicInteger localMixCounter = new AtomicInteger(0);
-                            final long startTs = System.currentTimeMillis();
+                            final long startTs = trace != null ? traceOrigin : System
+                                    .currentTimeMillis();
                             synchronized (startTimestamp) {
                                 if (startTs < startTimestamp.get()) {
                                     startTimestamp.set(startTs);
                                 }
                             }
-                            final long endTs = runClient(clientId, globalMixCounter,
-                                    localMixCounter, maxTime, random, tracker, startTs, writer,
-                                    stats);
+                            final long endTs = runClient(clientId, clients,
+                                    pools[clientId / pools[0].getGroupSize()],
+                                    globalMixCounter, localMixCounter, maxTime, clientRandom,
+                                    tracker, startTs, writer, stats, trace == null ? null
+                                            : trace.getEntries(clientId), probe, queryExecutor,
+                                    mixExecutor);
                             clientExecutionTimes[clientId] = endTs - startTs;
                             clientMixes[clientId] = localMixCounter.get();
                             synchronized (endTimestamp) {
@@ -376,7 +1004,17 @@ public final class QueryTestDriver {
 
         } finally {
             executor.shutdownNow();
+            if (queryExecutor != null) {
+                queryExecutor.shutdownNow();
+            }
+            if (mixExecutor != null) {
+                mixExecutor.shutdownNow();
+            }
             tracker.end();
+            for (final Pool pool : pools) {
+                IO.closeQuietly(pool);
+            }
+            IO.closeQuietly(stopCondition);
         }
 
         // Report exception, if any
@@ -394,100 +1032,166 @@ public final class QueryTestDriver {
         LOGGER.info("{} completed in {} ms (client time: {}-{} ms; client mixes: {}-{})",
                 phaseName, elapsed, Longs.min(clientExecutionTimes),
                 Longs.max(clientExecutionTimes), Ints.min(clientMixes), Ints.max(clientMixes));
+        if (probe != null) {
+            LOGGER.info("{} driver overhead: {}", phaseName, probe.summary(elapsed,
+                    this.excludeGc && stats != null));
+        }
     }
 
-    private long runClient(final int clientId, final AtomicInteger globalMixCounter,
+    private long runClient(final int clientId, final int clients,
+            final Pool pool, final AtomicInteger globalMixCounter,
             final AtomicInteger localMixCounter, final long maxTime, final Random random,
             @Nullable final Tracker tracker, final long startTimestamp,
-            @Nullable final Writer writer, @Nullable final Statistics stats) throws IOException {
+            @Nullable final ResultWriter writer, @Nullable final Statistics stats,
+            @Nullable final List<Trace.Entry> replay, @Nullable final JvmProbe probe,
+            @Nullable final ExecutorService queryExecutor,
+            @Nullable final ExecutorService mixExecutor) throws IOException,
+            InterruptedException {
 
         // Log start
         LOGGER.debug("Client started");
 
-        // Initialize a client and open a session with the SUT
+        // Allocate client-local recorders for statistics (merged at the end of the test): a
+        // single one, unless mixes overlap in open-loop mode, where each in-flight mix takes
+        // a recorder not used by other mixes, as recorders are not thread safe
+        final Queue<Statistics.Recorder> recorders = new ConcurrentLinkedQueue<>();
+        if (stats != null) {
+            recorders.add(stats.newRecorder());
+        }
+
+        // In open-loop mode, each client issues its share of the rate following an arrival
+        // schedule that does not depend on query completion (avoids coordinated omission);
+        // mixes are run by separate tasks, so that late arrivals do not wait for previous mixes.
+        // Arrivals and mix choices use generators derived from the one of the client, so that
+        // like inputs they are seeded per client and phase
+        final double interval = this.rate <= 0.0 ? 0.0 : 1000.0 * clients / rate();
+        final Random arrivals = new Random(random.nextLong());
+        final Random mixRandom = new Random(random.nextLong());
+        double arrival = startTimestamp + (this.poisson ? nextArrival(arrivals, interval) //
+                : interval * clientId / clients);
+        final List<Future<Long>> pendingMixes = Lists.newArrayList();
+
+        // Open a session with the SUT using the (possibly shared) client of the pool
         long timestamp = startTimestamp;
-        try (Client client = Client.builder(this.url).compressionEnabled(true)
-                .validateServer(false).build()) {
-            try (final Session session = client.newSession(this.username, this.password)) {
+        long endTimestamp = startTimestamp;
+        try (final Session session = pool.getClient().newSession(this.username,
+                this.password)) {
 
-                // Log connection acquired
-                LOGGER.debug("Client ready");
+            // Log connection acquired
+            LOGGER.debug("Client ready");
 
-                // Perform as many query mixes as requested
-                final String clientContext = MDC.get(MDC_CONTEXT);
-                try {
-                    while (globalMixCounter.getAndDecrement() > 0
-                            && timestamp < startTimestamp + maxTime) {
-                        // Update MDC context
-                        final int mixIndex = localMixCounter.incrementAndGet();
-                        final String mixContext = String.format("%s.mix%d", clientContext,
-                                mixIndex);
-                        MDC.put(MDC_CONTEXT, mixContext);
-
-                        // Pick up a random input tuple
-                        final int index;
-                        synchronized (random) {
-                            index = random.nextInt(this.inputData.length);
-                        }
-                        final String inputLine = new String(this.inputData[index], Charsets.UTF_8);
-                        final BindingSet input = decode(this.inputVariables, inputLine);
+            // Perform as many query mixes as requested
+            final String clientContext = MDC.get(MDC_CONTEXT);
+            try {
+                while ((replay == null || localMixCounter.get() < replay.size())
+                        && globalMixCounter.getAndDecrement() > 0
+                        && timestamp < startTimestamp + maxTime
+                        && (interval == 0.0 || arrival < startTimestamp + maxTime)) {
+                    // Update MDC context
+                    final int mixIndex = localMixCounter.incrementAndGet();
+                    final String mixContext = String.format("%s.mix%d", clientContext,
+                            mixIndex);
+                    MDC.put(MDC_CONTEXT, mixContext);
+
+                    // Pick up the input tuple from the trace (replay mode) or the sampler
+                    final Trace.Entry entry = replay == null ? null : replay
+                            .get(mixIndex - 1);
+                    final int index;
+                    final BindingSet input;
+                    if (entry != null) {
+                        index = entry.getInput();
+                        input = entry.getBindings();
+                    } else {
+                        index = this.sampler.next(random, this.worker == null ? 0
+                                : this.worker.getId());
+                        input = this.inputData.get(index);
+                    }
 
-                        // Start building the output tuple adding data identifying this mix
-                        final ValueFactory vf = Statements.VALUE_FACTORY;
-                        final MapBindingSet output = new MapBindingSet();
-                        final long mixStartTimestamp = timestamp;
-                        output.addBinding("mix.client", vf.createLiteral(clientId));
-                        output.addBinding("mix.index", vf.createLiteral(mixIndex));
-                        output.addBinding("mix.input", vf.createLiteral(index));
-                        output.addBinding("mix.start", vf.createLiteral(mixStartTimestamp));
-
-                        // Log beginning of query mix
-                        LOGGER.debug("Started for input #{}", index);
-
-                        // Evaluate the queries of the mix, augmenting the output tuple
-                        for (final Query query : this.queries) {
-                            try {
-                                MDC.put(MDC_CONTEXT,
-                                        String.format("%s.%s", mixContext, query.getName()));
-                                final MapBindingSet queryOutput = new MapBindingSet();
-                                timestamp = query.evaluate(session, timestamp, input, queryOutput,
-                                        stats);
-                                for (final Binding binding : queryOutput) {
-                                    output.addBinding(query.getName() + "." + binding.getName(),
-                                            binding.getValue());
-                                }
-                            } finally {
-                                MDC.put(MDC_CONTEXT, mixContext);
-                            }
+                    // In open-loop and replay modes, wait for the intended start time of the
+                    // mix (if not late) and measure the times of the mix and of its first
+                    // queries starting from it, so that they include any queueing delay; in
+                    // closed-loop mode, the mix starts now, so that the time spent emitting
+                    // the output of the previous mix is not measured
+                    long mixStartTimestamp;
+                    if (interval == 0.0 && entry == null) {
+                        timestamp = System.currentTimeMillis();
+                        mixStartTimestamp = timestamp;
+                    } else {
+                        mixStartTimestamp = entry != null ? startTimestamp
+                                + entry.getOffset() : (long) arrival;
+                        final long now = System.currentTimeMillis();
+                        if (now < mixStartTimestamp) {
+                            Thread.sleep(mixStartTimestamp - now);
                         }
-                        final long elapsed = timestamp - mixStartTimestamp;
-
-                        // Log completion of query mix
-                        LOGGER.debug("Completed in {} ms", elapsed);
-                        if (tracker != null) {
-                            tracker.increment();
+                        timestamp = System.currentTimeMillis();
+                        if (entry == null) {
+                            arrival += this.poisson ? nextArrival(arrivals, interval)
+                                    : interval;
                         }
+                    }
 
-                        // Store query mix time and update associated statistics, if supplied
-                        output.addBinding("mix.time", vf.createLiteral(elapsed));
-                        if (stats != null) {
-                            stats.reportQueryMixCompletion(elapsed);
+                    // Pick up the queries to evaluate in this mix, and the generator for their
+                    // batches and random data: it is derived here, as overlapping mixes would
+                    // otherwise draw from the client generator in an order depending on timing
+                    final Mix mix = entry != null || this.mixes.length == 1 ? this.mixes[0]
+                            : this.mixes[sample(this.mixWeights, mixRandom.nextDouble())];
+                    final Random queryRandom = new Random(random.nextLong());
+
+                    // Run the mix, either here or in a separate task if mixes may overlap
+                    if (mixExecutor == null) {
+                        timestamp = runMix(clientId, mixIndex, mixContext, mix, entry, index,
+                                input, mixStartTimestamp, timestamp, interval > 0.0, session,
+                                pool, queryRandom, recorders.peek(), probe, queryExecutor, tracker,
+                                writer);
+                        endTimestamp = timestamp;
+                    } else {
+                        for (final Iterator<Future<Long>> i = pendingMixes.iterator(); i
+                                .hasNext();) {
+                            final Future<Long> future = i.next();
+                            if (future.isDone()) {
+                                endTimestamp = Math.max(endTimestamp, getMixResult(future));
+                                i.remove();
+                            }
                         }
+                        final long mixTimestamp = timestamp;
+                        final long intendedTimestamp = mixStartTimestamp;
+                        pendingMixes.add(mixExecutor.submit(new Callable<Long>() {
 
-                        // Emit the output tuple if a Writer has been supplied
-                        if (writer != null) {
-                            LOGGER.trace("Emitting:\n{}",
-                                    format(this.outputVariables, output, "\n"));
-                            final String outputLine = encode(this.outputVariables, output);
-                            synchronized (writer) {
-                                writer.write(outputLine);
-                                writer.write("\n");
+                            @Override
+                            public Long call() throws Exception {
+                                MDC.put(MDC_CONTEXT, mixContext);
+                                Statistics.Recorder recorder = recorders.poll();
+                                if (recorder == null && stats != null) {
+                                    recorder = stats.newRecorder();
+                                }
+                                try {
+                                    return runMix(clientId, mixIndex, mixContext, mix, entry,
+                                            index, input, intendedTimestamp, mixTimestamp, true,
+                                            session, pool, queryRandom, recorder, probe,
+                                            queryExecutor, tracker, writer);
+                                } finally {
+                                    if (recorder != null) {
+                                        recorders.add(recorder);
+                                    }
+                                    MDC.remove(MDC_CONTEXT);
+                                }
                             }
-                        }
+
+                        }));
                     }
-                } finally {
-                    MDC.put(MDC_CONTEXT, clientContext);
                 }
+
+                // Wait for the completion of mixes still in flight (open-loop mode)
+                for (final Future<Long> future : pendingMixes) {
+                    endTimestamp = Math.max(endTimestamp, getMixResult(future));
+                }
+                pendingMixes.clear();
+
+            } finally {
+                for (final Future<Long> future : pendingMixes) {
+                    future.cancel(true);
+                }
+                MDC.put(MDC_CONTEXT, clientContext);
             }
         }
 
@@ -495,798 +1199,564 @@ public final class QueryTestDriver {
         LOGGER.debug("Client terminated ({} query mixes)", localMixCounter.get());
 
         // Return end timestamp of last executed query
-        return timestamp;
+        return endTimestamp;
     }
 
-    private static BindingSet decode(final List<String> variables, final String line) {
-        final String[] tokens = line.split("\t");
-        Preconditions.checkArgument(tokens.length == variables.size(), "Wrong number of values ("
-                + tokens.length + " found, " + variables.size() + " expected) in line: " + line);
-        try {
-            final MapBindingSet bindings = new MapBindingSet();
-            for (int i = 0; i < tokens.length; ++i) {
-                String token = tokens[i];
-                if (!Strings.isNullOrEmpty(token)) {
-                    final char ch = token.charAt(0);
-                    token = ch == '\'' || ch == '"' || ch == '<' || ch == '_' ? token : "\""
-                            + token + "\"";
-                    final Value value = Statements.parseValue(token, Namespaces.DEFAULT);
-                    bindings.addBinding(variables.get(i), value);
+    private long runMix(final int clientId, final int mixIndex, final String mixContext,
+            final Mix mix, @Nullable final Trace.Entry entry, final int index,
+            final BindingSet input, final long mixStartTimestamp, final long startTimestamp,
+            final boolean openLoop, final Session session, final Pool pool,
+            final Random random, @Nullable final Statistics.Recorder recorder,
+            @Nullable final JvmProbe probe, @Nullable final ExecutorService queryExecutor,
+            @Nullable final Tracker tracker, @Nullable final ResultWriter writer)
+            throws IOException, InterruptedException {
+
+        // If mixes overlapping driver GC pauses are excluded, query completions are reported at
+        // the end of the mix (once known whether a pause occurred) rather than by evaluate()
+        final boolean deferred = recorder != null && probe != null && this.excludeGc;
+
+        // Start building the output tuple adding data identifying this mix
+        final ValueFactory vf = Statements.VALUE_FACTORY;
+        final MapBindingSet output = new MapBindingSet();
+        output.addBinding("mix.client", vf.createLiteral(clientId));
+        output.addBinding("mix.index", vf.createLiteral(mixIndex));
+        output.addBinding("mix.input", vf.createLiteral(index));
+        output.addBinding("mix.start", vf.createLiteral(mixStartTimestamp));
+        output.addBinding("mix.delay", vf.createLiteral(startTimestamp - mixStartTimestamp));
+        if (isMixNamed()) {
+            output.addBinding("mix.name", vf.createLiteral(mix.getName()));
+        }
+
+        // Log beginning of query mix
+        LOGGER.debug("Started for input #{}", index);
+
+        // Evaluate the queries of the mix, augmenting the output tuple; think times follow
+        // each query (except the last one in open-loop mode, where the arrival schedule already
+        // spaces mixes) and are not part of mix time
+        final Query[] queries = entry != null ? entry.getQueries() : mix.getQueries();
+        final MapBindingSet[] queryOutputs = new MapBindingSet[queries.length];
+        final long[] mixOverhead = probe == null ? null : new long[4];
+        final boolean concurrent = entry == null && mix.isConcurrent();
+        final boolean deferMix = deferred || concurrent && recorder != null;
+        long timestamp = startTimestamp;
+        final long elapsed;
+        if (concurrent) {
+            // Evaluate queries as soon as the ones they depend on complete; mix time is the
+            // time of the critical path, starting from the intended start of the mix. Inputs
+            // and per-query generators are drawn upfront, so that they do not depend on timing
+            final List<List<BindingSet>> inputs = Lists.newArrayList();
+            final List<Random> randoms = Lists.newArrayList();
+            for (final Query query : queries) {
+                inputs.add(sampleBatch(query, input, null, random, output));
+                randoms.add(new Random(random.nextLong()));
+            }
+            elapsed = evaluateConcurrently(queryExecutor, session, pool, mix, inputs, randoms,
+                    index, mixStartTimestamp, recorder, probe, mixOverhead, queryOutputs,
+                    mixContext, output);
+            timestamp = System.currentTimeMillis();
+            for (int i = 0; i < queries.length; ++i) {
+                for (final Binding binding : queryOutputs[i]) {
+                    output.addBinding(queries[i].getName() + "." + binding.getName(),
+                            binding.getValue());
                 }
             }
-            return bindings;
-        } catch (final Throwable ex) {
-            throw new IllegalArgumentException("Could not parse variable values.\nVariables: "
-                    + variables + "\nLine: " + line, ex);
+        } else {
+            long thinkTime = 0L;
+            for (int i = 0; i < queries.length; ++i) {
+                final Query query = queries[i];
+                if (entry != null) {
+                    // replay the recorded time between queries, if not late
+                    final long issueTimestamp = mixStartTimestamp + entry.getQueryOffsets()[i];
+                    final long now = System.currentTimeMillis();
+                    if (now < issueTimestamp) {
+                        Thread.sleep(issueTimestamp - now);
+                        thinkTime += System.currentTimeMillis() - timestamp;
+                        timestamp = System.currentTimeMillis();
+                    }
+                }
+                try {
+                    MDC.put(MDC_CONTEXT, String.format("%s.%s", mixContext, query.getName()));
+                    final MapBindingSet queryOutput = new MapBindingSet();
+                    final long[] sample = probe == null ? null : probe.sample();
+                    if (deferred) {
+                        recorder.reportQueryStart(query.getName());
+                    }
+                    final List<BindingSet> queryInputs = sampleBatch(query, bind(query,
+                            input, queries, queryOutputs), entry == null ? null : entry
+                            .getQueryBatches()[i], random, output);
+                    // Wait for a pool connection; waiting is part of query time, as is the
+                    // delay of the mix w.r.t. its intended start for the first query
+                    final long queryTimestamp = i == 0 ? mixStartTimestamp : timestamp;
+                    final int connection = pool.acquire(recorder);
+                    try {
+                        timestamp = query.evaluate(session, queryTimestamp, queryInputs,
+                                queryOutput, random, deferred ? null : recorder, goldenHash(
+                                        query, index));
+                    } finally {
+                        pool.release(connection);
+                    }
+                    if (probe != null) {
+                        probe.bind(probe.measure(sample, mixOverhead), "", queryOutput);
+                    }
+                    queryOutputs[i] = queryOutput;
+                    for (final Binding binding : queryOutput) {
+                        output.addBinding(query.getName() + "." + binding.getName(),
+                                binding.getValue());
+                    }
+                } finally {
+                    MDC.put(MDC_CONTEXT, mixContext);
+                }
+                if (query.getThinkTime() > 0 && entry == null
+                        && (i < queries.length - 1 || !openLoop)) {
+                    Thread.sleep(query.getThinkTime());
+                    final long now = System.currentTimeMillis();
+                    thinkTime += now - timestamp;
+                    timestamp = now;
+                }
+            }
+            elapsed = timestamp - mixStartTimestamp - thinkTime;
         }
-    }
 
-    private static String encode(final List<String> variables, final BindingSet bindings) {
-        final StringBuilder builder = new StringBuilder();
-        for (int i = 0; i < variables.size(); ++i) {
-            if (i > 0) {
-                builder.append('\t');
+        // Log completion of query mix
+        LOGGER.debug("Completed in {} ms", elapsed);
+        if (tracker != null) {
+            tracker.increment();
+        }
+
+        // Store query mix time and update associated statistics, if supplied
+        output.addBinding("mix.time", vf.createLiteral(elapsed));
+        final boolean excluded = probe != null && probe.reportMix(mixOverhead, output)
+                && this.excludeGc;
+        if (deferMix) {
+            for (int i = 0; i < queries.length; ++i) {
+                if (excluded) {
+                    recorder.reportQueryDiscard(queries[i].getName());
+                } else {
+                    queries[i].report(recorder, queryOutputs[i]);
+                }
             }
-            final Value value = bindings.getValue(variables.get(i));
-            builder.append(format(value));
         }
-        return builder.toString();
+        if (recorder != null && !excluded) {
+            recorder.reportQueryMixCompletion(elapsed);
+        }
+
+        // Emit the output tuple if a ResultWriter has been supplied
+        if (writer != null) {
+            writer.emit(output);
+        }
+        return timestamp;
     }
 
-    private static String format(final Iterable<String> variables, final BindingSet bindings,
-            final String separator) {
-        final StringBuilder builder = new StringBuilder();
-        for (final String variable : variables) {
-            final Value value = bindings.getValue(variable);
-            if (value != null) {
-                builder.append(builder.length() == 0 ? "" : separator);
-                builder.append(variable);
-                builder.append('=');
-                builder.append(format(value));
-            }
+    private static long getMixResult(final Future<Long> future) throws IOException,
+            InterruptedException {
+        // Return the end timestamp of a mix run in a separate task, rethrowing its failure
+        try {
+            return future.get();
+        } catch (final ExecutionException ex) {
+            Throwables.propagateIfPossible(ex.getCause(), IOException.class,
+                    InterruptedException.class);
+            throw new RuntimeException(ex.getCause());
         }
-        return builder.toString();
     }
 
-    private static String format(final Value value) {
-        // Emit literal without lang / datatype for easier consumption in analysis tools
-        if (value instanceof Resource) {
-            return Statements.formatValue(value, null);
-        } else if (value != null) {
-            return value.stringValue();
-        } else {
-            return "";
-        }
-    }
-
-    private static <T> T read(final Properties properties, final String name, final Class<T> type) {
-        final T value = read(properties, name, type, null);
-        if (value == null) {
-            throw new IllegalArgumentException("No value for mandatory property '" + name + "'");
-        }
-        return value;
-    }
-
-    private static <T> T read(final Properties properties, final String name, final Class<T> type,
-            final T defaultValue) {
-        final String value = properties.getProperty(name);
-        if (value == null) {
-            return defaultValue;
-        }
-        try {
-            return Data.convert(value, type);
-        } catch (final Throwable ex) {
-            throw new IllegalArgumentException("Invalid value for property '" + name + "': "
-                    + value + " (" + ex.getMessage() + ")");
-        }
-    }
-
-    // TODO: remove this hack and use 'uri' as it is
-    private static URI normalizeLayerURI(final URI uri) {
-        if (KS.RESOURCE.equals(uri)) {
-            return KS.RESOURCE;
-        } else if (KS.MENTION.equals(uri)) {
-            return KS.MENTION;
-        } else {
-            return uri;
-        }
-    }
-
-    private static abstract class Query {
-
-        private static final Logger LOGGER = LoggerFactory.getLogger(Query.class);
-
-        private final String name;
-
-        private final Long timeout;
-
-        private final Set<String> inputVariables;
-
-        private final Set<String> outputVariables;
-
-        Query(final String name, final Properties properties,
-                final Iterable<String> inputVariables, final Iterable<String> outputVariables) {
-
-            final String timeout = properties.getProperty("timeout");
-
-            this.name = name;
-            this.timeout = timeout != null ? Long.parseLong(timeout) : null;
-            this.inputVariables = ImmutableSet.copyOf(inputVariables);
-            this.outputVariables = ImmutableSet.copyOf(Iterables.concat( //
-                    ImmutableSet.of("start", "time", "error"), outputVariables));
-        }
-
-        public static List<Query> create(final Properties properties,
-                final Properties defaultQueryProperties) {
-
-            final Map<String, Properties> map = Maps.newLinkedHashMap();
-            for (final Object key : properties.keySet()) {
-                final String keyString = key.toString();
-                final int index = keyString.indexOf(".");
-                if (index > 0) {
-                    final String queryName = keyString.substring(0, index);
-                    final String propertyName = keyString.substring(index + 1);
-                    final String propertyValue = properties.getProperty(keyString);
-                    Properties queryProperties = map.get(queryName);
-                    if (queryProperties == null) {
-                        queryProperties = new Properties();
-                        queryProperties.putAll(defaultQueryProperties);
-                        map.put(queryName, queryProperties);
+    private long evaluateConcurrently(final ExecutorService executor, final Session session,
+            final Pool pool, final Mix mix, final List<List<BindingSet>> inputs,
+            final List<Random> randoms, final int index, final long origin,
+            @Nullable final Statistics.Recorder recorder, @Nullable final JvmProbe probe,
+            @Nullable final long[] mixOverhead, final MapBindingSet[] outputs,
+            final String mixContext, final MapBindingSet mixOutput) throws InterruptedException {
+
+        // Each query is submitted once the queries it depends on complete, by the last of them;
+        // its critical path time is its time plus the maximum one of these queries; queries with
+        // no dependencies start at the supplied origin (the intended start of the mix), while
+        // think times delay dependent queries only and are not part of critical path times.
+        // Statistics are reported by the caller, as the recorder is not thread safe (query
+        // start excluded). As in sequential mixes, a failure is recorded as a query error and
+        // dependent queries still run, so that every task completes before returning
+        final Query[] queries = mix.getQueries();
+        final AtomicInteger[] pending = new AtomicInteger[queries.length];
+        final long[] paths = new long[queries.length];
+        final int[] critical = new int[queries.length];
+        final CountDownLatch latch = new CountDownLatch(queries.length);
+        final List<Future<?>> futures = new CopyOnWriteArrayList<>();
+        final AtomicBoolean cancelled = new AtomicBoolean(false); // no more submissions if set
+        final Runnable[] tasks = new Runnable[queries.length];
+        for (int i = 0; i < queries.length; ++i) {
+            final int q = i;
+            pending[q] = new AtomicInteger(mix.getPredecessors(q).length);
+            tasks[q] = new Runnable() {
+
+                @Override
+                public void run() {
+                    final Query query = queries[q];
+                    MDC.put(MDC_CONTEXT, String.format("%s.%s", mixContext, query.getName()));
+                    long path = 0L;
+                    critical[q] = -1;
+                    for (final int p : mix.getPredecessors(q)) {
+                        if (critical[q] < 0 || paths[p] > path) {
+                            path = paths[p];
+                            critical[q] = p;
+                        }
+                    }
+                    if (recorder != null) {
+                        recorder.reportQueryStart(query.getName());
+                    }
+                    final long issue = System.currentTimeMillis();
+                    final long start = mix.getPredecessors(q).length == 0 ? Math.min(origin,
+                            issue) : issue;
+                    try {
+                        final List<BindingSet> queryInputs = Lists.newArrayList(inputs.get(q));
+                        queryInputs.set(0, bind(query, queryInputs.get(0), queries, outputs));
+                        final MapBindingSet output = new MapBindingSet();
+                        final long[] sample = probe == null ? null : probe.sample();
+                        final int connection = pool.acquire(recorder);
+                        final long end;
+                        try {
+                            end = query.evaluate(session, start, queryInputs, output,
+                                    randoms.get(q), null, goldenHash(query, index));
+                        } finally {
+                            pool.release(connection);
+                        }
+                        if (probe != null) {
+                            probe.bind(probe.measure(sample, mixOverhead), "", output);
+                        }
+                        outputs[q] = output;
+                        paths[q] = path + end - start;
+                        if (query.getThinkTime() > 0 && mix.getSuccessors(q).length > 0) {
+                            Thread.sleep(query.getThinkTime());
+                        }
+                    } catch (final InterruptedException ex) {
+                        // Mix cancelled or client stopped: keep the interrupt, submit nothing
+                        cancelled.set(true);
+                        Thread.currentThread().interrupt();
+                        recordFailure(q, path, start, ex);
+                    } catch (final Throwable ex) {
+                        // Record a failure outside evaluate() as evaluate() does (if no output)
+                        LOGGER.warn("Got exception", ex);
+                        recordFailure(q, path, start, ex);
+                    } finally {
+                        try {
+                            for (final int s : mix.getSuccessors(q)) {
+                                if (pending[s].decrementAndGet() == 0 && !cancelled.get()) {
+                                    final Future<?> future = executor.submit(tasks[s]);
+                                    futures.add(future);
+                                    if (cancelled.get()) {
+                                        future.cancel(true); // cancelled while submitting
+                                    }
+                                }
+                            }
+                        } finally {
+                            latch.countDown();
+                            MDC.remove(MDC_CONTEXT);
+                        }
                     }
-                    queryProperties.setProperty(propertyName, propertyValue);
                 }
-            }
 
-            final List<Query> queries = Lists.newArrayList();
-            for (final Map.Entry<String, Properties> entry : map.entrySet()) {
-                final String queryName = entry.getKey();
-                final Properties queryProperties = entry.getValue();
-                final String queryType = queryProperties.getProperty("type");
-                if ("download".equalsIgnoreCase(queryType)) {
-                    queries.add(new DownloadQuery(queryName, queryProperties));
-                } else if ("retrieve".equalsIgnoreCase(queryType)) {
-                    queries.add(new RetrieveQuery(queryName, queryProperties));
-                } else if ("lookup".equalsIgnoreCase(queryType)) {
-                    queries.add(new LookupQuery(queryName, queryProperties));
-                } else if ("lookupall".equalsIgnoreCase(queryType)) {
-                    queries.add(new LookupAllQuery(queryName, queryProperties));
-                } else if ("count".equalsIgnoreCase(queryType)) {
-                    queries.add(new CountQuery(queryName, queryProperties));
-                } else if ("sparql".equalsIgnoreCase(queryType)) {
-                    queries.add(new SparqlQuery(queryName, queryProperties));
+                private void recordFailure(final int q, final long path, final long start,
+                        final Throwable ex) {
+                    if (outputs[q] == null) {
+                        final long end = System.currentTimeMillis();
+                        final ValueFactory vf = Statements.VALUE_FACTORY;
+                        final MapBindingSet output = new MapBindingSet();
+                        output.addBinding("time", vf.createLiteral(end - start));
+                        output.addBinding("start", vf.createLiteral(start));
+                        output.addBinding("error", vf.createLiteral(ex.getClass()
+                                .getSimpleName() + " - " + Strings.nullToEmpty(ex.getMessage())));
+                        outputs[q] = output;
+                        paths[q] = path + end - start;
+                    }
                 }
-            }
-            return queries;
-        }
-
-        public String getName() {
-            return this.name;
-        }
-
-        public Long getTimeout() {
-            return this.timeout;
-        }
-
-        public Set<String> getInputVariables() {
-            return this.inputVariables;
-        }
 
-        public Set<String> getOutputVariables() {
-            return this.outputVariables;
+            };
         }
-
-        public long evaluate(final Session session, final long startTimestamp,
-                final BindingSet input, final MapBindingSet output,
-                @Nullable final Statistics stats) {
-
-            final ValueFactory vf = ValueFactoryImpl.getInstance();
-
-            if (LOGGER.isDebugEnabled()) {
-                final StringBuilder builder = new StringBuilder();
-                builder.append("Started: ");
-                builder.append(format(this.inputVariables, input, " "));
-                LOGGER.debug(builder.toString());
-            }
-
-            String error = "";
-            try {
-                doEvaluate(session, input, output);
-            } catch (final Throwable ex) {
-                error = ex.getClass().getSimpleName() + " - "
-                        + Strings.nullToEmpty(ex.getMessage());
-                LOGGER.warn("Got exception", ex);
-            }
-
-            long size = -1;
-            try {
-                final Value value = output.getValue("size");
-                if (value != null) {
-                    size = Long.parseLong(value.stringValue());
-                }
-            } catch (final Throwable ex) {
-                // Ignore
-            }
-
-            final long endTimestamp = System.currentTimeMillis();
-            final long elapsed = endTimestamp - startTimestamp;
-
-            if (stats != null) {
-                stats.reportQueryCompletion(this.name, !"".equals(error), elapsed, size);
-            }
-
-            output.addBinding("time", vf.createLiteral(elapsed));
-
-            if (LOGGER.isDebugEnabled()) {
-                final StringBuilder builder = new StringBuilder();
-                builder.append("".equals(error) ? "Success" : "Failure");
-                builder.append(": ");
-                builder.append(format(this.inputVariables, input, " "));
-                builder.append(" -> ");
-                builder.append(format(this.outputVariables, output, " "));
-                LOGGER.debug(builder.toString());
+        for (int i = 0; i < queries.length; ++i) {
+            if (mix.getPredecessors(i).length == 0) {
+                futures.add(executor.submit(tasks[i]));
             }
-
-            output.addBinding("start", vf.createLiteral(startTimestamp));
-            output.addBinding("error", vf.createLiteral(error));
-
-            return endTimestamp;
-        }
-
-        abstract void doEvaluate(Session session, BindingSet input, MapBindingSet output)
-                throws Throwable;
-
-        @Override
-        public String toString() {
-            return this.name;
         }
-
-        private static class DownloadQuery extends Query {
-
-            private final Template id;
-
-            private final boolean caching;
-
-            DownloadQuery(final String name, final Properties properties) {
-                this(name, properties, new Template(properties.getProperty("id")));
-            }
-
-            private DownloadQuery(final String name, final Properties properties, final Template id) {
-                super(name, properties, id.getVariables(), ImmutableList.of("size"));
-                this.id = id;
-                this.caching = "false".equalsIgnoreCase(properties.getProperty("caching"));
-            }
-
-            @Override
-            void doEvaluate(final Session session, final BindingSet input,
-                    final MapBindingSet output) throws Throwable {
-
-                final URI id = (URI) Statements.parseValue(this.id.instantiate(input),
-                        Namespaces.DEFAULT);
-
-                long size = 0L;
-                try (final Representation representation = session.download(id)
-                        .caching(this.caching).timeout(getTimeout()).exec()) {
-                    if (representation != null) {
-                        size = representation.writeToByteArray().length;
-                    } else {
-                        LOGGER.warn("No results for DOWNLOAD request, id " + id);
-                    }
-                } catch (final Throwable ex) {
-                    throw new RuntimeException("Failed DOWNLOAD, id " + format(id) + ", caching "
-                            + this.caching, ex);
-                } finally {
-                    output.addBinding("size", FACTORY.createLiteral(size));
-                }
+        try {
+            latch.await();
+        } catch (final InterruptedException ex) {
+            // Do not leave queries of this mix running (or submitted later) once the client is
+            // stopped: tasks check the flag before submitting dependent queries
+            cancelled.set(true);
+            for (final Future<?> future : futures) {
+                future.cancel(true);
             }
+            throw ex;
         }
 
-        private static class RetrieveQuery extends Query {
-
-            private final URI layer;
-
-            @Nullable
-            private final Template condition;
-
-            @Nullable
-            private final Long offset;
-
-            @Nullable
-            private final Long limit;
-
-            @Nullable
-            private final List<URI> properties;
-
-            RetrieveQuery(final String name, final Properties properties) {
-                this(name, properties, Template.forString(properties.getProperty("condition")));
-            }
-
-            private RetrieveQuery(final String name, final Properties properties,
-                    @Nullable final Template condition) {
-
-                super(name, properties, condition.getVariables(), ImmutableList.of("size"));
-
-                final String offset = properties.getProperty("offset");
-                final String limit = properties.getProperty("limit");
-
-                List<URI> props = null;
-                if (properties.containsKey("properties")) {
-                    props = Lists.newArrayList();
-                    for (final String token : Splitter.onPattern("[ ,;]").omitEmptyStrings()
-                            .trimResults().split(properties.getProperty("properties"))) {
-                        props.add((URI) Statements.parseValue(token));
-                    }
-                }
-
-                this.layer = normalizeLayerURI((URI) Statements.parseValue(
-                        properties.getProperty("layer"), Namespaces.DEFAULT));
-                this.condition = condition;
-                this.offset = offset == null ? null : Long.parseLong(offset);
-                this.limit = limit == null ? null : Long.parseLong(limit);
-                this.properties = props;
-            }
-
-            @Override
-            void doEvaluate(final Session session, final BindingSet input,
-                    final MapBindingSet output) throws Throwable {
-
-                final String condition = Strings.nullToEmpty(this.condition.instantiate(input));
-
-                long numTriples = 0L;
-                try {
-                    // FIXME: conditions do not seem to work
-                    final Stream<Record> stream = session.retrieve(this.layer)
-                            .condition(condition).offset(this.offset).limit(this.limit)
-                            .properties(this.properties).exec();
-                    numTriples = Record.encode(stream, ImmutableList.of(this.layer)).count();
-                    if (numTriples == 0) {
-                        LOGGER.warn("No results for RETRIEVE request, layer " + format(this.layer)
-                                + ", condition '" + condition + "', offset " + this.offset
-                                + ", limit " + this.limit);
-                    }
-
-                } catch (final Throwable ex) {
-                    throw new RuntimeException("Failed RETRIEVE " + format(this.layer)
-                            + ", condition " + condition + ", offset " + this.offset + ", limit"
-                            + this.limit + ", properties " + this.properties, ex);
-                } finally {
-                    output.addBinding("size", FACTORY.createLiteral(numTriples));
-                }
+        // Return the maximum critical path time, binding the queries on the critical path
+        int last = 0;
+        for (int i = 1; i < queries.length; ++i) {
+            if (paths[i] > paths[last]) {
+                last = i;
             }
         }
+        final List<String> path = Lists.newArrayList();
+        for (int i = last; i >= 0; i = critical[i]) {
+            path.add(0, queries[i].getName());
+        }
+        mixOutput.addBinding("mix.path", Statements.VALUE_FACTORY.createLiteral(Joiner.on('>')
+                .join(path)));
+        return paths[last];
+    }
 
-        private static class LookupQuery extends Query {
-
-            private final URI layer;
-
-            @Nullable
-            private final Template id;
-
-            @Nullable
-            private final List<URI> properties;
-
-            LookupQuery(final String name, final Properties properties) {
-                this(name, properties, Template.forString(properties.getProperty("id")));
+    private static BindingSet bind(final Query query, final BindingSet input,
+            final Query[] queries, final MapBindingSet[] outputs) {
+        // Add the outputs of completed queries referenced as <query>.<variable>, if any
+        MapBindingSet bindings = null;
+        for (final String variable : query.getInputVariables()) {
+            final int index = variable.indexOf('.');
+            if (index < 0 || input.hasBinding(variable)) {
+                continue;
             }
-
-            private LookupQuery(final String name, final Properties properties,
-                    @Nullable final Template id) {
-
-                super(name, properties, id.getVariables(), ImmutableList.of("size"));
-
-                List<URI> props = null;
-                if (properties.containsKey("properties")) {
-                    props = Lists.newArrayList();
-                    for (final String token : Splitter.onPattern("[ ,;]").omitEmptyStrings()
-                            .trimResults().split(properties.getProperty("properties"))) {
-                        props.add((URI) Statements.parseValue(token));
+            for (int i = 0; i < queries.length; ++i) {
+                if (outputs[i] != null && variable.startsWith(queries[i].getName())
+                        && queries[i].getName().length() == index) {
+                    final Value value = outputs[i].getValue(variable.substring(index + 1));
+                    if (bindings == null) {
+                        bindings = new MapBindingSet();
+                        for (final Binding binding : input) {
+                            bindings.addBinding(binding);
+                        }
                     }
-                }
-
-                this.layer = normalizeLayerURI((URI) Statements.parseValue(
-                        properties.getProperty("layer"), Namespaces.DEFAULT));
-                this.id = id;
-                this.properties = props;
-            }
-
-            @Override
-            void doEvaluate(final Session session, final BindingSet input,
-                    final MapBindingSet output) throws Throwable {
-
-                final URI id = (URI) Statements.parseValue(this.id.instantiate(input),
-                        Namespaces.DEFAULT);
-
-                long numTriples = 0L;
-                try {
-                    final Stream<Record> stream = session.retrieve(this.layer).ids(id)
-                            .properties(this.properties).exec();
-                    numTriples = Record.encode(stream, ImmutableList.of(this.layer)).count();
-                    if (numTriples == 0) {
-                        LOGGER.warn("No results for LOOKUP request, layer " + format(this.layer)
-                                + ", id " + id);
+                    if (value != null) {
+                        bindings.addBinding(variable, value);
                     }
-
-                } catch (final Throwable ex) {
-                    throw new RuntimeException("Failed LOOKUP " + format(this.layer) + ", id "
-                            + format(id) + ", properties " + this.properties, ex);
-                } finally {
-                    output.addBinding("size", FACTORY.createLiteral(numTriples));
                 }
             }
-
         }
+        return bindings != null ? bindings : input;
+    }
 
-        private static class LookupAllQuery extends Query {
-
-            @Nullable
-            private final Template id;
-
-            LookupAllQuery(final String name, final Properties properties) {
-                this(name, properties, Template.forString(properties.getProperty("id")));
-            }
-
-            private LookupAllQuery(final String name, final Properties properties,
-                    @Nullable final Template id) {
-                super(name, properties, id.getVariables(), ImmutableList.of("size"));
-                this.id = id;
-            }
-
-            @Override
-            void doEvaluate(final Session session, final BindingSet input,
-                    final MapBindingSet output) throws Throwable {
-
-                final URI id = (URI) Statements.parseValue(this.id.instantiate(input),
-                        Namespaces.DEFAULT);
-
-                long numTriples = 0L;
-                try {
-                    numTriples += Record.encode(session.retrieve(KS.RESOURCE).ids(id).exec(),
-                            ImmutableList.of(KS.RESOURCE)).count();
-                    numTriples += Record.encode(
-                            session.retrieve(KS.MENTION).condition("ks:mentionOf = $$", id)
-                                    .limit(100000L).exec(), ImmutableList.of(KS.MENTION)).count();
-                    if (numTriples == 0) {
-                        LOGGER.warn("No results for LOOKUP ALL request, id " + id);
-                    }
-                } catch (final Throwable ex) {
-                    throw new RuntimeException("Failed LOOKUP ALL, id " + format(id), ex);
-                } finally {
-                    output.addBinding("size", FACTORY.createLiteral(numTriples));
-                }
-            }
+    private List<BindingSet> sampleBatch(final Query query, final BindingSet input,
+            @Nullable final int[] replayed, final Random random, final MapBindingSet output) {
+        // Complete the batch of a query with further tuples from the same distribution, or
+        // with the replayed ones; their indexes are output as ?<query>.inputs for later replay
+        final int size = query.getBatchSize();
+        if (size <= 1) {
+            return ImmutableList.of(input);
         }
-
-        private static class CountQuery extends Query {
-
-            private final URI layer;
-
-            @Nullable
-            private final Template condition;
-
-            CountQuery(final String name, final Properties properties) {
-                this(name, properties, Template.forString(properties.getProperty("condition")));
-            }
-
-            private CountQuery(final String name, final Properties properties,
-                    @Nullable final Template condition) {
-
-                super(name, properties, condition.getVariables(), ImmutableList.of("size"));
-
-                this.layer = normalizeLayerURI((URI) Statements.parseValue(properties
-                        .getProperty("layer")));
-                this.condition = condition;
-            }
-
-            @Override
-            void doEvaluate(final Session session, final BindingSet input,
-                    final MapBindingSet output) throws Throwable {
-
-                final String condition = Strings.nullToEmpty(this.condition.instantiate(input));
-                long numResults = 0L;
-                try {
-                    numResults = session.count(this.layer).condition(condition).exec();
-                    if (numResults == 0) {
-                        LOGGER.warn("No results for COUNT request, layer " + format(this.layer)
-                                + ", condition '" + condition + "'");
-                    }
-                } catch (final Throwable ex) {
-                    throw new RuntimeException("Count " + format(this.layer) + " where "
-                            + condition + " failed", ex);
-                } finally {
-                    output.addBinding("size", FACTORY.createLiteral(numResults));
-                }
-            }
-
+        final List<BindingSet> batch = Lists.newArrayListWithCapacity(size);
+        final StringBuilder builder = new StringBuilder();
+        batch.add(input);
+        for (int i = 0; i < size - 1; ++i) {
+            final int index = replayed != null && i < replayed.length ? replayed[i]
+                    : this.sampler.next(random, this.worker == null ? 0 : this.worker.getId());
+            batch.add(this.inputData.get(index));
+            builder.append(i > 0 ? "," : "").append(index);
         }
+        output.addBinding(query.getName() + ".inputs",
+                Statements.VALUE_FACTORY.createLiteral(builder.toString()));
+        return batch;
+    }
 
-        private static final class SparqlQuery extends Query {
-
-            private final Template query;
-
-            private final String form;
-
-            SparqlQuery(final String name, final Properties properties) {
-                this(name, properties, Template.forString(properties.getProperty("query")));
-            }
-
-            private SparqlQuery(final String name, final Properties properties,
-                    final Template query) {
-                super(name, properties, query.getVariables(), ImmutableList.of("size"));
-                this.query = query;
-                this.form = detectQueryForm(query.getText());
-            }
-
-            private static String detectQueryForm(final String query) {
-
-                final int length = query.length();
+    @Nullable
+    private String goldenHash(final Query query, final int index) {
+        // Results of batch queries depend on further sampled tuples, so they are not checked
+        final String[] hashes = this.goldenHashes.get(query.getName());
+        return hashes == null || index < 0 || query.getBatchSize() > 1 ? null : hashes[index];
+    }
 
-                int start = 0;
-                while (start < length) {
-                    final char ch = query.charAt(start);
-                    if (ch == '#') { // comment
-                        while (start < length && query.charAt(start) != '\n') {
-                            ++start;
-                        }
-                    } else if (ch == 'p' || ch == 'b' || ch == 'P' || ch == 'B') { // prefix/base
-                        while (start < length && query.charAt(start) != '>') {
-                            ++start;
-                        }
-                    } else if (!Character.isWhitespace(ch)) { // found
-                        break;
-                    }
-                    ++start;
-                }
+    static Map<String, String[]> readGoldenHashes(final File file, final int numInputs)
+            throws IOException {
 
-                for (int i = start; i < query.length(); ++i) {
-                    final char ch = query.charAt(i);
-                    if (Character.isWhitespace(ch)) {
-                        final String form = query.substring(start, i).toLowerCase();
-                        if (!"select".equals(form) && !"construct".equals(form)
-                                && !"describe".equals(form) && !"ask".equals(form)) {
-                            throw new IllegalArgumentException("Unknown query form: " + form);
-                        }
-                        return form;
-                    }
+        // Golden hashes are read from columns ?<query>.hash of an output TSV file, indexed by
+        // column ?mix.input (the same data file must be used in the reference and test runs)
+        final long ts = System.currentTimeMillis();
+        final Map<String, String[]> hashes = Maps.newHashMap();
+        try (BufferedReader reader = new BufferedReader(IO.utf8Reader(IO.buffer(IO.read(file
+                .getAbsolutePath()))))) {
+            final String[] header = Strings.nullToEmpty(reader.readLine()).split("\t");
+            int inputColumn = -1;
+            final String[] queryNames = new String[header.length];
+            for (int i = 0; i < header.length; ++i) {
+                final String variable = header[i].startsWith("?") ? header[i].substring(1)
+                        : header[i];
+                if ("mix.input".equals(variable)) {
+                    inputColumn = i;
+                } else if (variable.endsWith(".hash")) {
+                    queryNames[i] = variable.substring(0, variable.length() - 5);
+                    hashes.put(queryNames[i], new String[numInputs]);
                 }
-
-                throw new IllegalArgumentException("Cannot detect query form");
             }
-
-            @Override
-            void doEvaluate(final Session session, final BindingSet input,
-                    final MapBindingSet output) throws Throwable {
-
-                long numResults = 0;
-                final String queryString = this.query.instantiate(input);
-                final Sparql operation = session.sparql(queryString).timeout(getTimeout());
-
-                try {
-                    switch (this.form) {
-                    case "select":
-                        numResults = operation.execTuples().count();
-                        break;
-                    case "construct":
-                    case "describe":
-                        numResults = operation.execTriples().count();
-                        break;
-                    case "ask":
-                        operation.execBoolean();
-                        numResults = 1;
-                        break;
-                    default:
-                        throw new Error();
-                    }
-                    if (numResults == 0) {
-                        LOGGER.warn("No results for SPARQL request, query is\n" + queryString);
+            Preconditions.checkArgument(inputColumn >= 0, "No ?mix.input column in " + file);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] tokens = line.split("\t");
+                final int input = Integer.parseInt(tokens[inputColumn]);
+                Preconditions.checkArgument(input < numInputs, "Input #" + input + " in "
+                        + file + " does not exist in test data");
+                for (int i = 0; i < tokens.length; ++i) {
+                    if (queryNames[i] != null && !tokens[i].isEmpty()) {
+                        hashes.get(queryNames[i])[input] = tokens[i];
                     }
-                    output.addBinding("size", FACTORY.createLiteral(numResults));
-                } catch (final Throwable ex) {
-                    throw new RuntimeException("Failed SPARQL, form " + this.form.toUpperCase()
-                            + ", query:\n" + queryString, ex);
-                } finally {
                 }
             }
         }
+        LOGGER.info("Golden hashes for {} loaded from {} in {} ms", hashes.keySet(), file,
+                System.currentTimeMillis() - ts);
+        return hashes;
+    }
 
-        private static final class Template {
-
-            private static final Pattern PATTERN = Pattern.compile("\\$\\{([^\\}]+)\\}");
-
-            private static Template EMPTY = new Template("");
-
-            private final String text;
-
-            private final String[] placeholderVariables;
-
-            private final Set<String> variables;
-
-            private Template(final String string) {
-                Preconditions.checkNotNull(string);
-                final List<String> variables = Lists.newArrayList();
-                final StringBuilder builder = new StringBuilder();
-                final Matcher matcher = PATTERN.matcher(string);
-                int offset = 0;
-                while (matcher.find()) {
-                    builder.append(string.substring(offset, matcher.start()).replace("%", "%%"));
-                    builder.append("%s");
-                    variables.add(matcher.group(1));
-                    offset = matcher.end();
-                }
-                builder.append(string.substring(offset).replace("%", "%%"));
-                this.text = builder.toString();
-                this.placeholderVariables = variables.toArray(new String[variables.size()]);
-                this.variables = ImmutableSet.copyOf(variables);
-            }
-
-            static Template forString(@Nullable final String string) {
-                return string == null ? EMPTY : new Template(string);
-            }
-
-            String getText() {
-                return this.text;
-            }
-
-            Set<String> getVariables() {
-                return this.variables;
-            }
+    private boolean isMixNamed() {
+        // Mixes are told apart by ?mix.name if picked among several ones (not when replaying)
+        return this.mixes.length > 1 && this.trace == null;
+    }
 
-            String instantiate(final BindingSet bindings) {
-                final Object[] placeholderValues = new String[this.placeholderVariables.length];
-                for (int i = 0; i < placeholderValues.length; ++i) {
-                    final Value value = bindings.getValue(this.placeholderVariables[i]);
-                    placeholderValues[i] = Data.toString(value, null);
-                }
-                return String.format(this.text, placeholderValues);
+    private boolean isConcurrent() {
+        for (final Mix mix : this.mixes) {
+            if (mix.isConcurrent()) {
+                return true;
             }
-
         }
-
+        return false;
     }
 
-    private static final class Statistics {
-
-        private static final String EMPTY = String.format("%-8s", "");
-
-        private final DescriptiveStatistics queryMixTime;
-
-        private final Map<String, QueryInfo> queryInfos;
-
-        private final QueryInfo globalInfo;
-
-        private long elapsedTime;
-
-        public Statistics(final Iterable<String> queryNames) {
-            this.queryMixTime = new DescriptiveStatistics();
-            this.queryInfos = Maps.newLinkedHashMap();
-            this.globalInfo = new QueryInfo();
-            this.elapsedTime = 0L;
-            for (final String queryName : queryNames) {
-                this.queryInfos.put(queryName, new QueryInfo());
-            }
+    private Pool[] newPools(final int clients) {
+        // Create a pool per group of clients (a single group in shared topology); unless
+        // configured, a pool has a connection per client in the group and concurrent query of
+        // a mix (at most 256), while KS clients of single clients running queries sequentially
+        // keep the default pool size of the KS client
+        int width = 1;
+        for (final Mix mix : this.mixes) {
+            width = Math.max(width, mix.isConcurrent() ? mix.getQueries().length : 1);
         }
-
-        public synchronized void reportQueryCompletion(final String queryName,
-                final boolean failure, final long time, final long size) {
-            final QueryInfo info = this.queryInfos.get(queryName);
-            info.time.addValue(time);
-            this.globalInfo.time.addValue(time);
-            if (size >= 0) {
-                info.size.addValue(size);
-                this.globalInfo.size.addValue(size);
-            }
-            if (failure) {
-                ++info.numFailures;
-                ++this.globalInfo.numFailures;
-            }
+        final int groupSize = this.groupSize > 0 ? this.groupSize : Math.max(1, clients);
+        final Pool[] pools = new Pool[Math.max(1, (clients + groupSize - 1) / groupSize)];
+        for (int i = 0; i < pools.length; ++i) {
+            final int connections = this.connections != null ? this.connections : Math.max(1,
+                    Math.min(Math.min(groupSize, clients - i * groupSize) * width, 256));
+            pools[i] = new Pool(newClient(this.connections == null && groupSize == 1
+                    && width == 1 ? null : connections), groupSize, connections);
         }
+        LOGGER.debug("{} pool(s) of {} client(s) and {} connection(s)", pools.length, groupSize,
+                pools[0].getConnections());
+        return pools;
+    }
 
-        public synchronized void reportQueryMixCompletion(final long time) {
-            this.queryMixTime.addValue(time);
+    private Client newClient(@Nullable final Integer maxConnections) {
+        final Client.Builder builder = Client.builder(this.url).compressionEnabled(true)
+                .validateServer(false);
+        if (maxConnections != null) {
+            builder.maxConnections(maxConnections);
         }
+        return builder.build();
+    }
 
-        public synchronized void reportElapsedTest(final long elapsedTime) {
-            this.elapsedTime = elapsedTime;
+    private static ExecutorService newVirtualThreadExecutor() {
+        // Virtual threads are looked up reflectively, as they require a Java 21+ runtime
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (final NoSuchMethodException ex) {
+            throw new IllegalArgumentException("Engine 'virtual' requires Java 21 or later");
+        } catch (final Throwable ex) {
+            throw new RuntimeException("Could not create virtual thread executor", ex);
         }
+    }
 
-        @Override
-        public synchronized String toString() {
-
-            // Compute sum of query execution times
-            long testTotalTime = 0;
-            for (final QueryInfo info : this.queryInfos.values()) {
-                testTotalTime += (long) info.time.getSum();
-            }
-
-            // Create and return a statistics table
-            final StringBuilder builder = new StringBuilder();
-            emitHeader(builder);
-            emitSeparator(builder);
-            for (final Map.Entry<String, QueryInfo> entry : this.queryInfos.entrySet()) {
-                emitStats(builder, testTotalTime, entry.getKey(), entry.getValue());
+    static int sample(final double[] cumulativeWeights, final double value) {
+        // Binary search for the first entry whose cumulative weight exceeds the value
+        int low = 0;
+        int high = cumulativeWeights.length - 1;
+        while (low < high) {
+            final int mid = low + high >>> 1;
+            if (cumulativeWeights[mid] > value) {
+                high = mid;
+            } else {
+                low = mid + 1;
             }
-            emitSeparator(builder);
-            emitStats(builder, testTotalTime, "query (avg)", this.globalInfo);
-            emitSeparator(builder);
-            emitStats(builder, testTotalTime, "query mix", (int) this.queryMixTime.getN(), -1,
-                    null, this.queryMixTime);
-            return builder.toString();
         }
+        return low;
+    }
 
-        private void emitHeader(final StringBuilder builder) {
+    private static double nextArrival(final Random random, final double interval) {
+        // Exponentially distributed inter-arrival time with the supplied mean (Poisson process)
+        return -interval * Math.log(1.0 - random.nextDouble());
+    }
 
-            builder.append(String.format("%-12s%-16s%-64s%-64s%-24s%-16s\n", "", "   Executions",
-                    "     Result size [solutions, triples or bytes]", "     Execution time [ms]",
-                    "     Total time [ms]", "    Rate"));
+    @Nullable
+    static Value decode(final String token) {
+        if (Strings.isNullOrEmpty(token)) {
+            return null;
+        }
+        final char ch = token.charAt(0);
+        final String string = ch == '\'' || ch == '"' || ch == '<' || ch == '_' ? token : "\""
+                + token + "\"";
+        return Statements.parseValue(string, Namespaces.DEFAULT);
+    }
 
-            builder.append(Strings.repeat(" ", 12));
-            for (final String field : new String[] { "Total", "Error", "Min", "Q1", "Q2", "Q3",
-                    "Max", "Geom", "Mean", "Std", "Min", "Q1", "Q2", "Q3", "Max", "Geom", "Mean",
-                    "Std", "Sum", "Clock", "Share", "/Sec", "/Hour" }) {
-                builder.append(String.format("%8s", field));
+    static String encode(final List<String> variables, final BindingSet bindings) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < variables.size(); ++i) {
+            if (i > 0) {
+                builder.append('\t');
             }
-            builder.append("\n");
+            final Value value = bindings.getValue(variables.get(i));
+            builder.append(format(value));
         }
+        return builder.toString();
+    }
 
-        private void emitSeparator(final StringBuilder builder) {
-            builder.append(Strings.repeat("-", 8 * 23 + 12)).append("\n");
+    static String format(final Iterable<String> variables, final BindingSet bindings,
+            final String separator) {
+        final StringBuilder builder = new StringBuilder();
+        for (final String variable : variables) {
+            final Value value = bindings.getValue(variable);
+            if (value != null) {
+                builder.append(builder.length() == 0 ? "" : separator);
+                builder.append(variable);
+                builder.append('=');
+                builder.append(format(value));
+            }
         }
+        return builder.toString();
+    }
 
-        private void emitStats(final StringBuilder builder, final long testTotalTime,
-                final String label, final QueryInfo info) {
-            emitStats(builder, testTotalTime, label, (int) info.time.getN(), info.numFailures,
-                    info.size, info.time);
+    static String format(final Value value) {
+        // Emit literal without lang / datatype for easier consumption in analysis tools
+        if (value instanceof Resource) {
+            return Statements.formatValue(value, null);
+        } else if (value != null) {
+            return value.stringValue();
+        } else {
+            return "";
         }
+    }
 
-        private void emitStats(final StringBuilder builder, final long testTotalTime,
-                final String label, final int numSuccesses, final int numFailures,
-                @Nullable final DescriptiveStatistics size, final DescriptiveStatistics time) {
-
-            builder.append(String.format("%-12s", label));
-
-            builder.append(numSuccesses >= 0 ? String.format("%8d", numSuccesses) : EMPTY);
-            builder.append(numFailures >= 0 ? String.format("%8d", numFailures) : EMPTY);
-
-            if (size != null) {
-                builder.append(String.format("%8d%8d%8d%8d%8d%8.0f%8.0f%8.0f",
-                        (long) size.getMin(), (long) size.getPercentile(25),
-                        (long) size.getPercentile(50), (long) size.getPercentile(75),
-                        (long) size.getMax(), size.getGeometricMean(), size.getMean(),
-                        size.getStandardDeviation()));
-            } else {
-                builder.append(Strings.repeat(EMPTY, 8));
-            }
-
-            if (time != null) {
-                final long queryTotalTime = (long) time.getSum();
-                final double share = (double) queryTotalTime / testTotalTime;
-                final long elapsed = (long) (this.elapsedTime * share);
-                final double rate = 1000.0 * time.getN() / elapsed;
-
-                builder.append(String.format("%8d%8d%8d%8d%8d%8.0f%8.0f%8.0f",
-                        (long) time.getMin(), (long) time.getPercentile(25),
-                        (long) time.getPercentile(50), (long) time.getPercentile(75),
-                        (long) time.getMax(), time.getGeometricMean(), time.getMean(),
-                        time.getStandardDeviation()));
-
-                builder.append(String.format("%8d%8d%8.2f", queryTotalTime, elapsed, share));
-                builder.append(String.format("%8.2f%8.0f", rate, rate * 3600));
-
-            } else {
-                builder.append(Strings.repeat(EMPTY, 13));
-            }
-
-            builder.append("\n");
+    private static <T> T read(final Properties properties, final String name, final Class<T> type) {
+        final T value = read(properties, name, type, null);
+        if (value == null) {
+            throw new IllegalArgumentException("No value for mandatory property '" + name + "'");
         }
+        return value;
+    }
 
-        private static class QueryInfo {
-
-            public final DescriptiveStatistics time = new DescriptiveStatistics();
-
-            public final DescriptiveStatistics size = new DescriptiveStatistics();
-
-            public int numFailures;
-
+    private static <T> T read(final Properties properties, final String name, final Class<T> type,
+            final T defaultValue) {
+        final String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Data.convert(value, type);
+        } catch (final Throwable ex) {
+            throw new IllegalArgumentException("Invalid value for property '" + name + "': "
+                    + value + " (" + ex.getMessage() + ")");
         }
+    }
 
+    // TODO: remove this hack and use 'uri' as it is
+    static URI normalizeLayerURI(final URI uri) {
+        if (KS.RESOURCE.equals(uri)) {
+            return KS.RESOURCE;
+        } else if (KS.MENTION.equals(uri)) {
+            return KS.MENTION;
+        } else {
+            return uri;
+        }
     }
 
 }
@@ -122,7 +122,7 @@ public final class QueryTestGenerator {
         write(outputFile, this.outputVars, outputTuples, this.dictionary);
     }
 
-    private static boolean pick(final List<Tuple> tuples, final int[] mappings,
+    static boolean pick(final List<Tuple> tuples, final int[] mappings,
             final int[] outputCodes) {
 
         final int numVariables = mappings.length;
@@ -297,7 +297,7 @@ public final class QueryTestGenerator {
         }
     }
 
-    private static class Dictionary {
+    static class Dictionary {
 
         private static final int TABLE_SIZE = 32 * 1024 * 1024 - 1;
 
@@ -400,7 +400,7 @@ public final class QueryTestGenerator {
 
     }
 
-    private static abstract class Tuple implements Comparable<Tuple> {
+    static abstract class Tuple implements Comparable<Tuple> {
 
         public static Tuple create(final int... codes) {
             switch (codes.length) {
@@ -0,0 +1,138 @@
+package eu.fbk.nwrtools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openrdf.query.BindingSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes output tuples from a dedicated thread, fed through a bounded lock-free queue.
+ */
+final class ResultWriter implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultWriter.class);
+
+    private final Writer writer;
+
+    private final List<String> variables;
+
+    private final int capacity;
+
+    private final Queue<BindingSet> queue;
+
+    private final AtomicInteger size;
+
+    private final AtomicLong numStalls;
+
+    private final AtomicLong stallTime;
+
+    private final Thread thread;
+
+    private volatile boolean closed;
+
+    private volatile Throwable exception;
+
+    private long numTuples;
+
+    private long numFlushes;
+
+    ResultWriter(final Writer writer, final List<String> variables, final int capacity) {
+        this.writer = writer;
+        this.variables = variables;
+        this.capacity = capacity;
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.size = new AtomicInteger(0);
+        this.numStalls = new AtomicLong(0L);
+        this.stallTime = new AtomicLong(0L);
+        this.thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                drain();
+            }
+
+        }, "writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public void emit(final BindingSet tuple) throws IOException {
+        if (this.exception != null) {
+            throw new IOException("Output writer failed", this.exception);
+        }
+        if (this.size.incrementAndGet() > this.capacity) {
+            // Queue full: wait for the writer thread to catch up (back-pressure stall)
+            final long ts = System.nanoTime();
+            this.numStalls.incrementAndGet();
+            do {
+                this.size.decrementAndGet();
+                LockSupport.unpark(this.thread);
+                LockSupport.parkNanos(100000L);
+            } while (this.size.incrementAndGet() > this.capacity && this.exception == null);
+            this.stallTime.addAndGet(System.nanoTime() - ts);
+        }
+        this.queue.add(tuple);
+    }
+
+    private void drain() {
+        final StringBuilder builder = new StringBuilder();
+        try {
+            while (true) {
+                // Encode and write as many tuples as available in a single batch
+                final boolean closed = this.closed;
+                BindingSet tuple;
+                int batchSize = 0;
+                while ((tuple = this.queue.poll()) != null) {
+                    this.size.decrementAndGet();
+                    LOGGER.trace("Emitting:\n{}",
+                            QueryTestDriver.format(this.variables, tuple, "\n"));
+                    builder.setLength(0);
+                    builder.append(QueryTestDriver.encode(this.variables, tuple)).append('\n');
+                    this.writer.write(builder.toString());
+                    ++batchSize;
+                }
+
+                // Flush the batch, or wait for new tuples if nothing was written
+                if (batchSize > 0) {
+                    this.writer.flush();
+                    this.numTuples += batchSize;
+                    ++this.numFlushes;
+                } else if (closed) {
+                    break;
+                } else {
+                    LockSupport.parkNanos(1000000L);
+                }
+            }
+        } catch (final Throwable ex) {
+            LOGGER.error("Output writer failed", ex);
+            this.exception = ex;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        LockSupport.unpark(this.thread);
+        try {
+            this.thread.join();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info("Output: {} tuples in {} batches, {} back-pressure "
+                + "stalls ({} ms)", this.numTuples, this.numFlushes, this.numStalls.get(),
+                this.stallTime.get() / 1000000L);
+        if (this.exception != null) {
+            throw new IOException("Output writer failed", this.exception);
+        }
+    }
+
+}
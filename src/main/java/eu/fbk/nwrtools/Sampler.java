@@ -0,0 +1,125 @@
+package eu.fbk.nwrtools;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks the input tuple of each mix according to the configured distribution; random
+ * choices are drawn from a client-local generator, so that no locking is needed.
+ */
+final class Sampler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Sampler.class);
+
+    private final String distribution;
+
+    private final int size;
+
+    @Nullable
+    private final int[] permutation; // rank -> input index (non-uniform distributions)
+
+    @Nullable
+    private final double[] weights; // cumulative, normalized rank weights (zipf)
+
+    private final int hotSize;
+
+    private final double hotRate;
+
+    private final int partitions;
+
+    private final AtomicLong sequence; // next rank (sequential), never overflowing
+
+    Sampler(final String distribution, final int size, final long seed, final double skew,
+            final double hotFraction, final double hotRate, final int partitions) {
+
+        Preconditions.checkArgument(ImmutableSet.of("uniform", "zipf", "sequential",
+                "hotset").contains(distribution), "Invalid sampling " + distribution);
+        Preconditions.checkArgument(size > 0, "No input data");
+        Preconditions.checkArgument(skew > 0.0, "Invalid skew " + skew);
+        Preconditions.checkArgument(hotFraction > 0.0 && hotFraction <= 1.0,
+                "Invalid hot set fraction " + hotFraction);
+        Preconditions.checkArgument(hotRate >= 0.0 && hotRate <= 1.0, "Invalid hot rate "
+                + hotRate);
+
+        // Ranks are mapped to a seeded permutation of the input, so that popular or hot
+        // tuples do not depend on the order of the input file
+        int[] permutation = null;
+        if (!"uniform".equals(distribution)) {
+            final Random random = new Random(seed);
+            permutation = new int[size];
+            for (int i = 0; i < size; ++i) {
+                final int j = random.nextInt(i + 1);
+                permutation[i] = permutation[j];
+                permutation[j] = i;
+            }
+        }
+
+        // Zipf rank probabilities are proportional to 1 / rank^skew
+        double[] weights = null;
+        if ("zipf".equals(distribution)) {
+            weights = new double[size];
+            double cumulatedWeight = 0.0;
+            for (int i = 0; i < size; ++i) {
+                cumulatedWeight += Math.pow(i + 1, -skew);
+                weights[i] = cumulatedWeight;
+            }
+            for (int i = 0; i < size; ++i) {
+                weights[i] /= cumulatedWeight;
+            }
+        }
+
+        this.distribution = distribution;
+        this.size = size;
+        this.permutation = permutation;
+        this.weights = weights;
+        this.hotSize = Math.max(1, (int) (size * hotFraction));
+        this.hotRate = hotRate;
+        this.partitions = partitions;
+        this.sequence = new AtomicLong(0L);
+    }
+
+    int next(final Random random, final int partition) {
+        switch (this.distribution) {
+        case "zipf":
+            return this.permutation[QueryTestDriver.sample(this.weights, random.nextDouble())];
+        case "hotset":
+            final boolean hot = this.hotSize == this.size
+                    || random.nextDouble() < this.hotRate;
+            return this.permutation[hot ? random.nextInt(this.hotSize) : this.hotSize
+                    + random.nextInt(this.size - this.hotSize)];
+        case "sequential":
+            // Ranks are shared by all the clients of a run and partitioned among workers;
+            // input is reused (wrapping around) only after being exhausted
+            final long rank = this.sequence.getAndIncrement() * this.partitions + partition;
+            if (rank >= this.size && rank < this.size + this.partitions) {
+                LOGGER.warn("Input data exhausted, restarting from first tuple");
+            }
+            return this.permutation[(int) (rank % this.size)];
+        default:
+            return random.nextInt(this.size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (this.distribution) {
+        case "zipf":
+            return String.format("zipf, P(top 1%%) = %.2f", this.weights[Math.max(0,
+                    this.size / 100 - 1)]);
+        case "hotset":
+            return String.format("hotset, %d hot tuple(s) picked with P = %.2f",
+                    this.hotSize, this.hotSize == this.size ? 1.0 : this.hotRate);
+        default:
+            return this.distribution;
+        }
+    }
+
+}
@@ -0,0 +1,399 @@
+package eu.fbk.nwrtools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import eu.fbk.nwrtools.util.Histogram;
+
+final class Statistics {
+
+    private static final String EMPTY = String.format("%-8s", "");
+
+    private final int clients;
+
+    final List<String> queryNames;
+
+    private final List<Recorder> recorders;
+
+    private long elapsedTime;
+
+    public Statistics(final int clients, final Iterable<String> queryNames) {
+        this.clients = clients;
+        this.queryNames = ImmutableList.copyOf(queryNames);
+        this.recorders = new CopyOnWriteArrayList<>();
+        this.elapsedTime = 0L;
+    }
+
+    public Recorder newRecorder() {
+        final Recorder recorder = new Recorder(this.queryNames);
+        this.recorders.add(recorder);
+        return recorder;
+    }
+
+    public synchronized void reportElapsedTest(final long elapsedTime) {
+        this.elapsedTime = elapsedTime;
+    }
+
+    public int getClients() {
+        return this.clients;
+    }
+
+    public synchronized long getElapsedTime() {
+        return this.elapsedTime;
+    }
+
+    public Histogram getMixTime() {
+        return merge().queryMixTime;
+    }
+
+    public synchronized double getMixThroughput() {
+        return this.elapsedTime <= 0 ? 0.0 : 1000.0 * getMixTime().getCount()
+                / this.elapsedTime;
+    }
+
+    public void write(final Writer writer) throws IOException {
+        final Recorder merged = merge();
+        writer.write("mix\ttime\t" + merged.queryMixTime.encode() + "\n");
+        writer.write("pool\twait\t" + merged.connectionWait.encode() + "\n");
+        for (final Map.Entry<String, QueryInfo> entry : merged.queryInfos.entrySet()) {
+            final String name = entry.getKey();
+            final QueryInfo info = entry.getValue();
+            writer.write(name + "\ttime\t" + info.time.encode() + "\n");
+            writer.write(name + "\tsize\t" + info.size.encode() + "\n");
+            writer.write(name + "\tfirst\t" + info.first.encode() + "\n");
+            writer.write(name + "\tlast\t" + info.last.encode() + "\n");
+            writer.write(name + "\tchars\t" + info.chars.encode() + "\n");
+            writer.write(name + "\tfailures\t" + info.numFailures.get() + "\n");
+        }
+    }
+
+    public void read(final BufferedReader reader) throws IOException {
+        // Parse histograms in the format produced by write(), until EOF or an END line
+        final Recorder recorder = newRecorder();
+        for (String line = reader.readLine(); line != null && !"END".equals(line); line = reader
+                .readLine()) {
+            final String[] tokens = line.split("\t");
+            Preconditions.checkArgument(tokens.length == 3, "Invalid histogram line " + line);
+            if ("mix".equals(tokens[0])) {
+                recorder.queryMixTime.add(Histogram.decode(tokens[2]));
+                continue;
+            } else if ("pool".equals(tokens[0])) {
+                if (tokens[1].equals("wait")) {
+                    recorder.connectionWait.add(Histogram.decode(tokens[2]));
+                } // else 'setup.est' in older files, no longer measured
+                continue;
+            }
+            final QueryInfo info = recorder.queryInfos.get(tokens[0]);
+            Preconditions.checkArgument(info != null, "Unknown query " + tokens[0]);
+            if ("time".equals(tokens[1])) {
+                info.time.add(Histogram.decode(tokens[2]));
+            } else if ("size".equals(tokens[1])) {
+                info.size.add(Histogram.decode(tokens[2]));
+            } else if ("first".equals(tokens[1])) {
+                info.first.add(Histogram.decode(tokens[2]));
+            } else if ("last".equals(tokens[1])) {
+                info.last.add(Histogram.decode(tokens[2]));
+            } else if ("chars".equals(tokens[1]) || "bytes".equals(tokens[1])) {
+                info.chars.add(Histogram.decode(tokens[2])); // 'bytes' in older files
+            } else if ("failures".equals(tokens[1])) {
+                info.numFailures.addAndGet(Long.parseLong(tokens[2]));
+            }
+        }
+    }
+
+    Recorder merge() {
+        final Recorder merged = new Recorder(this.queryNames);
+        for (final Recorder recorder : this.recorders) {
+            merged.queryMixTime.add(recorder.queryMixTime);
+            merged.connectionWait.add(recorder.connectionWait);
+            for (final Map.Entry<String, QueryInfo> entry : recorder.queryInfos.entrySet()) {
+                merged.queryInfos.get(entry.getKey()).add(entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    @Override
+    public synchronized String toString() {
+
+        // Merge the data of all the recorders
+        final Recorder merged = merge();
+        final QueryInfo globalInfo = new QueryInfo();
+        for (final QueryInfo info : merged.queryInfos.values()) {
+            globalInfo.add(info);
+        }
+
+        // Compute sum of query execution times
+        final long testTotalTime = globalInfo.time.getSum();
+
+        // Create and return a statistics table
+        final StringBuilder builder = new StringBuilder();
+        emitHeader(builder);
+        emitSeparator(builder);
+        for (final Map.Entry<String, QueryInfo> entry : merged.queryInfos.entrySet()) {
+            emitStats(builder, testTotalTime, entry.getKey(), entry.getValue());
+        }
+        emitSeparator(builder);
+        emitStats(builder, testTotalTime, "query (avg)", globalInfo);
+        emitSeparator(builder);
+        emitStats(builder, testTotalTime, "query mix", merged.queryMixTime.getCount(), -1,
+                null, merged.queryMixTime);
+
+        // Add a table splitting query time in time to first / last result and transfer
+        builder.append("\n");
+        emitTransferHeader(builder);
+        emitTransferSeparator(builder);
+        for (final Map.Entry<String, QueryInfo> entry : merged.queryInfos.entrySet()) {
+            emitTransfer(builder, entry.getKey(), entry.getValue());
+        }
+        emitTransferSeparator(builder);
+        emitTransfer(builder, "query (avg)", globalInfo);
+        builder.append("(*) characters of the RDF terms received (bytes for downloads), not "
+                + "bytes on the wire\n");
+
+        // Add a line about the driver-side pool wait, if tracked
+        if (merged.connectionWait.getCount() > 0) {
+            builder.append("\n");
+            emitConnections(builder, merged);
+        }
+        return builder.toString();
+    }
+
+    private void emitConnections(final StringBuilder builder, final Recorder merged) {
+
+        builder.append(String.format("%-12s%-48s\n", "", "     Driver pool wait [us] (*)"));
+        builder.append(Strings.repeat(" ", 12));
+        for (final String field : new String[] { "Acquired", "P50", "P90", "P99", "Max",
+                "Mean" }) {
+            builder.append(String.format("%8s", field));
+        }
+        builder.append("\n");
+        builder.append(Strings.repeat("-", 8 * 6 + 12)).append("\n");
+
+        final Histogram wait = merged.connectionWait;
+        builder.append(String.format("%-12s%8d%8d%8d%8d%8d%8.0f\n", "query (all)",
+                wait.getCount(), wait.getPercentile(50), wait.getPercentile(90),
+                wait.getPercentile(99), wait.getMax(), wait.getMean()));
+        builder.append("(*) time waiting for a free connection slot of the driver, not for "
+                + "the HTTP connection\n    pool of the KS client (which is not observable)\n");
+    }
+
+    private void emitTransferHeader(final StringBuilder builder) {
+
+        builder.append(String.format("%-12s%-40s%-40s%-32s\n", "",
+                "     Time to first result [ms]", "     Time to last result [ms]",
+                "     Received chars (*)"));
+
+        builder.append(Strings.repeat(" ", 12));
+        for (final String field : new String[] { "P50", "P90", "P99", "Max", "Mean", "P50",
+                "P90", "P99", "Max", "Mean", "Mean", "Max", "Sum K", "K/Sec" }) {
+            builder.append(String.format("%8s", field));
+        }
+        builder.append("\n");
+    }
+
+    private void emitTransferSeparator(final StringBuilder builder) {
+        builder.append(Strings.repeat("-", 8 * 14 + 12)).append("\n");
+    }
+
+    private void emitTransfer(final StringBuilder builder, final String label,
+            final QueryInfo info) {
+
+        builder.append(String.format("%-12s", label));
+        for (final Histogram time : new Histogram[] { info.first, info.last }) {
+            builder.append(String.format("%8d%8d%8d%8d%8.0f", time.getPercentile(50),
+                    time.getPercentile(90), time.getPercentile(99), time.getMax(),
+                    time.getMean()));
+        }
+
+        // Transfer rate is computed w.r.t. the time spent between first and last result
+        final long drainTime = info.last.getSum() - info.first.getSum();
+        builder.append(String.format("%8.0f%8d%8d%8.0f\n", info.chars.getMean(),
+                info.chars.getMax(), info.chars.getSum() / 1024, drainTime <= 0 ? 0.0
+                        : info.chars.getSum() / 1.024 / drainTime));
+    }
+
+    private void emitHeader(final StringBuilder builder) {
+
+        builder.append(String.format("%-12s%-16s%-64s%-64s%-24s%-16s\n", "", "   Executions",
+                "     Result size [solutions, triples or bytes]", "     Execution time [ms]",
+                "     Total time [ms]", "    Rate"));
+
+        builder.append(Strings.repeat(" ", 12));
+        for (final String field : new String[] { "Total", "Error", "Min", "P50", "P90",
+                "P99", "P99.9", "Max", "Mean", "Std", "Min", "P50", "P90", "P99", "P99.9",
+                "Max", "Mean", "Std", "Sum", "Clock", "Share", "/Sec", "/Hour" }) {
+            builder.append(String.format("%8s", field));
+        }
+        builder.append("\n");
+    }
+
+    private void emitSeparator(final StringBuilder builder) {
+        builder.append(Strings.repeat("-", 8 * 23 + 12)).append("\n");
+    }
+
+    private void emitStats(final StringBuilder builder, final long testTotalTime,
+            final String label, final QueryInfo info) {
+        emitStats(builder, testTotalTime, label, info.time.getCount(),
+                info.numFailures.get(), info.size, info.time);
+    }
+
+    private void emitStats(final StringBuilder builder, final long testTotalTime,
+            final String label, final long numSuccesses, final long numFailures,
+            @Nullable final Histogram size, final Histogram time) {
+
+        builder.append(String.format("%-12s", label));
+
+        builder.append(numSuccesses >= 0 ? String.format("%8d", numSuccesses) : EMPTY);
+        builder.append(numFailures >= 0 ? String.format("%8d", numFailures) : EMPTY);
+
+        // Sizes and times are summarized by the same percentiles, so columns line up
+        if (size != null) {
+            builder.append(String.format("%8d%8d%8d%8d%8d%8d%8.0f%8.0f", size.getMin(),
+                    size.getPercentile(50), size.getPercentile(90), size.getPercentile(99),
+                    size.getPercentile(99.9), size.getMax(), size.getMean(),
+                    size.getStandardDeviation()));
+        } else {
+            builder.append(Strings.repeat(EMPTY, 8));
+        }
+
+        if (time != null) {
+            final long queryTotalTime = time.getSum();
+            final double share = (double) queryTotalTime / testTotalTime;
+            final long elapsed = (long) (this.elapsedTime * share);
+            final double rate = 1000.0 * time.getCount() / elapsed;
+
+            builder.append(String.format("%8d%8d%8d%8d%8d%8d%8.0f%8.0f", time.getMin(),
+                    time.getPercentile(50), time.getPercentile(90), time.getPercentile(99),
+                    time.getPercentile(99.9), time.getMax(), time.getMean(),
+                    time.getStandardDeviation()));
+
+            builder.append(String.format("%8d%8d%8.2f", queryTotalTime, elapsed, share));
+            builder.append(String.format("%8.2f%8.0f", rate, rate * 3600));
+
+        } else {
+            builder.append(Strings.repeat(EMPTY, 13));
+        }
+
+        builder.append("\n");
+    }
+
+    // Collects the statistics of a single client; not thread safe (single writer only), but
+    // can be read concurrently while being updated
+    public static final class Recorder {
+
+        final Histogram queryMixTime;
+
+        final Map<String, QueryInfo> queryInfos;
+
+        private final Histogram connectionWait; // us, driver-side pool only
+
+        Recorder(final Iterable<String> queryNames) {
+            this.queryMixTime = new Histogram();
+            this.connectionWait = new Histogram();
+            this.queryInfos = Maps.newLinkedHashMap();
+            for (final String queryName : queryNames) {
+                this.queryInfos.put(queryName, new QueryInfo());
+            }
+        }
+
+        public void reportQueryStart(final String queryName) {
+            this.queryInfos.get(queryName).numStarted.incrementAndGet();
+        }
+
+        public void reportQueryDiscard(final String queryName) {
+            this.queryInfos.get(queryName).numStarted.decrementAndGet();
+        }
+
+        public void reportQueryCompletion(final String queryName, final boolean failure,
+                final long time, final long size, final long first, final long last,
+                final long chars) {
+            final QueryInfo info = this.queryInfos.get(queryName);
+            info.time.record(time);
+            if (size >= 0) {
+                info.size.record(size);
+            }
+            if (first >= 0 && last >= 0) {
+                info.first.record(first);
+                info.last.record(last);
+            }
+            if (chars >= 0) {
+                info.chars.record(chars);
+            }
+            if (failure) {
+                info.numFailures.incrementAndGet();
+            }
+        }
+
+        public void reportQueryMixCompletion(final long time) {
+            this.queryMixTime.record(time);
+        }
+
+        public void reportConnectionWait(final long wait) {
+            this.connectionWait.record(wait);
+        }
+
+        Recorder subtract(final Recorder base) {
+            final Recorder result = new Recorder(this.queryInfos.keySet());
+            result.queryMixTime.add(this.queryMixTime.subtract(base.queryMixTime));
+            result.connectionWait.add(this.connectionWait.subtract(base.connectionWait));
+            for (final Map.Entry<String, QueryInfo> entry : this.queryInfos.entrySet()) {
+                final QueryInfo info = entry.getValue();
+                final QueryInfo baseInfo = base.queryInfos.get(entry.getKey());
+                final QueryInfo resultInfo = result.queryInfos.get(entry.getKey());
+                resultInfo.time.add(info.time.subtract(baseInfo.time));
+                resultInfo.size.add(info.size.subtract(baseInfo.size));
+                resultInfo.first.add(info.first.subtract(baseInfo.first));
+                resultInfo.last.add(info.last.subtract(baseInfo.last));
+                resultInfo.chars.add(info.chars.subtract(baseInfo.chars));
+                resultInfo.numFailures.set(info.numFailures.get()
+                        - baseInfo.numFailures.get());
+                resultInfo.numStarted.set(info.numStarted.get()
+                        - baseInfo.numStarted.get());
+            }
+            return result;
+        }
+
+    }
+
+    static final class QueryInfo {
+
+        public final Histogram time = new Histogram();
+
+        public final Histogram size = new Histogram();
+
+        public final Histogram first = new Histogram();
+
+        public final Histogram last = new Histogram();
+
+        public final Histogram chars = new Histogram(); // received, see Query.count()
+
+        public final AtomicLong numFailures = new AtomicLong();
+
+        public final AtomicLong numStarted = new AtomicLong(); // not persisted
+
+        void add(final QueryInfo info) {
+            this.time.add(info.time);
+            this.size.add(info.size);
+            this.first.add(info.first);
+            this.last.add(info.last);
+            this.chars.add(info.chars);
+            this.numFailures.addAndGet(info.numFailures.get());
+            this.numStarted.addAndGet(info.numStarted.get());
+        }
+
+    }
+
+}
@@ -0,0 +1,197 @@
+package eu.fbk.nwrtools;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.fbk.nwrtools.util.Histogram;
+
+/**
+ * Stops a running phase, by exhausting its mix counter, once either the mix times reached a
+ * steady state (warmup) or the confidence intervals of the mean and selected percentiles of
+ * mix and query times are within the target relative precision (measurement).
+ */
+final class StopCondition implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StopCondition.class);
+
+    private static final int MIN_SAMPLES = 30;
+
+    private static final int STEADY_WINDOWS = 5;
+
+    private final Statistics stats;
+
+    private final long interval;
+
+    private final boolean steadyState;
+
+    private final double precision;
+
+    private final double z;
+
+    @Nullable
+    private final double[] percentiles;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Queue<Histogram> windows; // last mix time windows (steady state only)
+
+    private Histogram lastMixTime;
+
+    @Nullable
+    private AtomicInteger mixCounter;
+
+    StopCondition(final Statistics stats, final long interval, final boolean steadyState,
+            final double precision, final double confidence,
+            @Nullable final double[] percentiles) {
+        this.stats = stats;
+        this.interval = interval;
+        this.steadyState = steadyState;
+        this.precision = precision;
+        this.z = steadyState ? 0.0 : new NormalDistribution()
+                .inverseCumulativeProbability(1.0 - (1.0 - confidence) / 2);
+        this.percentiles = percentiles;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("stop-condition").build());
+        this.windows = new ArrayDeque<>();
+        this.lastMixTime = new Histogram();
+    }
+
+    void start(final AtomicInteger mixCounter) {
+        this.mixCounter = mixCounter;
+        this.scheduler.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                check();
+            }
+
+        }, this.interval, this.interval, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void check() {
+        try {
+            final Statistics.Recorder merged = this.stats.merge();
+            final boolean stop = this.steadyState ? isSteady(merged.queryMixTime)
+                    : isConverged(merged);
+            if (stop) {
+                this.mixCounter.set(0); // clients complete their current mix and stop
+                this.scheduler.shutdown();
+            }
+        } catch (final Throwable ex) {
+            LOGGER.warn("Could not check stop condition", ex);
+        }
+    }
+
+    boolean isSteady(final Histogram mixTime) {
+
+        // Keep the mix time windows of the last 2 * STEADY_WINDOWS intervals
+        this.windows.add(mixTime.subtract(this.lastMixTime));
+        this.lastMixTime = mixTime;
+        if (this.windows.size() > 2 * STEADY_WINDOWS) {
+            this.windows.remove();
+        } else if (this.windows.size() < 2 * STEADY_WINDOWS) {
+            return false;
+        }
+
+        // Steady state is reached if the mean mix time of the most recent windows does not
+        // differ from the one of the preceding windows by more than the tolerance
+        final Histogram before = new Histogram();
+        final Histogram after = new Histogram();
+        int index = 0;
+        for (final Histogram window : this.windows) {
+            (index++ < STEADY_WINDOWS ? before : after).add(window);
+        }
+        if (before.getCount() < MIN_SAMPLES || after.getCount() < MIN_SAMPLES) {
+            return false;
+        }
+        final double change = Math.abs(after.getMean() - before.getMean())
+                / Math.max(1.0, before.getMean());
+        LOGGER.debug("Mean mix time {} -> {} ms ({} change)", before.getMean(),
+                after.getMean(), change);
+        if (change <= this.precision) {
+            LOGGER.info("Steady state reached after {} mixes: mean mix time {} ms, {}% "
+                    + "change over last {} intervals", mixTime.getCount(), String.format(
+                    "%.1f", after.getMean()), String.format("%.1f", change * 100),
+                    STEADY_WINDOWS);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isConverged(final Statistics.Recorder merged) {
+
+        // Compute the largest relative error over mix time and executed queries
+        double error = relativeError(merged.queryMixTime);
+        String worst = "mix";
+        for (final Map.Entry<String, Statistics.QueryInfo> entry : merged.queryInfos
+                .entrySet()) {
+            final Histogram time = entry.getValue().time;
+            if (time.getCount() > 0) {
+                final double queryError = relativeError(time);
+                if (queryError > error) {
+                    error = queryError;
+                    worst = entry.getKey();
+                }
+            }
+        }
+
+        LOGGER.debug("Relative error {} ({})", error, worst);
+        if (error <= this.precision) {
+            LOGGER.info("Converged after {} mixes: relative error {}% (max, {})",
+                    merged.queryMixTime.getCount(), String.format("%.2f", error * 100),
+                    worst);
+            return true;
+        }
+        return false;
+    }
+
+    double relativeError(final Histogram time) {
+
+        // Not enough samples: no reliable estimate
+        final long n = time.getCount();
+        if (n < MIN_SAMPLES) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        // Mean: normal approximation of the confidence interval
+        final double mean = time.getMean();
+        double error = mean <= 0.0 ? 0.0 : this.z * time.getStandardDeviation()
+                / Math.sqrt(n) / mean;
+
+        // Percentiles: distribution-free interval between the order statistics whose ranks
+        // bound the rank of the percentile with the given confidence (binomial, normal approx.)
+        for (final double percentile : this.percentiles) {
+            final double q = percentile / 100.0;
+            final double delta = this.z * Math.sqrt(n * q * (1.0 - q));
+            final double lowRank = Math.max(1.0, Math.floor(n * q - delta));
+            final double highRank = Math.min(n, Math.ceil(n * q + delta));
+            final long value = time.getPercentile(percentile);
+            final long low = time.getPercentile(100.0 * lowRank / n);
+            final long high = time.getPercentile(100.0 * highRank / n);
+            if (value > 0) {
+                error = Math.max(error, (high - low) / 2.0 / value);
+            }
+        }
+        return error;
+    }
+
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+
+}
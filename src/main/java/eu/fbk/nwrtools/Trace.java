@@ -0,0 +1,242 @@
+package eu.fbk.nwrtools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.impl.MapBindingSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.fbk.rdfpro.util.IO;
+
+/**
+ * A trace of query mixes to replay, in the format of the output TSV: columns ?mix.client and
+ * ?mix.start are mandatory, inputs are looked up in the data file based on column ?mix.input if
+ * available or taken from (lossy) columns {@code ?input.<var>} otherwise, queries are those
+ * having a {@code ?<query>.start} value and the further tuples of batch queries are the ones
+ * listed in {@code ?<query>.inputs}, if available (otherwise they are sampled again).
+ */
+final class Trace {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Trace.class);
+
+    private final List<List<Entry>> clients;
+
+    private final long duration;
+
+    private Trace(final List<List<Entry>> clients, final long duration) {
+        this.clients = clients;
+        this.duration = duration;
+    }
+
+    public static Trace read(final File file, final InputTable data, final Query[] queries,
+            final double speed) throws IOException {
+
+        Preconditions.checkArgument(speed > 0.0, "Invalid replay speed " + speed);
+        final long ts = System.currentTimeMillis();
+        try (BufferedReader reader = new BufferedReader(IO.utf8Reader(IO.buffer(IO
+                .read(file.getAbsolutePath()))))) {
+
+            // Locate the columns of interest
+            final List<String> header = Lists.newArrayList();
+            for (final String token : Strings.nullToEmpty(reader.readLine()).split("\t")) {
+                header.add(token.startsWith("?") ? token.substring(1) : token);
+            }
+            final int clientColumn = header.indexOf("mix.client");
+            final int startColumn = header.indexOf("mix.start");
+            final int inputColumn = header.indexOf("mix.input");
+            Preconditions.checkArgument(clientColumn >= 0 && startColumn >= 0,
+                    "Missing ?mix.client or ?mix.start column in trace " + file);
+            final List<String> variables = data.getVariables();
+            final int[] variableColumns = new int[variables.size()];
+            boolean hasInputValues = true;
+            for (int i = 0; i < variables.size(); ++i) {
+                variableColumns[i] = header.indexOf("input." + variables.get(i));
+                hasInputValues &= variableColumns[i] >= 0;
+            }
+            Preconditions.checkArgument(hasInputValues || inputColumn >= 0,
+                    "Missing ?mix.input or ?input.* columns in trace " + file);
+            if (inputColumn < 0) {
+                // ?input.* values are formatted without datatypes and language tags
+                LOGGER.warn("No ?mix.input column in trace {}: using ?input.* columns, "
+                        + "whose values may differ from the original ones", file);
+            }
+            final int[] queryColumns = new int[queries.length];
+            final int[] batchColumns = new int[queries.length];
+            for (int i = 0; i < queries.length; ++i) {
+                queryColumns[i] = header.indexOf(queries[i].getName() + ".start");
+                batchColumns[i] = header.indexOf(queries[i].getName() + ".inputs");
+                if (queries[i].getBatchSize() > 1 && queryColumns[i] >= 0
+                        && batchColumns[i] < 0) {
+                    LOGGER.warn("No ?{}.inputs column in trace {}: batches will be sampled "
+                            + "again", queries[i].getName(), file);
+                }
+            }
+
+            // Parse mixes, assigning them to clients numbered by their order in the trace
+            final Map<String, List<Entry>> clients = Maps.newLinkedHashMap();
+            long minStart = Long.MAX_VALUE;
+            long maxStart = Long.MIN_VALUE;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] tokens = line.split("\t", -1);
+                final long start = Long.parseLong(tokens[startColumn]);
+                final int input = inputColumn < 0 || tokens[inputColumn].isEmpty() ? -1
+                        : Integer.parseInt(tokens[inputColumn]);
+                final BindingSet bindings;
+                if (inputColumn < 0) {
+                    final MapBindingSet map = new MapBindingSet();
+                    for (int i = 0; i < variables.size(); ++i) {
+                        final Value value = QueryTestDriver.decode(tokens[variableColumns[i]]);
+                        if (value != null) {
+                            map.addBinding(variables.get(i), value);
+                        }
+                    }
+                    bindings = map;
+                } else {
+                    Preconditions.checkArgument(input >= 0 && input < data.size(),
+                            "Invalid input #" + input + " in trace " + file);
+                    bindings = data.get(input);
+                }
+                final List<Query> mixQueries = Lists.newArrayList();
+                final List<Long> mixStarts = Lists.newArrayList();
+                final List<int[]> mixBatches = Lists.newArrayList();
+                for (int i = 0; i < queries.length; ++i) {
+                    if (queryColumns[i] >= 0 && !tokens[queryColumns[i]].isEmpty()) {
+                        final long queryStart = Long.parseLong(tokens[queryColumns[i]]);
+                        int j = 0; // keep queries sorted by start time
+                        while (j < mixStarts.size() && mixStarts.get(j) <= queryStart) {
+                            ++j;
+                        }
+                        mixQueries.add(j, queries[i]);
+                        mixStarts.add(j, queryStart);
+                        mixBatches.add(j, batchColumns[i] < 0
+                                || tokens[batchColumns[i]].isEmpty() ? null : parseBatch(
+                                tokens[batchColumns[i]], data, file));
+                    }
+                }
+                final long[] queryOffsets = new long[mixStarts.size()];
+                for (int i = 0; i < queryOffsets.length; ++i) {
+                    queryOffsets[i] = (long) (Math.max(0L, mixStarts.get(i) - start) / speed);
+                }
+                List<Entry> entries = clients.get(tokens[clientColumn]);
+                if (entries == null) {
+                    entries = Lists.newArrayList();
+                    clients.put(tokens[clientColumn], entries);
+                }
+                entries.add(new Entry(start, input, bindings, mixQueries
+                        .toArray(new Query[mixQueries.size()]), queryOffsets, mixBatches
+                        .toArray(new int[mixBatches.size()][])));
+                minStart = Math.min(minStart, start);
+                maxStart = Math.max(maxStart, start);
+            }
+            Preconditions.checkArgument(!clients.isEmpty(), "Empty trace " + file);
+
+            // Make mix start times relative to the start of the trace
+            for (final List<Entry> entries : clients.values()) {
+                for (final Entry entry : entries) {
+                    entry.offset = (long) ((entry.offset - minStart) / speed);
+                }
+                Collections.sort(entries, new Comparator<Entry>() {
+
+                    @Override
+                    public int compare(final Entry first, final Entry second) {
+                        return Long.compare(first.offset, second.offset);
+                    }
+
+                });
+            }
+
+            final Trace trace = new Trace(ImmutableList.copyOf(clients.values()),
+                    (long) ((maxStart - minStart) / speed));
+            LOGGER.info("Parsed trace {} in {} ms: {} clients, {} ms", file,
+                    System.currentTimeMillis() - ts, trace.getNumClients(), trace.duration);
+            return trace;
+        }
+    }
+
+    private static int[] parseBatch(final String string, final InputTable data,
+            final File file) {
+        final List<String> tokens = Splitter.on(',').trimResults().splitToList(string);
+        final int[] batch = new int[tokens.size()];
+        for (int i = 0; i < batch.length; ++i) {
+            batch[i] = Integer.parseInt(tokens.get(i));
+            Preconditions.checkArgument(batch[i] >= 0 && batch[i] < data.size(),
+                    "Invalid batch input #" + batch[i] + " in trace " + file);
+        }
+        return batch;
+    }
+
+    public int getNumClients() {
+        return this.clients.size();
+    }
+
+    public List<Entry> getEntries(final int client) {
+        return this.clients.get(client);
+    }
+
+    public static final class Entry {
+
+        private long offset; // mix start w.r.t. trace start, scaled by replay speed
+
+        private final int input;
+
+        private final BindingSet bindings;
+
+        private final Query[] queries;
+
+        private final long[] queryOffsets; // query starts w.r.t. mix start, scaled
+
+        private final int[][] queryBatches; // further batch inputs, null if not recorded
+
+        Entry(final long offset, final int input, final BindingSet bindings,
+                final Query[] queries, final long[] queryOffsets, final int[][] queryBatches) {
+            this.offset = offset;
+            this.input = input;
+            this.bindings = bindings;
+            this.queries = queries;
+            this.queryOffsets = queryOffsets;
+            this.queryBatches = queryBatches;
+        }
+
+        public long getOffset() {
+            return this.offset;
+        }
+
+        public int getInput() {
+            return this.input;
+        }
+
+        public BindingSet getBindings() {
+            return this.bindings;
+        }
+
+        public Query[] getQueries() {
+            return this.queries;
+        }
+
+        public long[] getQueryOffsets() {
+            return this.queryOffsets;
+        }
+
+        public int[][] getQueryBatches() {
+            return this.queryBatches;
+        }
+
+    }
+
+}
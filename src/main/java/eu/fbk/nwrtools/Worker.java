@@ -0,0 +1,147 @@
+package eu.fbk.nwrtools;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.fbk.rdfpro.util.IO;
+
+final class Worker implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Worker.class);
+
+    private static final long CONNECT_TIMEOUT = 60000L;
+
+    private final Socket socket;
+
+    private final BufferedReader reader;
+
+    private final Writer writer;
+
+    private final int id;
+
+    private final AtomicReference<AtomicInteger> mixCounter; // to reset on STOP
+
+    private volatile boolean stopped;
+
+    @Nullable
+    private Thread listener;
+
+    private Worker(final Socket socket) throws IOException {
+        this.socket = socket;
+        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                StandardCharsets.UTF_8));
+        this.writer = new OutputStreamWriter(socket.getOutputStream(),
+                StandardCharsets.UTF_8);
+        this.id = Integer.parseInt(expect("WELCOME ").substring(8));
+        this.mixCounter = new AtomicReference<>();
+    }
+
+    public static Worker connect(final InetSocketAddress address) throws IOException,
+            InterruptedException {
+        // Retry for a while, as the coordinator may not have been started yet
+        final long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while (true) {
+            final Socket socket = new Socket();
+            try {
+                socket.connect(address);
+                final Worker worker = new Worker(socket);
+                LOGGER.info("Connected to coordinator {} as worker {}", address, worker.id);
+                return worker;
+            } catch (final ConnectException ex) {
+                IO.closeQuietly(socket);
+                if (System.currentTimeMillis() > deadline) {
+                    throw ex;
+                }
+                Thread.sleep(500);
+            }
+        }
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public String expect(final String command) throws IOException {
+        final String line = this.reader.readLine();
+        if (line == null || !(command.endsWith(" ") ? line.startsWith(command) : line
+                .equals(command))) {
+            throw new IOException("Expected " + command + " from coordinator, got " + line);
+        }
+        return line;
+    }
+
+    public void listen() {
+        // Wait for the STOP of the measurement in a separate thread, stopping the clients
+        this.stopped = false;
+        this.listener = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    expect("STOP");
+                } catch (final Throwable ex) {
+                    LOGGER.error("Lost connection with coordinator", ex);
+                }
+                Worker.this.stopped = true;
+                final AtomicInteger counter = Worker.this.mixCounter.get();
+                if (counter != null) {
+                    counter.set(0); // clients complete their current mix and stop
+                }
+            }
+
+        }, "worker-listener");
+        this.listener.setDaemon(true);
+        this.listener.start();
+    }
+
+    public void stopOnSignal(final AtomicInteger mixCounter) {
+        this.mixCounter.set(mixCounter);
+        if (this.stopped) {
+            mixCounter.set(0);
+        }
+    }
+
+    public void complete() throws IOException, InterruptedException {
+        // Report the completion of the measurement and wait for all workers to complete
+        send("DONE");
+        if (this.listener != null) {
+            this.listener.join();
+            this.listener = null;
+        }
+        this.mixCounter.set(null);
+        this.stopped = false;
+    }
+
+    public void send(final String command) throws IOException {
+        this.writer.write(command);
+        this.writer.write("\n");
+        this.writer.flush();
+    }
+
+    public void send(final Statistics stats) throws IOException {
+        this.writer.write("STATS " + stats.getElapsedTime() + "\n");
+        stats.write(this.writer);
+        send("END");
+    }
+
+    @Override
+    public void close() {
+        IO.closeQuietly(this.socket);
+    }
+
+}
@@ -0,0 +1,319 @@
+package eu.fbk.nwrtools.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A fixed-precision, log-bucketed histogram of non-negative long values.
+ * <p>
+ * Values below {@code 64} are counted exactly, while larger values are counted in buckets whose
+ * width is 1/32 of the octave they belong to, so that reported percentiles have a relative error
+ * below 1.6%. Buckets are allocated lazily up to the largest value recorded, so memory usage
+ * does not grow with the number of recorded values. Count, sum, min, max and the sums required
+ * for computing standard deviation and geometric mean are tracked exactly.
+ * </p>
+ * <p>
+ * A histogram supports a single writer thread (calling {@link #record(long)} and
+ * {@link #add(Histogram)}) and any number of concurrent reader threads, without locking. Readers
+ * may observe a slightly stale state but never a corrupted one; as buckets and totals are read
+ * separately, figures derived from them (e.g., percentiles and mean) may account for a different
+ * number of values while the writer is active. Instead, {@link #add(Histogram)}, {@link #copy()}
+ * and {@link #subtract(Histogram)} work on consistent snapshots of their arguments (the writer
+ * marks its updates with a version number, as in a seqlock).
+ * Histograms are merged with {@link #add(Histogram)}, compared with {@link #subtract(Histogram)}
+ * (e.g., to obtain the values recorded in a time window) and can be saved and restored with
+ * {@link #encode()} and {@link #decode(String)}.
+ * </p>
+ */
+public final class Histogram {
+
+    private static final int SUB_BITS = 5;
+
+    private static final int SUB_COUNT = 1 << SUB_BITS; // buckets per octave
+
+    private static final int EXACT_COUNT = SUB_COUNT << 1; // values counted exactly
+
+    private volatile AtomicLongArray counts;
+
+    private final AtomicLong count;
+
+    private final AtomicLong sum;
+
+    private final AtomicLong min;
+
+    private final AtomicLong max;
+
+    private final AtomicLong sumSquares; // double bits
+
+    private final AtomicLong sumLogs; // double bits, computed over non-zero values
+
+    private final AtomicLong version; // odd while the writer is updating the histogram
+
+    public Histogram() {
+        this.counts = new AtomicLongArray(EXACT_COUNT);
+        this.count = new AtomicLong(0L);
+        this.sum = new AtomicLong(0L);
+        this.min = new AtomicLong(Long.MAX_VALUE);
+        this.max = new AtomicLong(Long.MIN_VALUE);
+        this.sumSquares = new AtomicLong(Double.doubleToRawLongBits(0.0));
+        this.sumLogs = new AtomicLong(Double.doubleToRawLongBits(0.0));
+        this.version = new AtomicLong(0L);
+    }
+
+    public void record(final long value) {
+        final long v = Math.max(0L, value);
+        final int index = indexFor(v);
+        final long version = this.version.incrementAndGet(); // full fence, before updates
+        final AtomicLongArray counts = ensureCapacity(index + 1);
+        counts.lazySet(index, counts.get(index) + 1);
+        this.sum.lazySet(this.sum.get() + v);
+        addDouble(this.sumSquares, (double) v * v);
+        if (v > 0) {
+            addDouble(this.sumLogs, Math.log(v));
+        }
+        if (v < this.min.get()) {
+            this.min.lazySet(v);
+        }
+        if (v > this.max.get()) {
+            this.max.lazySet(v);
+        }
+        this.count.lazySet(this.count.get() + 1); // last, so readers see consistent buckets
+        this.version.lazySet(version + 1); // after updates
+    }
+
+    public void add(final Histogram histogram) {
+        addUnchecked(histogram.snapshot());
+    }
+
+    private void addUnchecked(final Histogram histogram) {
+        final long count = histogram.count.get();
+        if (count == 0) {
+            return;
+        }
+        final long version = this.version.incrementAndGet(); // full fence, before updates
+        final AtomicLongArray source = histogram.counts;
+        final AtomicLongArray counts = ensureCapacity(source.length());
+        for (int i = 0; i < source.length(); ++i) {
+            final long c = source.get(i);
+            if (c != 0) {
+                counts.lazySet(i, counts.get(i) + c);
+            }
+        }
+        this.sum.lazySet(this.sum.get() + histogram.sum.get());
+        addDouble(this.sumSquares, Double.longBitsToDouble(histogram.sumSquares.get()));
+        addDouble(this.sumLogs, Double.longBitsToDouble(histogram.sumLogs.get()));
+        this.min.lazySet(Math.min(this.min.get(), histogram.min.get()));
+        this.max.lazySet(Math.max(this.max.get(), histogram.max.get()));
+        this.count.lazySet(this.count.get() + count);
+        this.version.lazySet(version + 1); // after updates
+    }
+
+    public Histogram copy() {
+        return snapshot();
+    }
+
+    public Histogram subtract(final Histogram base) {
+        // Work on snapshots, so that buckets and totals refer to the same recorded values
+        final Histogram current = snapshot();
+        final Histogram previous = base.snapshot();
+        final Histogram result = new Histogram();
+        final AtomicLongArray counts = current.counts;
+        final AtomicLongArray baseCounts = previous.counts;
+        final AtomicLongArray resultCounts = result.ensureCapacity(counts.length());
+        long count = 0L;
+        int lowestIndex = -1;
+        int highestIndex = -1;
+        for (int i = 0; i < counts.length(); ++i) {
+            final long c = counts.get(i) - (i < baseCounts.length() ? baseCounts.get(i) : 0L);
+            if (c > 0) {
+                resultCounts.set(i, c);
+                count += c;
+                lowestIndex = lowestIndex < 0 ? i : lowestIndex;
+                highestIndex = i;
+            }
+        }
+        if (count > 0) {
+            // min and max are known only up to the bucket they fall in
+            result.sum.set(current.sum.get() - previous.sum.get());
+            result.min.set(Math.max(current.min.get(), lowestValueFor(lowestIndex)));
+            result.max.set(Math.min(current.max.get(), lowestValueFor(highestIndex)
+                    + widthFor(highestIndex) - 1));
+            addDouble(result.sumSquares, Double.longBitsToDouble(current.sumSquares.get())
+                    - Double.longBitsToDouble(previous.sumSquares.get()));
+            addDouble(result.sumLogs, Double.longBitsToDouble(current.sumLogs.get())
+                    - Double.longBitsToDouble(previous.sumLogs.get()));
+            result.count.set(count);
+        }
+        return result;
+    }
+
+    private Histogram snapshot() {
+        // Copy the histogram, retrying if the writer updated it meanwhile (odd or changed
+        // version), so that the copy reflects exactly the values recorded at some instant
+        while (true) {
+            final long version = this.version.get();
+            if ((version & 1L) == 0L) {
+                final Histogram copy = new Histogram();
+                copy.addUnchecked(this);
+                if (this.version.get() == version) {
+                    return copy;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getSum() {
+        return this.sum.get();
+    }
+
+    public long getMin() {
+        return this.count.get() == 0 ? 0L : this.min.get();
+    }
+
+    public long getMax() {
+        return this.count.get() == 0 ? 0L : this.max.get();
+    }
+
+    public double getMean() {
+        final long count = this.count.get();
+        return count == 0 ? Double.NaN : (double) this.sum.get() / count;
+    }
+
+    public double getStandardDeviation() {
+        final long count = this.count.get();
+        if (count < 2) {
+            return count == 0 ? Double.NaN : 0.0;
+        }
+        final double mean = (double) this.sum.get() / count;
+        final double sumSquares = Double.longBitsToDouble(this.sumSquares.get());
+        return Math.sqrt(Math.max(0.0, (sumSquares - count * mean * mean) / (count - 1)));
+    }
+
+    public double getGeometricMean() {
+        final long count = this.count.get();
+        if (count == 0) {
+            return Double.NaN;
+        } else if (this.counts.get(0) > 0) {
+            return 0.0; // as any zero value cancels the product
+        }
+        return Math.exp(Double.longBitsToDouble(this.sumLogs.get()) / count);
+    }
+
+    public long getPercentile(final double percentile) {
+        Preconditions.checkArgument(percentile >= 0.0 && percentile <= 100.0,
+                "Invalid percentile " + percentile);
+        final long count = this.count.get();
+        if (count == 0) {
+            return 0L;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+        final AtomicLongArray counts = this.counts;
+        long cumulated = 0L;
+        for (int i = 0; i < counts.length(); ++i) {
+            cumulated += counts.get(i);
+            if (cumulated >= rank) {
+                final long value = lowestValueFor(i) + (widthFor(i) - 1) / 2;
+                return Math.max(getMin(), Math.min(getMax(), value));
+            }
+        }
+        return getMax();
+    }
+
+    public String encode() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(this.count.get()).append(',').append(this.sum.get()).append(',');
+        builder.append(this.min.get()).append(',').append(this.max.get()).append(',');
+        builder.append(Double.longBitsToDouble(this.sumSquares.get())).append(',');
+        builder.append(Double.longBitsToDouble(this.sumLogs.get()));
+        final AtomicLongArray counts = this.counts;
+        for (int i = 0; i < counts.length(); ++i) {
+            final long c = counts.get(i);
+            if (c != 0) {
+                builder.append(' ').append(i).append(':').append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    public static Histogram decode(final String string) {
+        try {
+            final String[] tokens = string.trim().split(" ");
+            final String[] fields = tokens[0].split(",");
+            final Histogram histogram = new Histogram();
+            int maxIndex = -1;
+            for (int i = 1; i < tokens.length; ++i) {
+                maxIndex = Math.max(maxIndex, Integer.parseInt(tokens[i].split(":")[0]));
+            }
+            final AtomicLongArray counts = histogram.ensureCapacity(maxIndex + 1);
+            for (int i = 1; i < tokens.length; ++i) {
+                final int index = tokens[i].indexOf(':');
+                counts.set(Integer.parseInt(tokens[i].substring(0, index)),
+                        Long.parseLong(tokens[i].substring(index + 1)));
+            }
+            histogram.sum.set(Long.parseLong(fields[1]));
+            histogram.min.set(Long.parseLong(fields[2]));
+            histogram.max.set(Long.parseLong(fields[3]));
+            histogram.sumSquares.set(Double.doubleToRawLongBits(Double.parseDouble(fields[4])));
+            histogram.sumLogs.set(Double.doubleToRawLongBits(Double.parseDouble(fields[5])));
+            histogram.count.set(Long.parseLong(fields[0]));
+            return histogram;
+        } catch (final Throwable ex) {
+            throw new IllegalArgumentException("Invalid histogram encoding: " + string, ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d min=%d p50=%d p90=%d p99=%d p999=%d max=%d mean=%.1f",
+                getCount(), getMin(), getPercentile(50), getPercentile(90), getPercentile(99),
+                getPercentile(99.9), getMax(), getMean());
+    }
+
+    private AtomicLongArray ensureCapacity(final int length) {
+        final AtomicLongArray counts = this.counts;
+        if (counts.length() >= length) {
+            return counts;
+        }
+        final AtomicLongArray newCounts = new AtomicLongArray(length + SUB_COUNT);
+        for (int i = 0; i < counts.length(); ++i) {
+            newCounts.set(i, counts.get(i));
+        }
+        this.counts = newCounts;
+        return newCounts;
+    }
+
+    private static void addDouble(final AtomicLong holder, final double delta) {
+        holder.lazySet(Double.doubleToRawLongBits(Double.longBitsToDouble(holder.get()) + delta));
+    }
+
+    static int indexFor(final long value) {
+        if (value < EXACT_COUNT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BITS;
+        return EXACT_COUNT + (exponent - SUB_BITS - 1) * SUB_COUNT
+                + (int) (value >>> shift) - SUB_COUNT;
+    }
+
+    static long lowestValueFor(final int index) {
+        if (index < EXACT_COUNT) {
+            return index;
+        }
+        final int shift = (index - EXACT_COUNT) / SUB_COUNT + 1;
+        final long sub = (index - EXACT_COUNT) % SUB_COUNT + SUB_COUNT;
+        return sub << shift;
+    }
+
+    static long widthFor(final int index) {
+        return index < EXACT_COUNT ? 1L : 1L << (index - EXACT_COUNT) / SUB_COUNT + 1;
+    }
+
+}
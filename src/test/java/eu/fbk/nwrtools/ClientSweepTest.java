@@ -0,0 +1,66 @@
+package eu.fbk.nwrtools;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClientSweepTest {
+
+    @Test
+    public void testParseClients() {
+        Assert.assertArrayEquals(new int[] { 1, 2, 4 }, QueryTestDriver.parseClients("1,2,4"));
+        Assert.assertArrayEquals(new int[] { 1, 4, 7, 10 },
+                QueryTestDriver.parseClients("1-10+3"));
+        Assert.assertArrayEquals(new int[] { 1, 2, 4, 8, 16 },
+                QueryTestDriver.parseClients("1-16*2"));
+        Assert.assertArrayEquals(new int[] { 1, 2, 3, 4, 8, 16, 32 },
+                QueryTestDriver.parseClients("1-4+1, 8-32*2"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecreasingClients() {
+        QueryTestDriver.parseClients("4,2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRepeatedClients() {
+        QueryTestDriver.parseClients("1-4+1,4");
+    }
+
+    @Test
+    public void testKnee() {
+        // Throughput stops scaling from 4 to 8 clients, while p99 doubles
+        final List<Statistics> steps = Lists.newArrayList();
+        steps.add(step(1, 100, 100));
+        steps.add(step(2, 200, 100));
+        steps.add(step(4, 390, 105));
+        steps.add(step(8, 400, 200));
+        Assert.assertEquals(2, QueryTestDriver.findKnee(steps, 0.5));
+    }
+
+    @Test
+    public void testNoKnee() {
+        // Linear scaling, or flat throughput with flat latency (e.g., a fixed arrival rate)
+        Assert.assertEquals(-1, QueryTestDriver.findKnee(ImmutableList.of(step(1, 100, 100),
+                step(2, 200, 100), step(4, 400, 110)), 0.5));
+        Assert.assertEquals(-1, QueryTestDriver.findKnee(ImmutableList.of(step(1, 100, 100),
+                step(2, 100, 100), step(4, 100, 100)), 0.5));
+    }
+
+    private static Statistics step(final int clients, final int throughput,
+            final long p99) {
+        // Record 10 s worth of mixes at the given rate, the slowest 2% taking p99 ms
+        final Statistics stats = new Statistics(clients, ImmutableList.of("q"));
+        final Statistics.Recorder recorder = stats.newRecorder();
+        for (int i = 0; i < throughput * 10; ++i) {
+            recorder.reportQueryMixCompletion(i % 50 == 0 ? p99 : 10L);
+        }
+        stats.reportElapsedTest(10000L);
+        return stats;
+    }
+
+}
@@ -0,0 +1,162 @@
+package eu.fbk.nwrtools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.impl.MapBindingSet;
+
+import eu.fbk.knowledgestore.Session;
+
+public class FingerprintTest {
+
+    private static final String NS = "http://example.org/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testOrderInsensitive() {
+        final List<Object> results = results();
+        final String hash = fingerprint(results);
+        for (int i = 0; i < 10; ++i) {
+            Collections.shuffle(results, new Random(i));
+            Assert.assertEquals(hash, fingerprint(results));
+        }
+
+        // The order of bindings within a solution does not matter either
+        final MapBindingSet solution = new MapBindingSet();
+        solution.addBinding("o", new LiteralImpl("label 0", "en"));
+        solution.addBinding("s", new URIImpl(NS + "s0"));
+        results.set(results.indexOf(solutionFor(0)), solution);
+        Assert.assertEquals(hash, fingerprint(results));
+    }
+
+    @Test
+    public void testContentSensitive() {
+        final List<Object> results = results();
+        final String hash = fingerprint(results);
+
+        // A missing, duplicated or changed result gives a different hash
+        Assert.assertNotEquals(hash, fingerprint(results.subList(1, results.size())));
+        final List<Object> duplicated = Lists.newArrayList(results);
+        duplicated.add(results.get(0));
+        Assert.assertNotEquals(hash, fingerprint(duplicated));
+        final List<Object> changed = Lists.newArrayList(results);
+        final MapBindingSet solution = new MapBindingSet();
+        solution.addBinding("s", new URIImpl(NS + "s0"));
+        solution.addBinding("o", new LiteralImpl("label 0", "it"));
+        changed.set(changed.indexOf(solutionFor(0)), solution);
+        Assert.assertNotEquals(hash, fingerprint(changed));
+
+        // Swapping values between variables gives a different hash
+        final MapBindingSet swapped = new MapBindingSet();
+        swapped.addBinding("x", new URIImpl(NS + "a"));
+        swapped.addBinding("y", new URIImpl(NS + "b"));
+        final MapBindingSet original = new MapBindingSet();
+        original.addBinding("x", new URIImpl(NS + "b"));
+        original.addBinding("y", new URIImpl(NS + "a"));
+        Assert.assertNotEquals(fingerprint(ImmutableList.<Object>of(original)),
+                fingerprint(ImmutableList.<Object>of(swapped)));
+    }
+
+    @Test
+    public void testGoldenMismatch() {
+        final Query query = new HashQuery("0123456789abcdef");
+        final List<BindingSet> inputs = ImmutableList.<BindingSet>of(new MapBindingSet());
+
+        final MapBindingSet matching = new MapBindingSet();
+        query.evaluate(null, System.currentTimeMillis(), inputs, matching, new Random(0L), null,
+                "0123456789abcdef");
+        Assert.assertEquals("", matching.getValue("error").stringValue());
+
+        final MapBindingSet mismatching = new MapBindingSet();
+        query.evaluate(null, System.currentTimeMillis(), inputs, mismatching, new Random(0L),
+                null, "fedcba9876543210");
+        Assert.assertTrue(mismatching.getValue("error").stringValue().startsWith(
+                "Hash mismatch"));
+    }
+
+    @Test
+    public void testReadGoldenHashes() throws IOException {
+        final File file = this.folder.newFile("golden.tsv");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8)) {
+            writer.write("?mix.client\t?mix.input\t?a.hash\t?a.time\t?b.hash\n");
+            writer.write("0\t2\t00000000000000aa\t10\t00000000000000bb\n");
+            writer.write("1\t0\t00000000000000cc\t12\t\n");
+        }
+        final Map<String, String[]> hashes = QueryTestDriver.readGoldenHashes(file, 3);
+        Assert.assertEquals(2, hashes.size());
+        Assert.assertEquals("00000000000000cc", hashes.get("a")[0]);
+        Assert.assertNull(hashes.get("a")[1]);
+        Assert.assertEquals("00000000000000aa", hashes.get("a")[2]);
+        Assert.assertNull(hashes.get("b")[0]);
+        Assert.assertEquals("00000000000000bb", hashes.get("b")[2]);
+    }
+
+    private static List<Object> results() {
+        // Mixed solutions and statements, as the fingerprint accepts both
+        final List<Object> results = Lists.newArrayList();
+        for (int i = 0; i < 100; ++i) {
+            results.add(solutionFor(i));
+            results.add(new StatementImpl(new URIImpl(NS + "s" + i), new URIImpl(NS + "p"),
+                    new LiteralImpl(Integer.toString(i))));
+        }
+        return results;
+    }
+
+    private static BindingSet solutionFor(final int index) {
+        final MapBindingSet solution = new MapBindingSet();
+        solution.addBinding("s", new URIImpl(NS + "s" + index));
+        solution.addBinding("o", new LiteralImpl("label " + index, "en"));
+        return solution;
+    }
+
+    private static String fingerprint(final List<Object> results) {
+        final Fingerprint fingerprint = new Fingerprint();
+        for (final Object result : results) {
+            fingerprint.add(result);
+        }
+        return fingerprint.toString();
+    }
+
+    // A query returning a fixed result hash, as queries computing a fingerprint do
+    private static final class HashQuery extends Query {
+
+        private final String hash;
+
+        HashQuery(final String hash) {
+            super("q", new Properties(), ImmutableList.<String>of(), ImmutableList
+                    .<String>of(), true);
+            this.hash = hash;
+        }
+
+        @Override
+        void doEvaluate(final Session session, final BindingSet input,
+                final MapBindingSet output, final Random random) {
+            output.addBinding("hash", new LiteralImpl(this.hash));
+        }
+
+    }
+
+}
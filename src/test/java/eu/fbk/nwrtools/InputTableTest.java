@@ -0,0 +1,73 @@
+package eu.fbk.nwrtools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.BindingSet;
+
+public class InputTableTest {
+
+    private static final int SIZE = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testHeap() throws IOException {
+        check(InputTable.read(write(), false));
+    }
+
+    @Test
+    public void testMapped() throws IOException {
+        check(InputTable.read(write(), true));
+    }
+
+    private File write() throws IOException {
+        // Write distinct ids, a few repeated labels and a column unbound in odd rows
+        final File file = this.folder.newFile("data.tsv");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8)) {
+            writer.write("?id\t?opt\t?label\n");
+            for (int i = 0; i < SIZE; ++i) {
+                writer.write("<http://example.org/" + i + ">\t" + (i % 2 == 0 ? "<http://"
+                        + "example.org/opt>" : "") + "\tlabel " + i % 7 + " \u00e8\n");
+            }
+        }
+        return file;
+    }
+
+    private static void check(final InputTable table) {
+        Assert.assertEquals(ImmutableList.of("id", "opt", "label"), table.getVariables());
+        Assert.assertEquals(SIZE, table.size());
+        final Query.Template template = Query.Template.forString("${id} ${opt}");
+        for (int i = 0; i < SIZE; ++i) {
+            final URIImpl id = new URIImpl("http://example.org/" + i);
+            Assert.assertEquals(id, table.get(i, 0));
+            Assert.assertEquals(i % 2 == 0 ? new URIImpl("http://example.org/opt") : null,
+                    table.get(i, 1));
+            Assert.assertEquals(new LiteralImpl("label " + i % 7 + " \u00e8"), table.get(i, 2));
+            final BindingSet tuple = table.get(i);
+            Assert.assertEquals(i % 2 == 0 ? ImmutableSet.of("id", "opt", "label")
+                    : ImmutableSet.of("id", "label"), tuple.getBindingNames());
+            Assert.assertEquals(id, tuple.getValue("id"));
+            if (i % 2 == 0) {
+                Assert.assertEquals("<http://example.org/" + i + "> <http://example.org/opt>",
+                        template.instantiate(tuple));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package eu.fbk.nwrtools;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MixTest {
+
+    private static final String LAYER = "<http://dkm.fbk.eu/ontologies/knowledgestore#Resource>";
+
+    @Test
+    public void testDependencies() {
+        // c uses the output of a and follows b, so a and b run concurrently before c
+        final Mix[] mixes = Mix.parse("m=a+b+c:2, n=a", queries("c.after", "b", "c.condition",
+                "size > ${a.size}"));
+        Assert.assertEquals(2, mixes.length);
+        final Mix mix = mixes[0];
+        Assert.assertEquals("m", mix.getName());
+        Assert.assertEquals(2.0, mix.getWeight(), 0.0);
+        Assert.assertTrue(mix.isConcurrent());
+        Assert.assertArrayEquals(new int[0], mix.getPredecessors(0));
+        Assert.assertArrayEquals(new int[0], mix.getPredecessors(1));
+        Assert.assertArrayEquals(new int[] { 0, 1 }, mix.getPredecessors(2));
+        Assert.assertArrayEquals(new int[] { 2 }, mix.getSuccessors(0));
+        Assert.assertArrayEquals(new int[] { 2 }, mix.getSuccessors(1));
+        Assert.assertEquals("a, b, c after a+b", mix.formatDependencies());
+        Assert.assertFalse(mixes[1].isConcurrent());
+        Assert.assertEquals(1.0, mixes[1].getWeight(), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testForwardReference() {
+        Mix.parse("m=a+b+c", queries("a.after", "c"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testForwardOutputReference() {
+        Mix.parse("m=a+b+c", queries("a.condition", "size > ${b.size}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCycle() {
+        Mix.parse("m=a+b", queries("a.after", "b", "b.after", "a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSelfReference() {
+        Mix.parse("m=a+b", queries("b.after", "b"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownQuery() {
+        Mix.parse("m=a+d", queries());
+    }
+
+    private static List<Query> queries(final String... properties) {
+        // Create count queries a, b and c, with the supplied additional properties
+        final Properties config = new Properties();
+        for (final String name : new String[] { "a", "b", "c" }) {
+            config.setProperty(name + ".type", "count");
+            config.setProperty(name + ".layer", LAYER);
+        }
+        for (int i = 0; i < properties.length; i += 2) {
+            config.setProperty(properties[i], properties[i + 1]);
+        }
+        return Query.create(config, new Properties());
+    }
+
+}
@@ -0,0 +1,112 @@
+package eu.fbk.nwrtools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import eu.fbk.nwrtools.util.Histogram;
+
+public class QueryTestCompareTest {
+
+    private static final int SIZE = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPercentileInterval() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 10000; ++i) {
+            histogram.record(i);
+        }
+        final long p99 = histogram.getPercentile(99);
+        final long[] interval = QueryTestCompare.percentileInterval(histogram, 99, 2.576);
+        Assert.assertTrue(interval[0] <= p99 && interval[1] >= p99);
+        Assert.assertTrue(interval[1] - interval[0] <= 0.02 * p99);
+
+        // Few samples: the interval extends to the maximum
+        final Histogram small = new Histogram();
+        for (int i = 1; i <= 10; ++i) {
+            small.record(i);
+        }
+        Assert.assertArrayEquals(new long[] { 9, 10 }, QueryTestCompare.percentileInterval(
+                small, 99, 2.576));
+    }
+
+    @Test
+    public void testNoRegression() throws IOException {
+        final QueryTestCompare.Run baseline = read("base.tsv", 0);
+        final QueryTestCompare.Run run = read("run.tsv", 0);
+        final StringBuilder builder = new StringBuilder();
+        Assert.assertEquals(0, QueryTestCompare.compare(baseline, run, 0.1, 0.01, builder));
+        Assert.assertFalse(builder.toString().contains("REGRESSION"));
+    }
+
+    @Test
+    public void testMeanRegression() throws IOException {
+        final QueryTestCompare.Run baseline = read("base.tsv", 0);
+        final QueryTestCompare.Run run = read("run.tsv", 100);
+        final StringBuilder builder = new StringBuilder();
+        Assert.assertEquals(1, QueryTestCompare.compare(baseline, run, 0.1, 0.01, builder));
+        Assert.assertTrue(builder.toString().contains("REGRESSION (mean, p99)"));
+    }
+
+    @Test
+    public void testTailRegression() throws IOException {
+        // A slower 2% of queries moves p99 but not the mean beyond the threshold
+        final QueryTestCompare.Run baseline = read("base.tsv", 0);
+        final QueryTestCompare.Run run = read("run.tsv", -100);
+        final StringBuilder builder = new StringBuilder();
+        Assert.assertEquals(1, QueryTestCompare.compare(baseline, run, 0.1, 0.01, builder));
+        Assert.assertTrue(builder.toString().contains("REGRESSION (p99)"));
+    }
+
+    @Test
+    public void testAllErrors() throws IOException {
+        // A query that always fails has no times to compare, but must be flagged
+        final QueryTestCompare.Run baseline = read("base.tsv", 0);
+        final QueryTestCompare.Run run = read("run.tsv", 0, "a", "IOException - timeout");
+        final StringBuilder builder = new StringBuilder();
+        Assert.assertEquals(1, QueryTestCompare.compare(baseline, run, 0.1, 0.01, builder));
+        Assert.assertTrue(builder.toString().contains("REGRESSION (errors)"));
+    }
+
+    @Test
+    public void testMissingQuery() throws IOException {
+        // A query of the baseline that is not run anymore is flagged as well
+        final QueryTestCompare.Run baseline = read("base.tsv", 0);
+        final QueryTestCompare.Run run = read("run.tsv", 0, "b", "");
+        final StringBuilder builder = new StringBuilder();
+        Assert.assertEquals(1, QueryTestCompare.compare(baseline, run, 0.1, 0.01, builder));
+        Assert.assertTrue(builder.toString().contains("REGRESSION (missing)"));
+    }
+
+    private QueryTestCompare.Run read(final String name, final int delay) throws IOException {
+        return read(name, delay, "a", "");
+    }
+
+    private QueryTestCompare.Run read(final String name, final int delay, final String query,
+            final String error) throws IOException {
+        // Write a run of a query taking 100-109 ms, plus 'delay' ms (the slowest 2% if < 0)
+        final File file = this.folder.newFile(name);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8)) {
+            writer.write("?mix.start\t?mix.time\t?" + query + ".time\t?" + query + ".error\n");
+            for (int i = 0; i < SIZE; ++i) {
+                final int time = 100 + i % 10;
+                final int extra = delay >= 0 ? delay : i % 50 == 0 ? -delay : 0;
+                writer.write(i * 10 + "\t100\t" + (time + extra) + "\t" + error + "\n");
+            }
+        }
+        return QueryTestCompare.Run.read(file, null);
+    }
+
+}
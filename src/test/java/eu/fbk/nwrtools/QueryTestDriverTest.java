@@ -0,0 +1,117 @@
+package eu.fbk.nwrtools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import com.google.common.base.Joiner;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class QueryTestDriverTest {
+
+    private static final String RESOURCE_NS = "http://www.newsreader-project.eu/data/synthetic/";
+
+    private static final String RESOURCE_LAYER = //
+    "<http://dkm.fbk.eu/ontologies/knowledgestore#Resource>";
+
+    private static final List<String> QUERIES = Arrays.asList("download", "retrieve", "lookup",
+            "batchlookup", "lookupall", "count", "select", "construct", "ask");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAgainstStandIn() throws Throwable {
+
+        // Start a stand-in with a few resources, no latency and no failures
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        final HttpServer server = new KSStandIn(100, 5, 10, 0, 0.0, 0, 0.0, 0).start(port, 4);
+
+        try {
+            // Generate test data
+            final File dir = this.folder.getRoot();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir,
+                    "data.tsv")), StandardCharsets.UTF_8)) {
+                writer.write("?id\n");
+                for (int i = 0; i < 100; ++i) {
+                    writer.write("<" + RESOURCE_NS + i + ".xml>\n");
+                }
+            }
+
+            // Configure a query of each type supported by the stand-in, run once per mix
+            final Properties config = new Properties();
+            config.setProperty("test.url", "http://localhost:" + port + "/");
+            config.setProperty("test.data", "data.tsv");
+            config.setProperty("test.out", "out.tsv");
+            config.setProperty("test.queries", Joiner.on(',').join(QUERIES));
+            config.setProperty("test.testmixes", "20");
+            config.setProperty("test.clients", "2");
+            config.setProperty("download.type", "download");
+            config.setProperty("download.id", "${id}");
+            config.setProperty("retrieve.type", "retrieve");
+            config.setProperty("retrieve.layer", RESOURCE_LAYER);
+            config.setProperty("retrieve.limit", "10");
+            config.setProperty("lookup.type", "lookup");
+            config.setProperty("lookup.layer", RESOURCE_LAYER);
+            config.setProperty("lookup.id", "${id}");
+            config.setProperty("batchlookup.type", "batchlookup");
+            config.setProperty("batchlookup.layer", RESOURCE_LAYER);
+            config.setProperty("batchlookup.id", "${id}");
+            config.setProperty("batchlookup.batch", "4");
+            config.setProperty("lookupall.type", "lookupall");
+            config.setProperty("lookupall.id", "${id}");
+            config.setProperty("count.type", "count");
+            config.setProperty("count.layer", RESOURCE_LAYER);
+            config.setProperty("select.type", "sparql");
+            config.setProperty("select.query", "SELECT ?s ?o WHERE { ${id} ?p ?o }");
+            config.setProperty("construct.type", "sparql");
+            config.setProperty("construct.query", "CONSTRUCT { ${id} ?p ?o } "
+                    + "WHERE { ${id} ?p ?o }");
+            config.setProperty("ask.type", "sparql");
+            config.setProperty("ask.query", "ASK { ${id} ?p ?o }");
+            new QueryTestDriver(config, dir).run();
+
+            // Check that all the queries of all the mixes completed without errors
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(new File(dir, "out.tsv")), StandardCharsets.UTF_8))) {
+                final List<String> header = Arrays.asList(reader.readLine().split("\t"));
+                int numMixes = 0;
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    final String[] tokens = line.split("\t", -1);
+                    for (final String query : QUERIES) {
+                        final int time = header.indexOf("?" + query + ".time");
+                        final int error = header.indexOf("?" + query + ".error");
+                        Assert.assertFalse(query + " not executed", tokens[time].isEmpty());
+                        Assert.assertTrue(query + " failed: " + tokens[error],
+                                tokens[error].isEmpty());
+                    }
+                    final int inputs = header.indexOf("?batchlookup.inputs");
+                    Assert.assertEquals(3, tokens[inputs].split(",").length);
+                    ++numMixes;
+                }
+                Assert.assertEquals(20, numMixes);
+            }
+
+        } finally {
+            server.stop(0);
+        }
+    }
+
+}
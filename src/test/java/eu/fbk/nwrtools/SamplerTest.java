@@ -0,0 +1,76 @@
+package eu.fbk.nwrtools;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SamplerTest {
+
+    private static final int SIZE = 1000;
+
+    private static final int SAMPLES = 200000;
+
+    @Test
+    public void testZipf() {
+        // P(rank 1) = 1 / H(SIZE) with skew 1, and rank 2 is picked half as often as rank 1
+        final long[] counts = sample(new Sampler("zipf", SIZE, 1L, 1.0, 0.1, 0.9, 1));
+        double harmonic = 0.0;
+        for (int i = 1; i <= SIZE; ++i) {
+            harmonic += 1.0 / i;
+        }
+        Assert.assertEquals(1.0 / harmonic, (double) counts[0] / SAMPLES, 0.005);
+        Assert.assertEquals(0.5, (double) counts[1] / counts[0], 0.05);
+    }
+
+    @Test
+    public void testHotset() {
+        // The 10% hot tuples get 90% of the picks, uniformly
+        final long[] counts = sample(new Sampler("hotset", SIZE, 1L, 1.0, 0.1, 0.9, 1));
+        long hot = 0L;
+        for (int i = 0; i < SIZE / 10; ++i) {
+            hot += counts[i];
+        }
+        Assert.assertEquals(0.9, (double) hot / SAMPLES, 0.005);
+        Assert.assertTrue(counts[SIZE / 10 - 1] > 2 * counts[SIZE / 10]);
+    }
+
+    @Test
+    public void testSequential() {
+        // Two workers with the same seed pick disjoint halves of the input, then wrap around
+        final Sampler sampler0 = new Sampler("sequential", SIZE, 1L, 1.0, 0.1, 0.9, 2);
+        final Sampler sampler1 = new Sampler("sequential", SIZE, 1L, 1.0, 0.1, 0.9, 2);
+        final Random random = new Random(0L);
+        final Set<Integer> picked = Sets.newHashSet();
+        final int first = sampler0.next(random, 0);
+        picked.add(first);
+        for (int i = 1; i < SIZE / 2; ++i) {
+            picked.add(sampler0.next(random, 0));
+            picked.add(sampler1.next(random, 1));
+        }
+        picked.add(sampler1.next(random, 1));
+        Assert.assertEquals(SIZE, picked.size());
+        Assert.assertEquals(first, sampler0.next(random, 0));
+    }
+
+    private static long[] sample(final Sampler sampler) {
+        // Return pick counts sorted by decreasing frequency
+        final Random random = new Random(0L);
+        final long[] counts = new long[SIZE];
+        for (int i = 0; i < SAMPLES; ++i) {
+            ++counts[sampler.next(random, 0)];
+        }
+        Arrays.sort(counts);
+        for (int i = 0; i < SIZE / 2; ++i) {
+            final long count = counts[i];
+            counts[i] = counts[SIZE - 1 - i];
+            counts[SIZE - 1 - i] = count;
+        }
+        return counts;
+    }
+
+}
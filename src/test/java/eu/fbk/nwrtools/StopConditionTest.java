@@ -0,0 +1,67 @@
+package eu.fbk.nwrtools;
+
+import java.util.Random;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eu.fbk.nwrtools.util.Histogram;
+
+public class StopConditionTest {
+
+    @Test
+    public void testConvergence() {
+        try (StopCondition condition = newCondition(false)) {
+            final Random random = new Random(0L);
+            final Histogram time = new Histogram();
+            for (int i = 0; i < 20; ++i) {
+                time.record(100 + random.nextInt(1000));
+            }
+            Assert.assertTrue(Double.isInfinite(condition.relativeError(time)));
+
+            // The error shrinks with the number of samples, down to the precision of 2%
+            for (int i = 20; i < 200; ++i) {
+                time.record(100 + random.nextInt(1000));
+            }
+            final double error = condition.relativeError(time);
+            Assert.assertTrue(error > 0.02);
+            for (int i = 200; i < 200000; ++i) {
+                time.record(100 + random.nextInt(1000));
+            }
+            Assert.assertTrue(condition.relativeError(time) < error);
+            Assert.assertTrue(condition.relativeError(time) <= 0.02);
+        }
+    }
+
+    @Test
+    public void testSteadyState() {
+        try (StopCondition condition = newCondition(true)) {
+            // Mix times decreasing by 10% each interval (warm-up) never look steady
+            final Histogram warming = new Histogram();
+            for (int window = 0; window < 20; ++window) {
+                for (int i = 0; i < 100; ++i) {
+                    warming.record((long) (1000 * Math.pow(0.9, window)));
+                }
+                Assert.assertFalse(condition.isSteady(warming.copy()));
+            }
+        }
+        try (StopCondition condition = newCondition(true)) {
+            // Constant mix times are steady once enough windows are observed
+            final Histogram steady = new Histogram();
+            for (int window = 0; window < 10; ++window) {
+                for (int i = 0; i < 100; ++i) {
+                    steady.record(100 + i % 10);
+                }
+                Assert.assertEquals(window == 9, condition.isSteady(steady.copy()));
+            }
+        }
+    }
+
+    private static StopCondition newCondition(final boolean steadyState) {
+        final Statistics stats = new Statistics(1, ImmutableList.of("a"));
+        return new StopCondition(stats, 1000L, steadyState, 0.02, 0.95, new double[] { 50, 99 });
+    }
+
+}
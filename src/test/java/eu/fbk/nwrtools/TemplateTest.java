@@ -0,0 +1,39 @@
+package eu.fbk.nwrtools;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.impl.MapBindingSet;
+
+public class TemplateTest {
+
+    @Test
+    public void testInstantiate() {
+        final Query.Template template = Query.Template.forString(
+                "SELECT * WHERE { ${s} ?p ${o} } # ${s}");
+        Assert.assertEquals(ImmutableSet.of("s", "o"), template.getVariables());
+        Assert.assertEquals("SELECT * WHERE {  ?p  } # ".length(), template.getLength());
+
+        final MapBindingSet bindings = new MapBindingSet();
+        bindings.addBinding("s", new URIImpl("http://example.org/s"));
+        bindings.addBinding("o", new URIImpl("http://example.org/o"));
+        Assert.assertEquals("SELECT * WHERE { <http://example.org/s> ?p <http://example.org/o> "
+                + "} # <http://example.org/s>", template.instantiate(bindings));
+
+        // Instantiating again with other bindings gives a new string
+        bindings.addBinding("s", new URIImpl("http://example.org/t"));
+        Assert.assertEquals("SELECT * WHERE { <http://example.org/t> ?p <http://example.org/o> "
+                + "} # <http://example.org/t>", template.instantiate(bindings));
+    }
+
+    @Test
+    public void testConstant() {
+        final Query.Template template = Query.Template.forString("ASK { ?s ?p ?o }");
+        Assert.assertTrue(template.getVariables().isEmpty());
+        Assert.assertEquals("ASK { ?s ?p ?o }", template.instantiate(new MapBindingSet()));
+        Assert.assertEquals("", Query.Template.forString(null).instantiate(new MapBindingSet()));
+    }
+
+}
@@ -0,0 +1,151 @@
+package eu.fbk.nwrtools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.impl.MapBindingSet;
+
+import eu.fbk.rdfpro.util.Statements;
+
+public class TraceTest {
+
+    private static final String NS = "http://example.org/";
+
+    private static final String LAYER = "<http://dkm.fbk.eu/ontologies/knowledgestore#Resource>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final InputTable data = data();
+        final Query[] queries = queries();
+        final List<String> variables = ImmutableList.of("mix.client", "mix.input", "mix.start",
+                "input.id", "lookup.start", "batch.start", "batch.inputs");
+
+        // Mixes of client 0 are out of order, the first one has a recorded batch
+        final File file = write("trace.tsv", variables, //
+                mix(0, 3, 1200, 1250, -1, null), //
+                mix(0, 2, 1000, 1010, 1005, "4,5"), //
+                mix(1, 7, 1500, 1520, -1, null));
+        final Trace trace = Trace.read(file, data, queries, 2.0);
+        Assert.assertEquals(2, trace.getNumClients());
+
+        // Mix and query offsets are relative to the trace and mix starts, halved by speed 2
+        final List<Trace.Entry> client0 = trace.getEntries(0);
+        Assert.assertEquals(2, client0.size());
+        final Trace.Entry first = client0.get(0);
+        Assert.assertEquals(0L, first.getOffset());
+        Assert.assertEquals(2, first.getInput());
+        Assert.assertEquals(data.get(2), first.getBindings());
+        Assert.assertArrayEquals(new Query[] { queries[1], queries[0] }, first.getQueries());
+        Assert.assertArrayEquals(new long[] { 2L, 5L }, first.getQueryOffsets());
+        Assert.assertArrayEquals(new int[] { 4, 5 }, first.getQueryBatches()[0]);
+        Assert.assertNull(first.getQueryBatches()[1]);
+        final Trace.Entry second = client0.get(1);
+        Assert.assertEquals(100L, second.getOffset());
+        Assert.assertEquals(3, second.getInput());
+        Assert.assertArrayEquals(new Query[] { queries[0] }, second.getQueries());
+        Assert.assertArrayEquals(new long[] { 25L }, second.getQueryOffsets());
+        final Trace.Entry third = trace.getEntries(1).get(0);
+        Assert.assertEquals(250L, third.getOffset());
+        Assert.assertEquals(7, third.getInput());
+    }
+
+    @Test
+    public void testInputValues() throws IOException {
+        // Without ?mix.input (e.g., access logs), inputs are rebuilt from ?input.* values
+        final InputTable data = data();
+        final File file = write("trace.tsv", ImmutableList.of("mix.client", "mix.start",
+                "input.id", "lookup.start"), mix(0, 6, 1000, 1000, -1, null));
+        final Trace.Entry entry = Trace.read(file, data, queries(), 1.0).getEntries(0).get(0);
+        Assert.assertEquals(-1, entry.getInput());
+        Assert.assertEquals(new URIImpl(NS + 6), entry.getBindings().getValue("id"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBatch() throws IOException {
+        final File file = write("trace.tsv", ImmutableList.of("mix.client", "mix.input",
+                "mix.start", "batch.start", "batch.inputs"), mix(0, 1, 1000, -1, 1000, "4,10"));
+        Trace.read(file, data(), queries(), 1.0);
+    }
+
+    private InputTable data() throws IOException {
+        final File file = this.folder.newFile("data.tsv");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8)) {
+            writer.write("?id\n");
+            for (int i = 0; i < 10; ++i) {
+                writer.write("<" + NS + i + ">\n");
+            }
+        }
+        return InputTable.read(file, false);
+    }
+
+    private static Query[] queries() {
+        final Properties config = new Properties();
+        config.setProperty("lookup.type", "lookup");
+        config.setProperty("lookup.layer", LAYER);
+        config.setProperty("lookup.id", "${id}");
+        config.setProperty("batch.type", "batchlookup");
+        config.setProperty("batch.layer", LAYER);
+        config.setProperty("batch.id", "${id}");
+        config.setProperty("batch.batch", "3");
+        final Query[] queries = new Query[2];
+        for (final Query query : Query.create(config, new Properties())) {
+            queries[query.getName().equals("lookup") ? 0 : 1] = query;
+        }
+        return queries;
+    }
+
+    private static MapBindingSet mix(final int client, final int input, final long start,
+            final long lookupStart, final long batchStart, final String batchInputs) {
+        // Build the output tuple of a mix as emitted by the driver (-1 = query not run)
+        final ValueFactory vf = Statements.VALUE_FACTORY;
+        final MapBindingSet tuple = new MapBindingSet();
+        tuple.addBinding("mix.client", vf.createLiteral(client));
+        tuple.addBinding("mix.input", vf.createLiteral(input));
+        tuple.addBinding("mix.start", vf.createLiteral(start));
+        tuple.addBinding("input.id", vf.createURI(NS + input));
+        if (lookupStart >= 0) {
+            tuple.addBinding("lookup.start", vf.createLiteral(lookupStart));
+        }
+        if (batchStart >= 0) {
+            tuple.addBinding("batch.start", vf.createLiteral(batchStart));
+            tuple.addBinding("batch.inputs", vf.createLiteral(batchInputs));
+        }
+        return tuple;
+    }
+
+    private File write(final String name, final List<String> variables,
+            final MapBindingSet... tuples) throws IOException {
+        // Write tuples with the header and the encoding of the driver output
+        final File file = this.folder.newFile(name);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8)) {
+            for (int i = 0; i < variables.size(); ++i) {
+                writer.write((i == 0 ? "?" : "\t?") + variables.get(i));
+            }
+            writer.write("\n");
+            for (final MapBindingSet tuple : tuples) {
+                writer.write(QueryTestDriver.encode(variables, tuple) + "\n");
+            }
+        }
+        return file;
+    }
+
+}
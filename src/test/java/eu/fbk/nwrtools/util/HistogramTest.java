@@ -0,0 +1,89 @@
+package eu.fbk.nwrtools.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void testBuckets() {
+        for (long value = 0; value < 1000000; value += 1 + value / 100) {
+            final int index = Histogram.indexFor(value);
+            final long lowest = Histogram.lowestValueFor(index);
+            Assert.assertTrue(value >= lowest && value < lowest + Histogram.widthFor(index));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100000; ++i) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(100000, histogram.getCount());
+        Assert.assertEquals(1, histogram.getMin());
+        Assert.assertEquals(100000, histogram.getMax());
+        Assert.assertEquals(50000.5, histogram.getMean(), 0.001);
+        Assert.assertEquals(50000, histogram.getPercentile(50), 50000 * 0.016);
+        Assert.assertEquals(99000, histogram.getPercentile(99), 99000 * 0.016);
+        Assert.assertEquals(99900, histogram.getPercentile(99.9), 99900 * 0.016);
+    }
+
+    @Test
+    public void testMergeAndEncode() {
+        final Histogram h1 = new Histogram();
+        final Histogram h2 = new Histogram();
+        for (int i = 0; i < 1000; ++i) {
+            h1.record(i);
+            h2.record(i * 1000);
+        }
+        final Histogram merged = Histogram.decode(h1.encode());
+        merged.add(Histogram.decode(h2.encode()));
+        Assert.assertEquals(2000, merged.getCount());
+        Assert.assertEquals(0, merged.getMin());
+        Assert.assertEquals(999000, merged.getMax());
+        Assert.assertEquals(h1.getSum() + h2.getSum(), merged.getSum());
+        Assert.assertEquals(merged.encode(), Histogram.decode(merged.encode()).encode());
+    }
+
+    @Test
+    public void testSubtract() {
+        final Histogram histogram = new Histogram();
+        for (int i = 0; i < 1000; ++i) {
+            histogram.record(i);
+        }
+        final Histogram snapshot = histogram.copy();
+        for (int i = 0; i < 100; ++i) {
+            histogram.record(5000 + i);
+        }
+        final Histogram window = histogram.subtract(snapshot);
+        Assert.assertEquals(100, window.getCount());
+        Assert.assertEquals(5049.5, window.getMean(), 0.001);
+        Assert.assertTrue(window.getMin() >= 4900 && window.getMax() <= 5099);
+    }
+
+    @Test
+    public void testSubtractWhileRecording() throws InterruptedException {
+        // All values are 10, so the sum of any window must be exactly 10 times its count
+        final Histogram histogram = new Histogram();
+        final Thread writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < 2000000; ++i) {
+                    histogram.record(10);
+                }
+            }
+
+        });
+        writer.start();
+        Histogram snapshot = new Histogram();
+        while (writer.isAlive()) {
+            final Histogram window = histogram.subtract(snapshot);
+            Assert.assertEquals(window.getCount() * 10, window.getSum());
+            snapshot = histogram.copy();
+        }
+        writer.join();
+    }
+
+}